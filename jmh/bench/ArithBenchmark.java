@@ -0,0 +1,52 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// times every way of processing a tree of arithmetic that ArithBench lists, over
+// generated trees of every shape from ten to ten million nodes. Cases which
+// overflow the stack on a tree fail in setup, and JMH goes on to the next.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class ArithBenchmark {
+  @Param({"EvalVisitor", "evalDouble", "evalDouble of base()", "evalDouble of custom operators",
+      "IterativeVisitor(EvalVisitor)",
+      "ArithCode.eval", "CompiledArith.eval", "ParallelEvalVisitor", "PrintVisitor",
+      "ArithPrinter", "AllEvenVisitor", "MirrorVisitor", "base()", "ArithFactory.intern",
+      "evalDouble of ArithFactory.intern", "MemoEvalVisitor",
+      "MemoEvalVisitor of ArithFactory.intern", "ArithWriter", "ArithReader", "ArithParser"})
+  public String workload;
+
+  @Param({"balanced", "left", "right", "random"})
+  public String shape;
+
+  @Param({"10", "1000", "100000", "1000000", "10000000"})
+  public int nodes;
+
+  Supplier<Object> work;
+
+  @Setup
+  public void setUp() {
+    this.work = Workloads.call("ArithBench", "workload", this.workload, this.shape, this.nodes);
+  }
+
+  @Benchmark
+  public Object run() {
+    return this.work.get();
+  }
+}
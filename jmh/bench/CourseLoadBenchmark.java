@@ -0,0 +1,53 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// times the queries over the courses of a student as each student takes more and
+// more courses. Comparing every pair of courses means doubling the courses should
+// about quadruple the time of those queries, while hashed ones such as
+// Student.dejavu should only about double.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class CourseLoadBenchmark {
+  @Param({"Student.classmates", "Student.allClassmates", "Student.dejavu", "Instructor.dejavu",
+      "anyCompareMatches(courses)", "anyDuplicateBy(courses)", "fold any(courses)",
+      "anyMatch(courses)", "RegistrarStore.classmates", "RegistrarStore.dejavu"})
+  public String query;
+
+  @Param({"2", "4", "8", "16", "32", "64", "128", "256"})
+  public int perStudent;
+
+  @Param({"2000"})
+  public int students;
+
+  IntFunction<Object> work;
+  int run;
+
+  @Setup
+  public void setUp() {
+    this.work = Workloads.call("RegistrarBench", "query", this.query, this.students, 5000,
+        1000, this.perStudent, 0.0);
+  }
+
+  @Benchmark
+  public Object run() {
+    this.run += 1;
+    return this.work.apply(this.run);
+  }
+}
@@ -0,0 +1,68 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// times enrollment through a ConcurrentRegistrar from more and more threads at
+// once, with one lock for everything and with the default stripes. Every
+// iteration starts from a registrar with no enrollments.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class EnrollBenchmark {
+  @Param({"1", "64"})
+  public int stripes;
+
+  @Param({"100000"})
+  public int students;
+
+  @Param({"1.0"})
+  public double skew;
+
+  Runnable enroll;
+
+  @Setup(Level.Iteration)
+  public void setUp() {
+    this.enroll = Workloads.call("RegistrarBench", "enroller", this.students, 5000, 1000,
+        this.skew, this.stripes);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public void threads1() {
+    this.enroll.run();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void threads4() {
+    this.enroll.run();
+  }
+
+  @Benchmark
+  @Threads(16)
+  public void threads16() {
+    this.enroll.run();
+  }
+
+  @Benchmark
+  @Threads(64)
+  public void threads64() {
+    this.enroll.run();
+  }
+}
@@ -0,0 +1,50 @@
+package bench;
+
+import java.util.Map;
+import org.openjdk.jol.info.GraphLayout;
+
+// prints the bytes of heap that the same registrar takes as objects and as a
+// RegistrarStore, and that the same tree of arithmetic takes as made and as
+// interned by an ArithFactory, walking everything each one reaches with JOL rather
+// than guessing from the heap in use around collections. Run with, for example:
+//   java -Xmx4g -Djdk.attach.allowAttachSelf -cp target/benchmarks.jar bench.Footprint
+//       --students 1000000 --nodes 1000000
+public class Footprint {
+  public static void main(String[] args) {
+    int students = 100000;
+    int perStudent = 5;
+    int nodes = 100000;
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      if (args[i].equals("--students")) {
+        students = Integer.parseInt(args[i + 1]);
+      } else if (args[i].equals("--per-student")) {
+        perStudent = Integer.parseInt(args[i + 1]);
+      } else if (args[i].equals("--nodes")) {
+        nodes = Integer.parseInt(args[i + 1]);
+      } else {
+        throw new IllegalArgumentException("unknown argument " + args[i]);
+      }
+    }
+    Map<String, Object> registrars = Workloads.call("RegistrarBench", "representations",
+        students, 5000, 1000, perStudent, 1.0);
+    long enrollments = (long) students * perStudent;
+    System.out.printf("%-30s %14s %14s %14s%n", "registrar", "objects", "bytes",
+        "bytes/enroll");
+    for (Map.Entry<String, Object> registrar : registrars.entrySet()) {
+      GraphLayout layout = GraphLayout.parseInstance(registrar.getValue());
+      System.out.printf("%-30s %14d %14d %14.1f%n", registrar.getKey(), layout.totalCount(),
+          layout.totalSize(), layout.totalSize() / (double) enrollments);
+    }
+
+    System.out.printf("%n%-42s %14s %14s %14s%n", "arithmetic", "objects", "bytes",
+        "bytes/node");
+    for (String shape : new String[] {"balanced", "left", "right", "random"}) {
+      Map<String, Object> trees = Workloads.call("ArithBench", "representations", shape, nodes);
+      for (Map.Entry<String, Object> tree : trees.entrySet()) {
+        GraphLayout layout = GraphLayout.parseInstance(tree.getValue());
+        System.out.printf("%-42s %14d %14d %14.1f%n", shape + " " + tree.getKey(),
+            layout.totalCount(), layout.totalSize(), layout.totalSize() / (double) nodes);
+      }
+    }
+  }
+}
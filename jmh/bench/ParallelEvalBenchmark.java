@@ -0,0 +1,66 @@
+package bench;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// times a ParallelEvalVisitor over pools of more and more threads, up to the
+// number of processors, to show how it scales. Pools larger than the machine
+// fail in setup, and JMH goes on to the next. Sweep other sizes with, for example:
+//   java -jar target/benchmarks.jar ParallelEvalBenchmark -p parallelism=1,2,3,4,5,6
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class ParallelEvalBenchmark {
+  @Param({"1", "2", "4", "8", "16", "32", "64"})
+  public int parallelism;
+
+  @Param({"1000", "10000", "100000"})
+  public int threshold;
+
+  @Param({"balanced", "left", "random"})
+  public String shape;
+
+  @Param({"1000000"})
+  public int nodes;
+
+  ForkJoinPool pool;
+  Supplier<Object> work;
+
+  @Setup
+  public void setUp() {
+    int processors = Runtime.getRuntime().availableProcessors();
+    if (this.parallelism > processors) {
+      throw new IllegalStateException("only " + processors + " processors for a pool of "
+          + this.parallelism);
+    }
+    this.pool = new ForkJoinPool(this.parallelism);
+    this.work = Workloads.call("ArithBench", "parallel", this.shape, this.nodes, this.pool,
+        this.threshold);
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.pool.shutdown();
+  }
+
+  @Benchmark
+  public Object run() {
+    return this.work.get();
+  }
+}
@@ -0,0 +1,61 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// times every registrar query that RegistrarBench lists, asked of the objects and
+// of a RegistrarStore, over synthetic registrars of several sizes and skews
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class RegistrarBenchmark {
+  @Param({"Student.classmates", "Student.allClassmates", "Student.dejavu", "Instructor.dejavu",
+      "anyCompareMatches(courses)", "anyCompareMatches(roster)", "anyDuplicateBy(courses)",
+      "anyDuplicateBy(roster)", "fold any(courses)", "anyMatch(courses)", "Course.sameProf",
+      "RegistrarStore.classmates", "RegistrarStore.dejavu", "RegistrarStore.sameProf"})
+  public String query;
+
+  @Param({"10000", "100000"})
+  public int students;
+
+  @Param({"5000"})
+  public int courses;
+
+  @Param({"1000"})
+  public int instructors;
+
+  @Param({"5"})
+  public int perStudent;
+
+  @Param({"0.0", "1.0"})
+  public double skew;
+
+  IntFunction<Object> work;
+  int run;
+
+  @Setup
+  public void setUp() {
+    this.work = Workloads.call("RegistrarBench", "query", this.query, this.students,
+        this.courses, this.instructors, this.perStudent, this.skew);
+  }
+
+  @Benchmark
+  public Object run() {
+    this.run += 1;
+    return this.work.apply(this.run);
+  }
+}
@@ -0,0 +1,47 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// times the queries over the roster of a course as the roster grows, by the same
+// reasoning as CourseLoadBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class RosterBenchmark {
+  @Param({"anyCompareMatches(roster)", "anyDuplicateBy(roster)"})
+  public String query;
+
+  @Param({"16", "64", "256", "1024", "4096"})
+  public int roster;
+
+  IntFunction<Object> work;
+  int run;
+
+  @Setup
+  public void setUp() {
+    // every student takes the one course
+    this.work = Workloads.call("RegistrarBench", "query", this.query, this.roster, 1, 1, 1,
+        0.0);
+  }
+
+  @Benchmark
+  public Object run() {
+    this.run += 1;
+    return this.work.apply(this.run);
+  }
+}
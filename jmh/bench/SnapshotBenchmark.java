@@ -0,0 +1,45 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// times snapshots of a ConcurrentRegistrar. A snapshot copies the head of every
+// list, so it should take time and space linear in the number of students,
+// whatever the number of enrollments.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class SnapshotBenchmark {
+  @Param({"1000", "10000", "100000"})
+  public int students;
+
+  @Param({"5"})
+  public int perStudent;
+
+  Supplier<Object> snapshot;
+
+  @Setup
+  public void setUp() {
+    this.snapshot = Workloads.call("RegistrarBench", "snapshots", this.students, 5000, 1000,
+        this.perStudent, 1.0);
+  }
+
+  @Benchmark
+  public Object snapshot() {
+    return this.snapshot.get();
+  }
+}
@@ -0,0 +1,70 @@
+package bench;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// samples how long enrollments take while another thread takes snapshots of the
+// same ConcurrentRegistrar, against enrollments alone, so that how long snapshots
+// stall writers shows in the tail percentiles of enroll in the snapshotting group.
+// The registrar is made again every iteration so that it does not fill up.
+@State(Scope.Group)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class SnapshotStallBenchmark {
+  @Param({"100000"})
+  public int students;
+
+  @Param({"1", "64"})
+  public int stripes;
+
+  Runnable enroll;
+  Supplier<Object> snapshot;
+
+  @Setup(Level.Iteration)
+  @SuppressWarnings("unchecked")
+  public void setUp() {
+    Map<String, Object> contended = Workloads.call("RegistrarBench", "contended",
+        this.students, 5000, 1000, 1.0, this.stripes);
+    this.enroll = (Runnable) contended.get("enroll");
+    this.snapshot = (Supplier<Object>) contended.get("snapshot");
+  }
+
+  @Benchmark
+  @Group("snapshotting")
+  @GroupThreads(3)
+  public void enroll() {
+    this.enroll.run();
+  }
+
+  @Benchmark
+  @Group("snapshotting")
+  @GroupThreads(1)
+  public Object snapshot() {
+    return this.snapshot.get();
+  }
+
+  @Benchmark
+  @Group("alone")
+  @GroupThreads(3)
+  public void enrollAlone() {
+    this.enroll.run();
+  }
+}
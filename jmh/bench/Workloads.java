@@ -0,0 +1,38 @@
+package bench;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+// the code under test lives in the unnamed package, which JMH benchmarks cannot
+// name, since JMH needs them in a package of their own. So the benchmarks call the
+// workload factories of that code reflectively while setting up, and time what
+// those return through the public interfaces of java.util.function.
+final class Workloads {
+  private Workloads() {
+  }
+
+  // returns the result of the named static method of the named class of the
+  // unnamed package, called with the given arguments
+  @SuppressWarnings("unchecked")
+  static <T> T call(String className, String method, Object... args) {
+    try {
+      for (Method m : Class.forName(className).getDeclaredMethods()) {
+        if (m.getName().equals(method) && m.getParameterCount() == args.length) {
+          m.setAccessible(true);
+          return (T) m.invoke(null, args);
+        }
+      }
+    } catch (ClassNotFoundException | IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      } else if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+    throw new IllegalArgumentException("no method " + method + " of " + className
+        + " takes " + args.length + " arguments");
+  }
+}
@@ -0,0 +1,462 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import tester.Tester;
+
+// builds trees of arithmetic of a given number of nodes and shape, out of
+// additions, subtractions and multiplications of small consts, without recursing
+class ArithTrees {
+  static final String[] SHAPES = new String[] { "balanced", "left", "right", "random" };
+
+  // returns a tree of the given shape with about the given number of nodes
+  static IArith make(String shape, int nodes, long seed) {
+    if (shape.equals("balanced")) {
+      return balanced(nodes);
+    } else if (shape.equals("left")) {
+      return leftDeep(nodes);
+    } else if (shape.equals("right")) {
+      return rightDeep(nodes);
+    } else if (shape.equals("random")) {
+      return random(nodes, seed);
+    }
+    throw new IllegalArgumentException("unknown shape " + shape);
+  }
+
+  // returns the number of leaves of a tree of binary formulas with the given number
+  // of nodes, rounding down to an odd number of nodes
+  static int leaves(int nodes) {
+    return Math.max(1, (nodes + 1) / 2);
+  }
+
+  // returns the ith leaf
+  static IArith leaf(int i) {
+    return new Const(i % 7 + 1);
+  }
+
+  // returns the ith formula over the given left and right
+  static IArith formula(int i, IArith left, IArith right) {
+    switch (i % 3) {
+      case 0:
+        return new Addition(left, right);
+      case 1:
+        return new Subtraction(left, right);
+      default:
+        return new Multiplication(left, right);
+    }
+  }
+
+  // returns a tree whose every formula has subtrees of nearly equal size
+  static IArith balanced(int nodes) {
+    IArith[] level = new IArith[leaves(nodes)];
+    for (int i = 0; i < level.length; i += 1) {
+      level[i] = leaf(i);
+    }
+    int count = level.length;
+    int made = 0;
+    while (count > 1) {
+      int next = 0;
+      for (int i = 0; i + 1 < count; i += 2) {
+        level[next] = formula(made, level[i], level[i + 1]);
+        next += 1;
+        made += 1;
+      }
+      if (count % 2 == 1) {
+        level[next] = level[count - 1];
+        next += 1;
+      }
+      count = next;
+    }
+    return level[0];
+  }
+
+  // returns a tree whose every formula has a leaf on its right
+  static IArith leftDeep(int nodes) {
+    int leaves = leaves(nodes);
+    IArith res = leaf(0);
+    for (int i = 1; i < leaves; i += 1) {
+      res = formula(i, res, leaf(i));
+    }
+    return res;
+  }
+
+  // returns a tree whose every formula has a leaf on its left
+  static IArith rightDeep(int nodes) {
+    int leaves = leaves(nodes);
+    IArith res = leaf(0);
+    for (int i = 1; i < leaves; i += 1) {
+      res = formula(i, leaf(i), res);
+    }
+    return res;
+  }
+
+  // returns a tree made by joining random pairs of subtrees until one is left
+  static IArith random(int nodes, long seed) {
+    Random random = new Random(seed);
+    IArith[] pool = new IArith[leaves(nodes)];
+    for (int i = 0; i < pool.length; i += 1) {
+      pool[i] = leaf(i);
+    }
+    int count = pool.length;
+    while (count > 1) {
+      int i = random.nextInt(count);
+      int j = random.nextInt(count - 1);
+      if (j >= i) {
+        j += 1;
+      }
+      pool[Math.min(i, j)] = formula(count, pool[i], pool[j]);
+      pool[Math.max(i, j)] = pool[count - 1];
+      count -= 1;
+    }
+    return pool[0];
+  }
+
+  // returns the number of nodes and the depth of the tree, without recursing
+  static long[] measure(IArith arith) {
+    ArrayDeque<IArith> todo = new ArrayDeque<IArith>();
+    ArrayDeque<Integer> depths = new ArrayDeque<Integer>();
+    long nodes = 0;
+    long depth = 0;
+    todo.push(arith);
+    depths.push(1);
+    while (!todo.isEmpty()) {
+      IArith node = todo.pop();
+      int d = depths.pop();
+      nodes += 1;
+      depth = Math.max(depth, d);
+      if (node instanceof UnaryFormula) {
+        todo.push(((UnaryFormula) node).child);
+        depths.push(d + 1);
+      } else if (node instanceof BinaryFormula) {
+        todo.push(((BinaryFormula) node).left);
+        depths.push(d + 1);
+        todo.push(((BinaryFormula) node).right);
+        depths.push(d + 1);
+      }
+    }
+    return new long[] { nodes, depth };
+  }
+}
+
+// one way of processing a tree of arithmetic, timed by ArithBench: prepare runs
+// once per tree, untimed, and work runs on what it returns again and again
+class ArithBenchCase {
+  String name;
+  Function<IArith, Object> prepare;
+  Function<Object, Object> work;
+
+  ArithBenchCase(String name, Function<IArith, Object> prepare, Function<Object, Object> work) {
+    this.name = name;
+    this.prepare = prepare;
+    this.work = work;
+  }
+
+  ArithBenchCase(String name, Function<IArith, Object> work) {
+    this(name, (arith) -> arith, (arith) -> work.apply((IArith) arith));
+  }
+}
+
+// the ways of processing trees of arithmetic which the JMH benchmarks in jmh time
+// over generated trees of every shape and several sizes. Run on its own, it finds
+// the deepest left-deep tree each case handles on the stack instead:
+//   java ArithBench --depth 1048576
+class ArithBench {
+  // keeps the results of work from being optimised away
+  static volatile int sink;
+
+  // the cases timed by the benchmarks
+  static ArrayList<ArithBenchCase> cases() {
+    ArrayList<ArithBenchCase> cases = new ArrayList<ArithBenchCase>();
+    cases.add(new ArithBenchCase("EvalVisitor", (arith) -> arith.accept(new EvalVisitor())));
+    cases.add(new ArithBenchCase("evalDouble", (arith) -> arith.evalDouble()));
+    cases.add(new ArithBenchCase("evalDouble of base()", (arith) -> arith.base(),
+        (arith) -> ((IArith) arith).evalDouble()));
+    cases.add(new ArithBenchCase("evalDouble of custom operators",
+        (arith) -> customOps(arith, false), (arith) -> ((IArith) arith).evalDouble()));
+    cases.add(new ArithBenchCase("IterativeVisitor(EvalVisitor)",
+        (arith) -> new IterativeVisitor<Double>(new EvalVisitor()).apply(arith)));
+    cases.add(new ArithBenchCase("ArithCode.eval", (arith) -> ArithCode.encode(arith),
+        (code) -> ((ArithCode) code).eval()));
+    cases.add(new ArithBenchCase("CompiledArith.eval", (arith) -> ArithCompiler.compile(arith),
+        (compiled) -> ((CompiledArith) compiled).eval()));
+    cases.add(new ArithBenchCase("ParallelEvalVisitor",
+        (arith) -> measured(new ParallelEvalVisitor(), arith),
+        (parallel) -> ((ParallelEvalVisitor) parallel).apply(
+            ((ParallelEvalVisitor) parallel).measured)));
+    cases.add(new ArithBenchCase("PrintVisitor", (arith) -> arith.accept(new PrintVisitor())));
+    cases.add(new ArithBenchCase("ArithPrinter", (arith) -> ArithPrinter.print(arith)));
+    cases.add(new ArithBenchCase("AllEvenVisitor",
+        (arith) -> arith.accept(new AllEvenVisitor())));
+    cases.add(new ArithBenchCase("MirrorVisitor",
+        (arith) -> arith.accept(new MirrorVisitor())));
+    cases.add(new ArithBenchCase("base()", (arith) -> arith.base()));
+    cases.add(new ArithBenchCase("ArithFactory.intern",
+        (arith) -> new ArithFactory().intern(arith)));
+    cases.add(new ArithBenchCase("evalDouble of ArithFactory.intern",
+        (arith) -> new ArithFactory().intern(arith), (dag) -> ((IArith) dag).evalDouble()));
+    cases.add(new ArithBenchCase("MemoEvalVisitor",
+        (arith) -> new MemoEvalVisitor().apply(arith)));
+    cases.add(new ArithBenchCase("MemoEvalVisitor of ArithFactory.intern",
+        (arith) -> new ArithFactory().intern(arith),
+        (dag) -> new MemoEvalVisitor().apply((IArith) dag)));
+    cases.add(new ArithBenchCase("ArithWriter", (arith) -> writeBinary(arith).length));
+    cases.add(new ArithBenchCase("ArithReader", (arith) -> writeBinary(arith),
+        (bytes) -> readBinary((byte[]) bytes)));
+    cases.add(new ArithBenchCase("ArithParser", (arith) -> ArithPrinter.print(arith),
+        (text) -> parseText((String) text)));
+    return cases;
+  }
+
+  // returns the work of the named case, prepared for a tree of the given shape and
+  // number of nodes, for a benchmark to run again and again. The work is run once
+  // here, so a case which overflows the stack on the tree fails now, not while timed.
+  static Supplier<Object> workload(String name, String shape, int nodes) {
+    for (ArithBenchCase c : cases()) {
+      if (c.name.equals(name)) {
+        Object prepared = c.prepare.apply(ArithTrees.make(shape, nodes, 42));
+        try {
+          sink += Objects.hashCode(c.work.apply(prepared));
+        } catch (StackOverflowError e) {
+          throw new IllegalStateException(
+              name + " overflows the stack on a " + shape + " tree of " + nodes + " nodes");
+        }
+        return () -> c.work.apply(prepared);
+      }
+    }
+    throw new IllegalArgumentException("unknown case " + name);
+  }
+
+  // returns the evaluation of a tree of the given shape and number of nodes by a
+  // ParallelEvalVisitor with the given pool and threshold, for a benchmark to run
+  // again and again. The tree is measured here, so only the evaluation is timed.
+  static Supplier<Object> parallel(String shape, int nodes, ForkJoinPool pool,
+      int threshold) {
+    ParallelEvalVisitor parallel = measured(new ParallelEvalVisitor(pool, threshold),
+        ArithTrees.make(shape, nodes, 42));
+    return () -> parallel.apply(parallel.measured);
+  }
+
+  // returns the visitor, having measured the tree for it to evaluate
+  static ParallelEvalVisitor measured(ParallelEvalVisitor parallel, IArith arith) {
+    parallel.splits = parallel.measure(arith);
+    parallel.measured = arith;
+    return parallel;
+  }
+
+  public static void main(String[] args) {
+    int depth = 1 << 20;
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      if (args[i].equals("--depth")) {
+        depth = Integer.parseInt(args[i + 1]);
+      } else {
+        throw new IllegalArgumentException("unknown argument " + args[i]);
+      }
+    }
+    stackLimits(depth);
+  }
+
+  // prints the depth of the deepest left-deep tree, up to the given depth, each case
+  // handles on this thread's stack. Every prefix of a left-deep chain is a tree of
+  // its own, so one chain serves every depth.
+  static void stackLimits(int maxDepth) {
+    IArith[] chain = new IArith[maxDepth + 1];
+    chain[0] = ArithTrees.leaf(0);
+    for (int i = 1; i <= maxDepth; i += 1) {
+      chain[i] = ArithTrees.formula(i, chain[i - 1], ArithTrees.leaf(i));
+    }
+    System.out.printf("%-30s %12s%n", "case", "max depth");
+    for (ArithBenchCase c : cases()) {
+      int low = 0;
+      int high = maxDepth + 1;
+      // the deepest tree known to work is at low, the shallowest known to fail at high
+      while (high - low > 1) {
+        int mid = low + (high - low) / 2;
+        if (handles(c, chain[mid])) {
+          low = mid;
+        } else {
+          high = mid;
+        }
+      }
+      System.out.printf("%-30s %12s%n", c.name,
+          high > maxDepth ? "> " + maxDepth : Integer.toString(low));
+    }
+  }
+
+  // does the case run on the tree without overflowing the stack?
+  static boolean handles(ArithBenchCase c, IArith tree) {
+    try {
+      sink += Objects.hashCode(c.work.apply(c.prepare.apply(tree)));
+      return true;
+    } catch (StackOverflowError e) {
+      return false;
+    }
+  }
+
+  // returns a tree of the given shape and number of nodes as made, interned into a
+  // DAG, and interned with the factory which interned it, by name, for their
+  // footprints to be measured
+  static Map<String, Object> representations(String shape, int nodes) {
+    IArith tree = ArithTrees.make(shape, nodes, 42);
+    ArithFactory factory = new ArithFactory();
+    IArith dag = factory.intern(tree);
+    LinkedHashMap<String, Object> representations = new LinkedHashMap<String, Object>();
+    representations.put("tree", tree);
+    representations.put("ArithFactory.intern", dag);
+    representations.put("ArithFactory.intern and factory", new Object[] {dag, factory});
+    representations.put("operator per node", customOps(tree, true));
+    return representations;
+  }
+
+  // returns a copy of the tree whose formulas have custom operators with the same
+  // funcs as theirs, so evaluating it calls the funcs rather than switching on ids;
+  // the operators are shared as the known ones are, or made anew for every node
+  static IArith customOps(IArith arith, boolean perNode) {
+    IdentityHashMap<ArithOp, ArithOp> customs = new IdentityHashMap<ArithOp, ArithOp>();
+    return new IterativeVisitor<IArith>(new IArithFolder<IArith>() {
+      public IArith apply(IArith arith) {
+        return arith.accept(this);
+      }
+
+      public IArith apply(Const arith) {
+        return arith;
+      }
+
+      public IArith apply(UnaryFormula arith) {
+        return this.apply(arith, arith.childAccept(this));
+      }
+
+      public IArith apply(BinaryFormula arith) {
+        return this.apply(arith, arith.leftAccept(this), arith.rightAccept(this));
+      }
+
+      public IArith apply(UnaryFormula arith, IArith child) {
+        UnaryArithOp op = arith.operator;
+        ArithOp custom = perNode ? null : customs.get(op);
+        if (custom == null) {
+          custom = new UnaryArithOp(op.func, op.op, op.name);
+          customs.put(op, custom);
+        }
+        return new UnaryFormula((UnaryArithOp) custom, child);
+      }
+
+      public IArith apply(BinaryFormula arith, IArith left, IArith right) {
+        BinaryArithOp op = arith.operator;
+        ArithOp custom = perNode ? null : customs.get(op);
+        if (custom == null) {
+          custom = new BinaryArithOp(op.func, op.op, op.name);
+          customs.put(op, custom);
+        }
+        return new BinaryFormula((BinaryArithOp) custom, left, right);
+      }
+    }).apply(arith);
+  }
+
+  // returns the binary form of the tree
+  static byte[] writeBinary(IArith arith) {
+    try {
+      ByteArrayOutputStream stream = new ByteArrayOutputStream();
+      ArithWriter writer = new ArithWriter(Channels.newChannel(stream));
+      writer.write(arith);
+      writer.flush();
+      return stream.toByteArray();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // returns the tree in the given binary form
+  static IArith readBinary(byte[] bytes) {
+    try {
+      return new ArithReader(ByteBuffer.wrap(bytes)).next();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // returns the tree in the given text
+  static IArith parseText(String text) {
+    try {
+      return new ArithParser(CharBuffer.wrap(text)).next();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
+
+class ExamplesArithBench {
+  boolean testTrees(Tester t) {
+    boolean res = true;
+
+    // every shape has the asked for number of nodes, rounded down to an odd number
+    for (String shape : ArithTrees.SHAPES) {
+      res &= t.checkExpect(ArithTrees.measure(ArithTrees.make(shape, 1, 1))[0], 1L);
+      res &= t.checkExpect(ArithTrees.measure(ArithTrees.make(shape, 1001, 1))[0], 1001L);
+      res &= t.checkExpect(ArithTrees.measure(ArithTrees.make(shape, 1000, 1))[0], 999L);
+    }
+
+    // - depths
+    res &= t.checkExpect(ArithTrees.measure(ArithTrees.balanced(1023))[1], 10L);
+    res &= t.checkExpect(ArithTrees.measure(ArithTrees.leftDeep(1001))[1], 501L);
+    res &= t.checkExpect(ArithTrees.measure(ArithTrees.rightDeep(1001))[1], 501L);
+    res &= t.checkExpect(((BinaryFormula) ArithTrees.leftDeep(5)).right, new Const(3));
+    res &= t.checkExpect(((BinaryFormula) ArithTrees.rightDeep(5)).left, new Const(3));
+
+    // random trees are the same for the same seed
+    res &= t.checkExpect(ArithTrees.random(101, 7), ArithTrees.random(101, 7));
+
+    // - measure does not recurse
+    res &= t.checkExpect(ArithTrees.measure(ArithTrees.leftDeep(1000001))[1], 500001L);
+
+    return res;
+  }
+
+  boolean testBenchCases(Tester t) {
+    boolean res = true;
+    IArith tree = ArithTrees.random(101, 3);
+
+    // every case runs, on its own and as a workload
+    for (ArithBenchCase c : ArithBench.cases()) {
+      res &= t.checkExpect(ArithBench.handles(c, tree), true);
+      res &= t.checkExpect(ArithBench.workload(c.name, "random", 101).get() != null, true);
+    }
+    res &= t.checkInexact((Double) ArithBench.workload("evalDouble", "balanced", 7).get(),
+        ArithTrees.balanced(7).evalDouble(), .001);
+
+    // cases which overflow the stack fail before they are timed
+    String error = "";
+    try {
+      ArithBench.workload("EvalVisitor", "left", 1000001);
+    } catch (IllegalStateException e) {
+      error = e.getMessage();
+    }
+    res &= t.checkExpect(error,
+        "EvalVisitor overflows the stack on a left tree of 1000001 nodes");
+    error = "";
+    try {
+      ArithBench.workload("Eval", "left", 11);
+    } catch (IllegalArgumentException e) {
+      error = e.getMessage();
+    }
+    res &= t.checkExpect(error, "unknown case Eval");
+    res &= t.checkExpect(ArithBench.readBinary(ArithBench.writeBinary(tree)), tree);
+    IArith custom = ArithBench.customOps(tree, false);
+    res &= t.checkExpect(((BinaryFormula) custom).operator.id, ArithOp.CUSTOM_ID);
+    res &= t.checkInexact(custom.evalDouble(), tree.evalDouble(), .001);
+    res &= t.checkExpect(ArithBench.parseText(ArithPrinter.print(tree)), tree);
+    ForkJoinPool pool = new ForkJoinPool(2);
+    res &= t.checkInexact((Double) ArithBench.parallel("left", 100001, pool, 1000).get(),
+        ArithTrees.leftDeep(100001).accept(new IterativeVisitor<Double>(new EvalVisitor())),
+        .001);
+    pool.shutdown();
+
+    Map<String, Object> representations = ArithBench.representations("balanced", 101);
+    res &= t.checkExpect(representations.keySet().toString(),
+        "[tree, ArithFactory.intern, ArithFactory.intern and factory, operator per node]");
+    res &= t.checkExpect(representations.get("ArithFactory.intern"),
+        ArithTrees.balanced(101).base());
+
+    return res;
+  }
+}
@@ -0,0 +1,490 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import tester.Tester;
+
+// the binary form of a stream of trees of arithmetic. It starts with MAGIC and the
+// VERSION, then holds each tree in postfix order as a series of varint tags:
+// CONST and PARAM are followed by their raw IEEE double (PARAM by its column
+// first), DEFINE gives the next operator id an arity byte and a UTF-8 name, a tag
+// of OPS + id applies that operator to the nodes before it, and END closes the
+// tree. Numbers are big-endian, and names are defined the first time they are used.
+class ArithBinary {
+  static final int MAGIC = 0x41524954;
+  static final int VERSION = 1;
+
+  static final int END = 0;
+  static final int CONST = 1;
+  static final int PARAM = 2;
+  static final int DEFINE = 3;
+  static final int OPS = 4;
+
+  // the longest name of an operator a reader accepts, in bytes
+  static final int MAX_NAME = 1 << 16;
+
+  static final int BUFFER_SIZE = 65536;
+}
+
+// writes trees of arithmetic in the ArithBinary form into a channel
+class ArithWriter {
+  WritableByteChannel channel;
+  ByteBuffer buffer = ByteBuffer.allocate(ArithBinary.BUFFER_SIZE);
+  // the ids of the operators defined so far
+  IdentityHashMap<ArithOp, Integer> ids = new IdentityHashMap<ArithOp, Integer>();
+  // reused stacks for walking trees
+  ArrayDeque<IArith> todo = new ArrayDeque<IArith>();
+  ArrayDeque<Boolean> expanded = new ArrayDeque<Boolean>();
+
+  ArithWriter(WritableByteChannel channel) {
+    this.channel = channel;
+    this.buffer.putInt(ArithBinary.MAGIC);
+    this.putVarint(ArithBinary.VERSION);
+  }
+
+  // writes the tree of arithmetic, in postfix order without recursing on it
+  void write(IArith arith) throws IOException {
+    this.todo.push(arith);
+    this.expanded.push(false);
+    while (!this.todo.isEmpty()) {
+      IArith node = this.todo.pop();
+      boolean done = this.expanded.pop();
+      this.ensure(16);
+      if (node instanceof UnaryFormula && !done) {
+        this.todo.push(node);
+        this.expanded.push(true);
+        this.todo.push(((UnaryFormula) node).child);
+        this.expanded.push(false);
+      } else if (node instanceof BinaryFormula && !done) {
+        this.todo.push(node);
+        this.expanded.push(true);
+        this.todo.push(((BinaryFormula) node).right);
+        this.expanded.push(false);
+        this.todo.push(((BinaryFormula) node).left);
+        this.expanded.push(false);
+      } else if (node instanceof UnaryFormula) {
+        this.putOp(((UnaryFormula) node).operator, 1);
+      } else if (node instanceof BinaryFormula) {
+        this.putOp(((BinaryFormula) node).operator, 2);
+      } else if (node instanceof Param) {
+        this.putVarint(ArithBinary.PARAM);
+        this.putVarint(((Param) node).column);
+        this.buffer.putDouble(((Param) node).num);
+      } else {
+        this.putVarint(ArithBinary.CONST);
+        this.buffer.putDouble(((Const) node).num);
+      }
+    }
+    this.putVarint(ArithBinary.END);
+  }
+
+  // writes the tag of the operator of the given arity, defining it first if it is new
+  void putOp(ArithOp operator, int arity) throws IOException {
+    Integer id = this.ids.get(operator);
+    if (id == null) {
+      id = this.ids.size();
+      this.ids.put(operator, id);
+      byte[] bytes = operator.name.getBytes(StandardCharsets.UTF_8);
+      this.ensure(bytes.length + 16);
+      this.putVarint(ArithBinary.DEFINE);
+      this.buffer.put((byte) arity);
+      this.putVarint(bytes.length);
+      this.buffer.put(bytes);
+    }
+    this.putVarint(ArithBinary.OPS + id);
+  }
+
+  // writes the non-negative value in 7 bit groups, lowest first, with the high
+  // bit of every byte but the last set
+  void putVarint(int value) {
+    while ((value & ~0x7F) != 0) {
+      this.buffer.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    this.buffer.put((byte) value);
+  }
+
+  // makes room for at least the given number of bytes in the buffer
+  void ensure(int bytes) throws IOException {
+    if (this.buffer.remaining() < bytes) {
+      this.flush();
+      if (this.buffer.capacity() < bytes) {
+        this.buffer = ByteBuffer.allocate(bytes);
+      }
+    }
+  }
+
+  // writes everything so far into the channel
+  void flush() throws IOException {
+    this.buffer.flip();
+    while (this.buffer.hasRemaining()) {
+      this.channel.write(this.buffer);
+    }
+    this.buffer.clear();
+  }
+}
+
+// reads trees of arithmetic in the ArithBinary form, either from a channel a buffer
+// at a time or straight out of a buffer such as a mapped file, without copying it
+class ArithReader {
+  // where more bytes come from, or null if buffer holds all of them
+  ReadableByteChannel channel;
+  ByteBuffer buffer;
+  // the operators this reader knows, by name
+  HashMap<String, ArithOp> formulas = new HashMap<String, ArithOp>();
+  // the operators defined so far in the stream, by id
+  ArrayList<ArithOp> ops = new ArrayList<ArithOp>();
+  IArith[] stack = new IArith[16];
+  int top = -1;
+
+  // reads from the given channel, a buffer at a time
+  ArithReader(ReadableByteChannel channel) throws IOException {
+    this.channel = channel;
+    this.buffer = ByteBuffer.allocate(ArithBinary.BUFFER_SIZE);
+    this.buffer.flip();
+    this.start();
+  }
+
+  // reads straight out of the given bytes, without copying them
+  ArithReader(ByteBuffer bytes) throws IOException {
+    this.channel = null;
+    this.buffer = bytes.slice();
+    this.start();
+  }
+
+  // returns a reader of the given file, which is mapped into memory rather than read
+  static ArithReader open(Path path) throws IOException {
+    try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+      return new ArithReader(file.map(FileChannel.MapMode.READ_ONLY, 0, file.size()));
+    }
+  }
+
+  // checks the header and learns the known formulas
+  void start() throws IOException {
+    this.ensure(4);
+    if (this.buffer.getInt() != ArithBinary.MAGIC) {
+      throw new IOException("not a stream of arithmetic");
+    }
+    int version = this.getVarint();
+    if (version != ArithBinary.VERSION) {
+      throw new IOException("unknown version " + version);
+    }
+    this.define(ArithOp.NEG);
+    this.define(ArithOp.SQR);
+    this.define(ArithOp.PLUS);
+    this.define(ArithOp.MINUS);
+    this.define(ArithOp.MUL);
+    this.define(ArithOp.DIV);
+  }
+
+  // teaches this reader to read formulas named like the given operator as formulas
+  // of it; names it was not taught are looked up in the ArithOp registry
+  void define(ArithOp operator) {
+    this.formulas.put(operator.name, operator);
+  }
+
+  // teaches this reader to read formulas named like the given one as formulas
+  // of its operator
+  void define(UnaryFormula formula) {
+    this.define(formula.operator);
+  }
+
+  // teaches this reader to read formulas named like the given one as formulas
+  // of its operator
+  void define(BinaryFormula formula) {
+    this.define(formula.operator);
+  }
+
+  // reads the next tree, or returns null if the stream has ended
+  IArith next() throws IOException {
+    if (!this.buffer.hasRemaining() && !this.fill()) {
+      return null;
+    }
+    while (true) {
+      int tag = this.getVarint();
+      if (tag == ArithBinary.END) {
+        if (this.top != 0) {
+          throw new IOException("a tree must end with exactly one node");
+        }
+        this.top = -1;
+        IArith res = this.stack[0];
+        this.stack[0] = null;
+        return res;
+      } else if (tag == ArithBinary.CONST) {
+        this.ensure(8);
+        this.push(new Const(this.buffer.getDouble()));
+      } else if (tag == ArithBinary.PARAM) {
+        int column = this.getVarint();
+        if (column < 0) {
+          throw new IOException("negative column " + column);
+        }
+        this.ensure(8);
+        this.push(new Param(column, this.buffer.getDouble()));
+      } else if (tag == ArithBinary.DEFINE) {
+        this.readDefinition();
+      } else if (tag < 0) {
+        throw new IOException("unknown tag " + tag);
+      } else if (tag - ArithBinary.OPS < this.ops.size()) {
+        this.apply(this.ops.get(tag - ArithBinary.OPS));
+      } else {
+        throw new IOException("undefined operator " + (tag - ArithBinary.OPS));
+      }
+    }
+  }
+
+  // reads the definition of the next operator id
+  void readDefinition() throws IOException {
+    this.ensure(1);
+    int arity = this.buffer.get();
+    int length = this.getVarint();
+    if (length < 0 || length > ArithBinary.MAX_NAME) {
+      throw new IOException("bad length " + length + " of a name");
+    }
+    byte[] bytes = new byte[length];
+    this.ensure(length);
+    this.buffer.get(bytes);
+    String name = new String(bytes, StandardCharsets.UTF_8);
+    ArithOp formula = this.formulas.get(name);
+    if (formula == null) {
+      formula = ArithOp.named(name);
+    }
+    int known = formula instanceof UnaryArithOp ? 1 : 2;
+    if (formula == null || known != arity) {
+      throw new IOException("unknown formula " + name + " of arity " + arity);
+    }
+    this.ops.add(formula);
+  }
+
+  // replaces the children on the stack with the given formula over them
+  void apply(ArithOp formula) throws IOException {
+    if (formula instanceof UnaryArithOp) {
+      if (this.top < 0) {
+        throw new IOException("missing the argument of " + formula.name);
+      }
+      this.stack[this.top] = ((UnaryArithOp) formula).make(this.stack[this.top]);
+    } else {
+      if (this.top < 1) {
+        throw new IOException("missing the arguments of " + formula.name);
+      }
+      this.top -= 1;
+      this.stack[this.top] = ((BinaryArithOp) formula).make(this.stack[this.top],
+          this.stack[this.top + 1]);
+      this.stack[this.top + 1] = null;
+    }
+  }
+
+  // pushes a node onto the stack
+  void push(IArith node) {
+    this.top += 1;
+    if (this.top == this.stack.length) {
+      this.stack = Arrays.copyOf(this.stack, this.stack.length * 2);
+    }
+    this.stack[this.top] = node;
+  }
+
+  // reads a varint written by ArithWriter.putVarint
+  int getVarint() throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      this.ensure(1);
+      byte b = this.buffer.get();
+      value |= (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+    throw new IOException("varint too long");
+  }
+
+  // makes sure the buffer has at least the given number of bytes left
+  void ensure(int bytes) throws IOException {
+    while (this.buffer.remaining() < bytes) {
+      if (this.channel == null || !this.fill()) {
+        throw new EOFException("unexpected end of stream");
+      }
+    }
+  }
+
+  // reads more bytes into the buffer, returning false at the end of the channel
+  boolean fill() throws IOException {
+    if (this.channel == null) {
+      return false;
+    }
+    this.buffer.compact();
+    if (!this.buffer.hasRemaining()) {
+      ByteBuffer bigger = ByteBuffer.allocate(this.buffer.capacity() * 2);
+      this.buffer.flip();
+      bigger.put(this.buffer);
+      this.buffer = bigger;
+    }
+    int read = this.channel.read(this.buffer);
+    this.buffer.flip();
+    return read > 0;
+  }
+}
+
+class ExamplesArithBinary {
+  IArith allAdds = new Addition(new Addition(2, 2), new Addition(2, 2));
+  IArith pointless = new Multiplication(
+      new Multiplication(2, new Subtraction(2, 5)),
+      new Addition(new Negation(1), new Division(new Addition(2, 3), 5)));
+  IArith large = new Square(
+      new Multiplication(new Square(10), new Square(63)));
+
+  // returns the bytes of the given trees
+  byte[] write(IArith... trees) throws IOException {
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    ArithWriter writer = new ArithWriter(Channels.newChannel(stream));
+    for (IArith tree : trees) {
+      writer.write(tree);
+    }
+    writer.flush();
+    return stream.toByteArray();
+  }
+
+  // returns the only tree in the given bytes
+  IArith read(byte[] bytes) throws IOException {
+    return new ArithReader(ByteBuffer.wrap(bytes)).next();
+  }
+
+  // returns the message of the error reading the given bytes, or "" if there is none
+  String readError(byte[] bytes) {
+    try {
+      ArithReader reader = new ArithReader(ByteBuffer.wrap(bytes));
+      while (reader.next() != null) {
+        continue;
+      }
+      return "";
+    } catch (IOException e) {
+      return e.getMessage();
+    }
+  }
+
+  boolean testRoundTrip(Tester t) throws IOException {
+    boolean res = true;
+
+    // simple tests
+    res &= t.checkExpect(read(write(new Const(2))), new Const(2));
+    res &= t.checkExpect(read(write(new Const(-0.0))), new Const(-0.0));
+    res &= t.checkExpect(read(write(new Const(Double.NaN))), new Const(Double.NaN));
+    res &= t.checkExpect(read(write(new Param(300, 0.1))), new Param(300, 0.1));
+    res &= t.checkExpect(read(write(new Negation(2))), new Negation(2));
+    res &= t.checkExpect(read(write(new Square(2))), new Square(2));
+    res &= t.checkExpect(read(write(new Addition(1, 2))), new Addition(1, 2));
+    res &= t.checkExpect(read(write(new Subtraction(1, 2))), new Subtraction(1, 2));
+    res &= t.checkExpect(read(write(new Multiplication(1, 2))), new Multiplication(1, 2));
+    res &= t.checkExpect(read(write(new Division(1, 2))), new Division(1, 2));
+
+    // complicated tests
+    res &= t.checkExpect(read(write(allAdds)), allAdds);
+    res &= t.checkExpect(read(write(pointless)), pointless);
+    res &= t.checkExpect(read(write(large)), large);
+
+    // custom formulas come back once their readers know them
+    BinaryFormula max = new BinaryFormula(Math::max, "max", new Const(0), new Const(0));
+    IArith formula = new BinaryFormula(max.operator, new Negation(3), new Const(2));
+    ArithReader reader = new ArithReader(ByteBuffer.wrap(write(formula)));
+    reader.define(max);
+    res &= t.checkExpect(reader.next(), formula);
+    res &= t.checkExpect(readError(write(formula)), "unknown formula max of arity 2");
+
+    return res;
+  }
+
+  boolean testBinaryStream(Tester t) throws IOException {
+    boolean res = true;
+
+    // names are defined once, so every formula after that takes one byte
+    res &= t.checkExpect(write(allAdds).length, 5 + 7 + 4 * 9 + 3 + 1);
+
+    // many trees and deep trees from a channel, a buffer at a time
+    IArith deep = new Const(0);
+    for (int i = 0; i < 200000; i += 1) {
+      deep = new Subtraction(deep, new Negation(1));
+    }
+    IArith[] trees = new IArith[1001];
+    Arrays.fill(trees, pointless);
+    trees[1000] = deep;
+    ArithReader reader = new ArithReader(
+        Channels.newChannel(new ByteArrayInputStream(write(trees))));
+    for (int i = 0; i < 1000; i += 1) {
+      res &= t.checkExpect(reader.next(), pointless);
+    }
+    IArith read = reader.next();
+    res &= t.checkInexact(new IterativeVisitor<Double>(new EvalVisitor()).apply(read),
+        200000.0, .001);
+    res &= t.checkExpect(ArithPrinter.print(read), ArithPrinter.print(deep));
+    res &= t.checkExpect(reader.next(), null);
+
+    // mapped files
+    Path path = Files.createTempFile("arith", ".bin");
+    try {
+      Files.write(path, write(large, pointless));
+      reader = ArithReader.open(path);
+      res &= t.checkExpect(reader.next(), large);
+      res &= t.checkExpect(reader.next(), pointless);
+      res &= t.checkExpect(reader.next(), null);
+    } finally {
+      Files.delete(path);
+    }
+
+    return res;
+  }
+
+  boolean testBinaryErrors(Tester t) throws IOException {
+    boolean res = true;
+    byte[] bytes = write(pointless);
+
+    res &= t.checkExpect(readError(new byte[] { 1, 2, 3, 4, 5 }), "not a stream of arithmetic");
+    res &= t.checkExpect(readError(Arrays.copyOf(bytes, bytes.length - 3)),
+        "unexpected end of stream");
+    bytes[4] = 2;
+    res &= t.checkExpect(readError(bytes), "unknown version 2");
+    res &= t.checkExpect(readError(new byte[] { 0x41, 0x52, 0x49, 0x54, 1, 9 }),
+        "undefined operator 5");
+    res &= t.checkExpect(readError(new byte[] { 0x41, 0x52, 0x49, 0x54, 1, 0 }),
+        "a tree must end with exactly one node");
+
+    // varints which come out negative, or names too long to hold, are errors too
+    byte[] negative = new byte[] { (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x08 };
+    res &= t.checkExpect(readError(header(negative)), "unknown tag " + Integer.MIN_VALUE);
+    res &= t.checkExpect(readError(header(new byte[] { 2 }, negative)),
+        "negative column " + Integer.MIN_VALUE);
+    res &= t.checkExpect(readError(header(new byte[] { 3, 2 }, negative)),
+        "bad length " + Integer.MIN_VALUE + " of a name");
+    res &= t.checkExpect(readError(header(new byte[] { 3, 2, (byte) 0xff, (byte) 0xff, 0x7f })),
+        "bad length 2097151 of a name");
+    res &= t.checkExpect(readError(header(new byte[] { 3, 2, 3, 'f', 'o', 'o' })),
+        "unknown formula foo of arity 2");
+
+    return res;
+  }
+
+  // returns the header of a stream followed by the given bytes
+  byte[] header(byte[]... parts) {
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    stream.writeBytes(new byte[] { 0x41, 0x52, 0x49, 0x54, 1 });
+    for (byte[] part : parts) {
+      stream.writeBytes(part);
+    }
+    return stream.toByteArray();
+  }
+
+  boolean testBinaryOps(Tester t) throws IOException {
+    boolean res = true;
+
+    // operators are told apart by identity, not name, so two operators sharing a
+    // name are each defined, and each of their formulas keeps its own arity
+    BinaryFormula first = new BinaryFormula(Math::max, "pick", new Const(1), new Const(2));
+    UnaryFormula second = new UnaryFormula((a) -> -a, "pick", new Const(3));
+    ArithWriter writer = new ArithWriter(Channels.newChannel(new ByteArrayOutputStream()));
+    writer.write(new BinaryFormula(first.operator, second, first));
+    res &= t.checkExpect(writer.ids.size(), 2);
+    res &= t.checkExpect(writer.ids.get(second.operator), 0);
+    res &= t.checkExpect(writer.ids.get(first.operator), 1);
+
+    return res;
+  }
+}
@@ -0,0 +1,513 @@
+import java.util.*;
+import tester.Tester;
+
+// a tree of arithmetic flattened into postfix code: one int per node, in the
+// order the nodes are computed, and the constants in left to right order
+class ArithCode {
+  // the low bits of an instruction hold its opcode
+  static final int CONST = 0;
+  static final int NEG = 1;
+  static final int SQR = 2;
+  static final int PLUS = 3;
+  static final int MINUS = 4;
+  static final int MUL = 5;
+  static final int DIV = 6;
+  // formulas without an opcode of their own keep the index of their
+  // formula in customs in the high bits of the instruction
+  static final int UNARY = 7;
+  static final int BINARY = 8;
+  // a param, which computes like a const, keeps its column in the high bits
+  static final int PARAM = 9;
+  static final int OPCODE_BITS = 4;
+  static final int OPCODE_MASK = (1 << OPCODE_BITS) - 1;
+
+  int[] code;
+  double[] consts;
+  // the operators of the custom formulas
+  ArithOp[] customs;
+  // the most values on the stack at once while evaluating code
+  int maxStack;
+
+  ArithCode(int[] code, double[] consts, ArithOp[] customs, int maxStack) {
+    this.code = code;
+    this.consts = consts;
+    this.customs = customs;
+    this.maxStack = maxStack;
+  }
+
+  // flattens arith into postfix code, without recursing on the tree
+  static ArithCode encode(IArith arith) {
+    ArithEncoder encoder = new ArithEncoder();
+    int maxStack = new IterativeVisitor<Integer>(encoder).apply(arith);
+    return encoder.toCode(maxStack);
+  }
+
+  // evaluates this code with its own constants
+  double eval() {
+    return this.eval(this.consts);
+  }
+
+  // evaluates this code with the given constants, in left to right order
+  double eval(double[] consts) {
+    if (consts.length != this.consts.length) {
+      throw new IllegalArgumentException(
+          "expected " + this.consts.length + " constants but got " + consts.length);
+    }
+    double[] stack = new double[this.maxStack];
+    int top = -1;
+    int next = 0;
+    for (int i = 0; i < this.code.length; i += 1) {
+      int ins = this.code[i];
+      switch (ins & OPCODE_MASK) {
+        case CONST:
+        case PARAM:
+          top += 1;
+          stack[top] = consts[next];
+          next += 1;
+          break;
+        case NEG:
+          stack[top] = -stack[top];
+          break;
+        case SQR:
+          stack[top] = stack[top] * stack[top];
+          break;
+        case PLUS:
+          top -= 1;
+          stack[top] = stack[top] + stack[top + 1];
+          break;
+        case MINUS:
+          top -= 1;
+          stack[top] = stack[top] - stack[top + 1];
+          break;
+        case MUL:
+          top -= 1;
+          stack[top] = stack[top] * stack[top + 1];
+          break;
+        case DIV:
+          top -= 1;
+          stack[top] = stack[top] / stack[top + 1];
+          break;
+        case UNARY:
+          UnaryArithOp unary = (UnaryArithOp) this.customs[ins >>> OPCODE_BITS];
+          stack[top] = unary.applyDouble(stack[top]);
+          break;
+        default:
+          BinaryArithOp binary = (BinaryArithOp) this.customs[ins >>> OPCODE_BITS];
+          top -= 1;
+          stack[top] = binary.applyDouble(stack[top], stack[top + 1]);
+          break;
+      }
+    }
+    return stack[0];
+  }
+
+  // rebuilds the tree of arithmetic this code was encoded from
+  IArith decode() {
+    IArith[] stack = new IArith[this.maxStack];
+    int top = -1;
+    int next = 0;
+    for (int i = 0; i < this.code.length; i += 1) {
+      int ins = this.code[i];
+      int opcode = ins & OPCODE_MASK;
+      if (opcode == CONST) {
+        top += 1;
+        stack[top] = new Const(this.consts[next]);
+        next += 1;
+      } else if (opcode == PARAM) {
+        top += 1;
+        stack[top] = new Param(ins >>> OPCODE_BITS, this.consts[next]);
+        next += 1;
+      } else if (opcode == NEG) {
+        stack[top] = new Negation(stack[top]);
+      } else if (opcode == SQR) {
+        stack[top] = new Square(stack[top]);
+      } else if (opcode == UNARY) {
+        UnaryArithOp unary = (UnaryArithOp) this.customs[ins >>> OPCODE_BITS];
+        stack[top] = new UnaryFormula(unary, stack[top]);
+      } else {
+        top -= 1;
+        IArith left = stack[top];
+        IArith right = stack[top + 1];
+        if (opcode == PLUS) {
+          stack[top] = new Addition(left, right);
+        } else if (opcode == MINUS) {
+          stack[top] = new Subtraction(left, right);
+        } else if (opcode == MUL) {
+          stack[top] = new Multiplication(left, right);
+        } else if (opcode == DIV) {
+          stack[top] = new Division(left, right);
+        } else {
+          BinaryArithOp binary = (BinaryArithOp) this.customs[ins >>> OPCODE_BITS];
+          stack[top] = new BinaryFormula(binary, left, right);
+        }
+      }
+    }
+    return stack[0];
+  }
+
+  // prints this code in the same form as PrintVisitor prints the tree it encodes,
+  // into one StringBuilder in a single pass over the instructions in prefix order
+  String print() {
+    // the instruction of the left or only child of every formula, and the
+    // instruction of the right child of every binary formula; for consts and
+    // params, left holds the index of their constant instead
+    int[] left = new int[this.code.length];
+    int[] right = new int[this.code.length];
+    int[] stack = new int[this.maxStack];
+    int top = -1;
+    int next = 0;
+    for (int i = 0; i < this.code.length; i += 1) {
+      int opcode = this.code[i] & OPCODE_MASK;
+      if (opcode == CONST || opcode == PARAM) {
+        left[i] = next;
+        next += 1;
+        top += 1;
+      } else if (opcode == NEG || opcode == SQR || opcode == UNARY) {
+        left[i] = stack[top];
+      } else {
+        top -= 1;
+        left[i] = stack[top];
+        right[i] = stack[top + 1];
+      }
+      stack[top] = i;
+    }
+
+    // instructions to print, or space and close for the text between them
+    final int space = -1;
+    final int close = -2;
+    StringBuilder out = new StringBuilder();
+    ArrayDeque<Integer> todo = new ArrayDeque<Integer>();
+    todo.push(this.code.length - 1);
+    while (!todo.isEmpty()) {
+      int i = todo.pop();
+      if (i == space) {
+        out.append(' ');
+        continue;
+      } else if (i == close) {
+        out.append(')');
+        continue;
+      }
+      int opcode = this.code[i] & OPCODE_MASK;
+      if (opcode == CONST || opcode == PARAM) {
+        out.append(this.consts[left[i]]);
+        continue;
+      }
+      out.append('(').append(this.name(this.code[i])).append(' ');
+      todo.push(close);
+      if (opcode != NEG && opcode != SQR && opcode != UNARY) {
+        todo.push(right[i]);
+        todo.push(space);
+      }
+      todo.push(left[i]);
+    }
+    return out.toString();
+  }
+
+  // returns the name of the formula computed by the given instruction
+  String name(int ins) {
+    switch (ins & OPCODE_MASK) {
+      case NEG:
+        return "neg";
+      case SQR:
+        return "sqr";
+      case PLUS:
+        return "plus";
+      case MINUS:
+        return "minus";
+      case MUL:
+        return "mul";
+      case DIV:
+        return "div";
+      default:
+        return this.customs[ins >>> OPCODE_BITS].name;
+    }
+  }
+}
+
+// collects the postfix code of a tree of arithmetic as it is visited in post-order,
+// returning the most stack slots needed to compute each subtree
+class ArithEncoder implements IArithFolder<Integer> {
+  int[] code = new int[16];
+  int length = 0;
+  double[] consts = new double[8];
+  int constCount = 0;
+  ArrayList<ArithOp> customs = new ArrayList<ArithOp>();
+  // the index in customs of every custom operator, and of the func, op and
+  // name of every custom operator
+  IdentityHashMap<ArithOp, Integer> customIndex = new IdentityHashMap<ArithOp, Integer>();
+  HashMap<CustomKey, Integer> customKeys = new HashMap<CustomKey, Integer>();
+
+  // asks arith to pass itself to the apply function of this
+  // visitor which accepts its IArith implementation
+  // Then, encodes the tree of arithmetic
+  public Integer apply(IArith arith) {
+    return arith.accept(this);
+  }
+
+  // adds the const's num to the constants
+  public Integer apply(Const arith) {
+    if (this.constCount == this.consts.length) {
+      this.consts = Arrays.copyOf(this.consts, this.constCount * 2);
+    }
+    this.consts[this.constCount] = arith.num;
+    this.constCount += 1;
+    if (arith instanceof Param) {
+      this.emit(ArithCode.PARAM | ((Param) arith).column << ArithCode.OPCODE_BITS);
+    } else {
+      this.emit(ArithCode.CONST);
+    }
+    return 1;
+  }
+
+  // encodes the child, then the formula
+  public Integer apply(UnaryFormula arith) {
+    return this.apply(arith, arith.childAccept(this));
+  }
+
+  // encodes the left, then the right, then the formula
+  public Integer apply(BinaryFormula arith) {
+    int left = arith.leftAccept(this);
+    return this.apply(arith, left, arith.rightAccept(this));
+  }
+
+  // encodes the formula after its already encoded child, which needs the given stack
+  public Integer apply(UnaryFormula arith, Integer stack) {
+    UnaryArithOp operator = arith.operator;
+    if (operator.id == ArithOp.NEG_ID) {
+      this.emit(ArithCode.NEG);
+    } else if (operator.id == ArithOp.SQR_ID) {
+      this.emit(ArithCode.SQR);
+    } else {
+      this.emit(ArithCode.UNARY | this.custom(operator.func, operator.op, operator)
+          << ArithCode.OPCODE_BITS);
+    }
+    return stack;
+  }
+
+  // encodes the formula after its already encoded left and right, which need
+  // the given stacks
+  public Integer apply(BinaryFormula arith, Integer left, Integer right) {
+    BinaryArithOp operator = arith.operator;
+    if (operator.id == ArithOp.PLUS_ID) {
+      this.emit(ArithCode.PLUS);
+    } else if (operator.id == ArithOp.MINUS_ID) {
+      this.emit(ArithCode.MINUS);
+    } else if (operator.id == ArithOp.MUL_ID) {
+      this.emit(ArithCode.MUL);
+    } else if (operator.id == ArithOp.DIV_ID) {
+      this.emit(ArithCode.DIV);
+    } else {
+      this.emit(ArithCode.BINARY | this.custom(operator.func, operator.op, operator)
+          << ArithCode.OPCODE_BITS);
+    }
+    return Math.max(left, right + 1);
+  }
+
+  // returns the index of the given custom operator with the given func and op,
+  // adding it unless an operator with the same func, op and name was added already
+  int custom(Object func, Object op, ArithOp operator) {
+    Integer index = this.customIndex.get(operator);
+    if (index == null) {
+      CustomKey key = new CustomKey(func, op, operator.name);
+      index = this.customKeys.get(key);
+      if (index == null) {
+        index = this.customs.size();
+        this.customs.add(operator);
+        this.customKeys.put(key, index);
+      }
+      this.customIndex.put(operator, index);
+    }
+    return index;
+  }
+
+  // appends the given instruction to the code
+  void emit(int ins) {
+    if (this.length == this.code.length) {
+      this.code = Arrays.copyOf(this.code, this.length * 2);
+    }
+    this.code[this.length] = ins;
+    this.length += 1;
+  }
+
+  // returns the collected code
+  ArithCode toCode(int maxStack) {
+    return new ArithCode(Arrays.copyOf(this.code, this.length),
+        Arrays.copyOf(this.consts, this.constCount),
+        this.customs.toArray(new ArithOp[0]), maxStack);
+  }
+}
+
+// identifies a custom operator of an ArithEncoder by its func, op and name,
+// comparing the func and op by identity
+class CustomKey {
+  Object func;
+  Object op;
+  String name;
+
+  CustomKey(Object func, Object op, String name) {
+    this.func = func;
+    this.op = op;
+    this.name = name;
+  }
+
+  // is other a key with the same func, op and name?
+  public boolean equals(Object other) {
+    if (!(other instanceof CustomKey)) {
+      return false;
+    }
+    CustomKey key = (CustomKey) other;
+    return this.func == key.func && this.op == key.op && this.name.equals(key.name);
+  }
+
+  // hashes the identities of the func and op, and the name
+  public int hashCode() {
+    return (System.identityHashCode(this.func) * 31 + System.identityHashCode(this.op)) * 31
+        + this.name.hashCode();
+  }
+}
+
+class ExamplesArithCode {
+  IArith allAdds = new Addition(new Addition(2, 2), new Addition(2, 2));
+  IArith pointless = new Multiplication(
+      new Multiplication(2, new Subtraction(2, 5)),
+      new Addition(new Negation(1), new Division(new Addition(2, 3), 5)));
+  IArith large = new Square(
+      new Multiplication(new Square(10), new Square(63)));
+  IArith custom = new BinaryFormula(Math::max, "max",
+      new UnaryFormula((a) -> a + 1, "inc", new Const(2)),
+      new Negation(5));
+
+  PrintVisitor print = new PrintVisitor();
+
+  boolean testEncode(Tester t) {
+    boolean res = true;
+
+    // simple tests
+
+    ArithCode two = ArithCode.encode(new Const(2));
+    res &= t.checkExpect(two.code, new int[] { ArithCode.CONST });
+    res &= t.checkExpect(two.consts, new double[] { 2.0 });
+
+    ArithCode neg = ArithCode.encode(new Negation(2));
+    res &= t.checkExpect(neg.code, new int[] { ArithCode.CONST, ArithCode.NEG });
+
+    ArithCode div = ArithCode.encode(new Division(1, 2));
+    res &= t.checkExpect(div.code,
+        new int[] { ArithCode.CONST, ArithCode.CONST, ArithCode.DIV });
+    res &= t.checkExpect(div.consts, new double[] { 1.0, 2.0 });
+    res &= t.checkExpect(div.maxStack, 2);
+
+    // complicated tests
+    ArithCode adds = ArithCode.encode(allAdds);
+    res &= t.checkExpect(adds.code, new int[] { ArithCode.CONST, ArithCode.CONST,
+        ArithCode.PLUS, ArithCode.CONST, ArithCode.CONST, ArithCode.PLUS, ArithCode.PLUS });
+    res &= t.checkExpect(adds.maxStack, 3);
+    res &= t.checkExpect(ArithCode.encode(pointless).consts,
+        new double[] { 2.0, 2.0, 5.0, 1.0, 2.0, 3.0, 5.0 });
+
+    // - custom formulas are kept once each
+    ArithCode customs = ArithCode.encode(custom);
+    res &= t.checkExpect(customs.customs.length, 2);
+    res &= t.checkExpect(customs.code, new int[] { ArithCode.CONST, ArithCode.UNARY,
+        ArithCode.CONST, ArithCode.NEG, ArithCode.BINARY | 1 << ArithCode.OPCODE_BITS });
+    res &= t.checkExpect(ArithCode.encode(new BinaryFormula(Math::max, "max",
+        custom, custom)).customs.length, 3);
+
+    // - operators made separately from the same func and name are kept once
+    UnaryArithOp inc = (UnaryArithOp) customs.customs[0];
+    res &= t.checkExpect(ArithCode.encode(new BinaryFormula(ArithOp.PLUS,
+        new UnaryFormula(inc.func, "inc", new Const(1)),
+        new UnaryFormula(inc.func, "inc", new Const(2)))).customs.length, 1);
+
+    return res;
+  }
+
+  boolean testEvalCode(Tester t) {
+    boolean res = true;
+
+    res &= t.checkInexact(ArithCode.encode(new Const(2)).eval(), 2.0, .001);
+    res &= t.checkInexact(ArithCode.encode(new Negation(2)).eval(), -2.0, .001);
+    res &= t.checkInexact(ArithCode.encode(new Square(2)).eval(), 4.0, .001);
+    res &= t.checkInexact(ArithCode.encode(new Addition(1, 2)).eval(), 3.0, .001);
+    res &= t.checkInexact(ArithCode.encode(new Subtraction(1, 2)).eval(), -1.0, .001);
+    res &= t.checkInexact(ArithCode.encode(new Multiplication(1, 2)).eval(), 2.0, .001);
+    res &= t.checkInexact(ArithCode.encode(new Division(1, 2)).eval(), 1d / 2, .001);
+
+    res &= t.checkInexact(ArithCode.encode(allAdds).eval(), 8.0, .001);
+    res &= t.checkInexact(ArithCode.encode(pointless).eval(), 0.0, .001);
+    res &= t.checkInexact(ArithCode.encode(large).eval(), 157529610000.0, .001);
+    res &= t.checkInexact(ArithCode.encode(custom).eval(), 3.0, .001);
+    res &= t.checkInexact(ArithCode.encode(pointless.base()).eval(), 0.0, .001);
+
+    // new constants, in left to right order
+    res &= t.checkInexact(ArithCode.encode(pointless).eval(
+        new double[] { 2, 1, 5, 2, 2, 3, 5 }), 8.0, .001);
+
+    // - as many constants as the code has, like CompiledArith
+    String error = "";
+    try {
+      ArithCode.encode(pointless).eval(new double[] { 2, 1, 5 });
+    } catch (IllegalArgumentException e) {
+      error = e.getMessage();
+    }
+    res &= t.checkExpect(error, "expected 7 constants but got 3");
+
+    return res;
+  }
+
+  boolean testDecodeCode(Tester t) {
+    boolean res = true;
+
+    res &= t.checkExpect(ArithCode.encode(new Const(2)).decode(), new Const(2));
+    res &= t.checkExpect(ArithCode.encode(new Square(2)).decode(), new Square(2));
+    res &= t.checkExpect(ArithCode.encode(new Subtraction(1, 2)).decode(),
+        new Subtraction(1, 2));
+    res &= t.checkExpect(ArithCode.encode(allAdds).decode(), allAdds);
+    res &= t.checkExpect(ArithCode.encode(pointless).decode(), pointless);
+    res &= t.checkExpect(ArithCode.encode(large).decode(), large);
+    res &= t.checkExpect(ArithCode.encode(pointless.base()).decode().base(), pointless.base());
+    res &= t.checkExpect(ArithCode.encode(custom).decode().base(), custom.base());
+    res &= t.checkExpect(ArithCode.encode(new Addition(new Param(3, 1), 2)).decode(),
+        new Addition(new Param(3, 1), 2));
+
+    return res;
+  }
+
+  boolean testPrintCode(Tester t) {
+    boolean res = true;
+
+    res &= t.checkExpect(ArithCode.encode(new Const(2)).print(), "2.0");
+    res &= t.checkExpect(ArithCode.encode(new Negation(2)).print(), "(neg 2.0)");
+    res &= t.checkExpect(ArithCode.encode(new Division(1, 2)).print(), "(div 1.0 2.0)");
+    res &= t.checkExpect(ArithCode.encode(allAdds).print(), allAdds.accept(print));
+    res &= t.checkExpect(ArithCode.encode(pointless).print(), pointless.accept(print));
+    res &= t.checkExpect(ArithCode.encode(large).print(), large.accept(print));
+    res &= t.checkExpect(ArithCode.encode(custom).print(), "(max (inc 2.0) (neg 5.0))");
+
+    // - a formula with a known op but its own name keeps its name
+    res &= t.checkExpect(ArithCode.encode(new UnaryFormula(ArithOp.NEG.func,
+        ArithOp.NEG.op, "opposite", new Const(1))).print(), "(opposite 1.0)");
+
+    return res;
+  }
+
+  boolean testEncodeDeep(Tester t) {
+    boolean res = true;
+
+    IArith deep = new Const(0);
+    for (int i = 0; i < 1000000; i += 1) {
+      deep = new Addition(deep, 2);
+    }
+    ArithCode code = ArithCode.encode(deep);
+
+    res &= t.checkExpect(code.code.length, 2000001);
+    res &= t.checkExpect(code.maxStack, 2);
+    res &= t.checkInexact(code.eval(), 2000000.0, .001);
+
+    // printing takes time in the length of the output, not its square
+    res &= t.checkExpect(code.print(),
+        "(plus ".repeat(1000000) + "0.0" + " 2.0)".repeat(1000000));
+
+    return res;
+  }
+}
@@ -0,0 +1,661 @@
+import java.io.*;
+import java.lang.invoke.*;
+import java.lang.management.*;
+import java.util.*;
+import java.util.function.*;
+import tester.Tester;
+
+// compiles a tree of arithmetic into a generated class whose methods compute
+// the whole tree as straight-line double arithmetic
+class ArithCompiler {
+  // the most nodes compiled into one generated method; larger trees are split
+  // across several methods so that each stays small enough for the JIT to compile
+  static final int METHOD_NODES = 1000;
+
+  // descriptor shared by every generated method: (consts, funcs) -> value
+  static final String DESCRIPTOR = "([D[Ljava/lang/Object;)D";
+
+  static int classCount = 0;
+
+  // compiles arith into a CompiledArith whose constants start out as the
+  // constants of arith, in left to right order
+  static CompiledArith compile(IArith arith) {
+    ArithCompiler compiler = new ArithCompiler();
+    compiler.plan(arith);
+    String name = nextClassName();
+    byte[] bytes = compiler.generate(arith, name);
+    try {
+      // each class gets a loader of its own, so the class is unloaded once nothing
+      // holds the CompiledArith, rather than living as long as the application does
+      Class<?> cls = new ArithClassLoader().define(name, bytes);
+      MethodHandle handle = MethodHandles.publicLookup().findStatic(cls, "eval",
+          MethodType.methodType(double.class, double[].class, Object[].class));
+      return new CompiledArith(handle, compiler.consts(), compiler.funcs.toArray());
+    } catch (IllegalAccessException | NoSuchMethodException e) {
+      throw new IllegalStateException("could not load compiled arithmetic", e);
+    }
+  }
+
+  // returns a fresh name for a generated class
+  static synchronized String nextClassName() {
+    classCount += 1;
+    return "CompiledArith$" + classCount;
+  }
+
+  // the index into the constants array of every Const in the tree
+  IdentityHashMap<IArith, Integer> constIndex = new IdentityHashMap<IArith, Integer>();
+  // the values of the constants, by index
+  ArrayList<Double> constValues = new ArrayList<Double>();
+  // the number of nodes each subtree adds to the method it is compiled into
+  IdentityHashMap<IArith, Integer> cost = new IdentityHashMap<IArith, Integer>();
+  // the subtrees which are compiled into methods of their own
+  IdentityHashMap<IArith, Boolean> outlined = new IdentityHashMap<IArith, Boolean>();
+  // the operator objects called by the generated code, and their indices
+  ArrayList<Object> funcs = new ArrayList<Object>();
+  IdentityHashMap<Object, Integer> funcIndex = new IdentityHashMap<Object, Integer>();
+
+  // numbers the constants of arith from left to right, and picks the subtrees
+  // that must be split into methods of their own, without recursing on the tree.
+  // A node shared by several parents, as ArithFactory makes, is visited once.
+  void plan(IArith arith) {
+    ArrayList<IArith> postorder = new ArrayList<IArith>();
+    IdentityHashMap<IArith, Boolean> seen = new IdentityHashMap<IArith, Boolean>();
+    // each node is pushed to be visited, and once visited pushed again, with its
+    // children above it, to be listed once they all have been
+    ArrayDeque<IArith> todo = new ArrayDeque<IArith>();
+    ArrayDeque<Boolean> visited = new ArrayDeque<Boolean>();
+    todo.push(arith);
+    visited.push(false);
+    while (!todo.isEmpty()) {
+      IArith node = todo.pop();
+      if (visited.pop()) {
+        postorder.add(node);
+        continue;
+      }
+      if (seen.containsKey(node)) {
+        continue;
+      }
+      seen.put(node, true);
+      todo.push(node);
+      visited.push(true);
+      if (node instanceof UnaryFormula) {
+        this.push(((UnaryFormula) node).child, seen, todo, visited);
+      } else if (node instanceof BinaryFormula) {
+        this.push(((BinaryFormula) node).right, seen, todo, visited);
+        this.push(((BinaryFormula) node).left, seen, todo, visited);
+      } else if (!(node instanceof Const)) {
+        throw new IllegalArgumentException("cannot compile " + node.getClass().getName());
+      }
+    }
+    // the postorder lists every child before its parent and every left subtree
+    // before its right sibling
+    for (IArith node : postorder) {
+      if (node instanceof Const) {
+        this.constIndex.put(node, this.constValues.size());
+        this.constValues.add(((Const) node).num);
+        this.cost.put(node, 1);
+      } else if (node instanceof UnaryFormula) {
+        IArith child = ((UnaryFormula) node).child;
+        int total = 1 + this.cost.get(child);
+        if (total > METHOD_NODES) {
+          total = 1 + this.outline(child);
+        }
+        this.cost.put(node, total);
+      } else {
+        IArith left = ((BinaryFormula) node).left;
+        IArith right = ((BinaryFormula) node).right;
+        int leftCost = this.cost.get(left);
+        int rightCost = this.cost.get(right);
+        if (1 + leftCost + rightCost > METHOD_NODES) {
+          if (leftCost >= rightCost) {
+            leftCost = this.outline(left);
+          } else {
+            rightCost = this.outline(right);
+          }
+        }
+        if (1 + leftCost + rightCost > METHOD_NODES) {
+          leftCost = this.outline(left);
+          rightCost = this.outline(right);
+        }
+        this.cost.put(node, 1 + leftCost + rightCost);
+      }
+    }
+  }
+
+  // pushes the child to be visited, unless it has been already
+  void push(IArith child, IdentityHashMap<IArith, Boolean> seen, ArrayDeque<IArith> todo,
+      ArrayDeque<Boolean> visited) {
+    if (!seen.containsKey(child)) {
+      todo.push(child);
+      visited.push(false);
+    }
+  }
+
+  // marks node to be compiled into a method of its own, and returns the
+  // cost of calling that method
+  int outline(IArith node) {
+    if (node instanceof Const) {
+      return 1;
+    }
+    this.outlined.put(node, true);
+    return 1;
+  }
+
+  // returns the planned values of the constants
+  double[] consts() {
+    double[] res = new double[this.constValues.size()];
+    for (int i = 0; i < res.length; i += 1) {
+      res[i] = this.constValues.get(i);
+    }
+    return res;
+  }
+
+  // returns the index of the given operator object, adding it if it is new
+  int funcIndex(Object key, Object func) {
+    Integer index = this.funcIndex.get(key);
+    if (index == null) {
+      index = this.funcs.size();
+      this.funcs.add(func);
+      this.funcIndex.put(key, index);
+    }
+    return index;
+  }
+
+  // generates the bytes of a class named className whose static method eval computes arith
+  byte[] generate(IArith arith, String className) {
+    ArithClassWriter writer = new ArithClassWriter(className);
+    IdentityHashMap<IArith, String> methodNames = new IdentityHashMap<IArith, String>();
+    ArrayDeque<IArith> methods = new ArrayDeque<IArith>();
+    methodNames.put(arith, "eval");
+    methods.add(arith);
+    while (!methods.isEmpty()) {
+      IArith root = methods.poll();
+      ArithMethodWriter method = new ArithMethodWriter(writer);
+      this.emit(root, true, method, methodNames, methods);
+      method.op(ArithMethodWriter.DRETURN, -2);
+      writer.addMethod(methodNames.get(root), method);
+    }
+    return writer.toBytes();
+  }
+
+  // emits the instructions computing node into method, calling the methods of
+  // outlined subtrees and queueing any which have not been generated yet
+  void emit(IArith node, boolean methodRoot, ArithMethodWriter method,
+      IdentityHashMap<IArith, String> methodNames, ArrayDeque<IArith> methods) {
+    if (!methodRoot && this.outlined.containsKey(node)) {
+      String name = methodNames.get(node);
+      if (name == null) {
+        name = "part" + methodNames.size();
+        methodNames.put(node, name);
+        methods.add(node);
+      }
+      method.callPart(name);
+    } else if (node instanceof Const) {
+      method.loadConst(this.constIndex.get(node));
+    } else if (node instanceof UnaryFormula) {
+      UnaryFormula unary = (UnaryFormula) node;
+      if (unary.operator.id == ArithOp.NEG_ID) {
+        this.emit(unary.child, false, method, methodNames, methods);
+        method.op(ArithMethodWriter.DNEG, 0);
+      } else if (unary.operator.id == ArithOp.SQR_ID) {
+        this.emit(unary.child, false, method, methodNames, methods);
+        method.op(ArithMethodWriter.DUP2, 2);
+        method.op(ArithMethodWriter.DMUL, -2);
+      } else {
+        Function<Double, Double> func = unary.operator.func;
+        DoubleUnaryOperator op = unary.operator.op;
+        if (op == null) {
+          op = (a) -> func.apply(a);
+        }
+        method.loadFunc(this.funcIndex(unary.operator.op == null ? func : op, op),
+            "java/util/function/DoubleUnaryOperator");
+        this.emit(unary.child, false, method, methodNames, methods);
+        method.callFunc("java/util/function/DoubleUnaryOperator", "(D)D", 3);
+      }
+    } else {
+      BinaryFormula binary = (BinaryFormula) node;
+      int opcode = this.opcode(binary.operator);
+      if (opcode != 0) {
+        this.emit(binary.left, false, method, methodNames, methods);
+        this.emit(binary.right, false, method, methodNames, methods);
+        method.op(opcode, -2);
+      } else {
+        BiFunction<Double, Double, Double> func = binary.operator.func;
+        DoubleBinaryOperator op = binary.operator.op;
+        if (op == null) {
+          op = (a, b) -> func.apply(a, b);
+        }
+        method.loadFunc(this.funcIndex(binary.operator.op == null ? func : op, op),
+            "java/util/function/DoubleBinaryOperator");
+        this.emit(binary.left, false, method, methodNames, methods);
+        this.emit(binary.right, false, method, methodNames, methods);
+        method.callFunc("java/util/function/DoubleBinaryOperator", "(DD)D", 5);
+      }
+    }
+  }
+
+  // returns the instruction computing the given binary operator, or 0 if it has none
+  int opcode(BinaryArithOp operator) {
+    switch (operator.id) {
+      case ArithOp.PLUS_ID:
+        return ArithMethodWriter.DADD;
+      case ArithOp.MINUS_ID:
+        return ArithMethodWriter.DSUB;
+      case ArithOp.MUL_ID:
+        return ArithMethodWriter.DMUL;
+      case ArithOp.DIV_ID:
+        return ArithMethodWriter.DDIV;
+      default:
+        return 0;
+    }
+  }
+}
+
+// loads the one class ArithCompiler generated for one tree
+class ArithClassLoader extends ClassLoader {
+  ArithClassLoader() {
+    super(ArithCompiler.class.getClassLoader());
+  }
+
+  // defines the class with the given name from its class file
+  Class<?> define(String name, byte[] bytes) {
+    return this.defineClass(name, bytes, 0, bytes.length);
+  }
+}
+
+// a tree of arithmetic compiled by ArithCompiler, which can be evaluated
+// again and again with new values for its constants
+class CompiledArith {
+  MethodHandle handle;
+  // the constants of the compiled tree, in left to right order
+  double[] consts;
+  Object[] funcs;
+
+  CompiledArith(MethodHandle handle, double[] consts, Object[] funcs) {
+    this.handle = handle;
+    this.consts = consts;
+    this.funcs = funcs;
+  }
+
+  // evaluates the compiled tree with its original constants
+  double eval() {
+    return this.eval(this.consts);
+  }
+
+  // evaluates the compiled tree with the given constants, in left to right order
+  double eval(double[] consts) {
+    if (consts.length != this.consts.length) {
+      throw new IllegalArgumentException(
+          "expected " + this.consts.length + " constants but got " + consts.length);
+    }
+    try {
+      return (double) this.handle.invokeExact(consts, this.funcs);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
+
+// writes a class file holding only static methods with ArithCompiler.DESCRIPTOR
+class ArithClassWriter {
+  ByteArrayOutputStream pool = new ByteArrayOutputStream();
+  DataOutputStream poolOut = new DataOutputStream(pool);
+  HashMap<String, Integer> entries = new HashMap<String, Integer>();
+  int poolCount = 1;
+  ByteArrayOutputStream methods = new ByteArrayOutputStream();
+  DataOutputStream methodsOut = new DataOutputStream(methods);
+  int methodCount = 0;
+  String className;
+  int thisClass;
+  int superClass;
+
+  ArithClassWriter(String className) {
+    this.className = className;
+    this.thisClass = this.classRef(className);
+    this.superClass = this.classRef("java/lang/Object");
+  }
+
+  // returns the constant pool index of the given entry, adding it if it is new
+  int entry(String key, int tag, int a, int b, String utf) {
+    Integer index = this.entries.get(key);
+    if (index != null) {
+      return index;
+    }
+    try {
+      this.poolOut.writeByte(tag);
+      if (utf != null) {
+        this.poolOut.writeUTF(utf);
+      } else {
+        this.poolOut.writeShort(a);
+        if (b >= 0) {
+          this.poolOut.writeShort(b);
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    index = this.poolCount;
+    this.poolCount += 1;
+    this.entries.put(key, index);
+    return index;
+  }
+
+  int utf8(String s) {
+    return this.entry("U" + s, 1, 0, 0, s);
+  }
+
+  int classRef(String name) {
+    return this.entry("C" + name, 7, this.utf8(name), -1, null);
+  }
+
+  int nameAndType(String name, String descriptor) {
+    return this.entry("N" + name + " " + descriptor, 12,
+        this.utf8(name), this.utf8(descriptor), null);
+  }
+
+  int methodRef(String owner, String name, String descriptor) {
+    return this.entry("M" + owner + "." + name + descriptor, 10,
+        this.classRef(owner), this.nameAndType(name, descriptor), null);
+  }
+
+  int interfaceMethodRef(String owner, String name, String descriptor) {
+    return this.entry("F" + owner + "." + name + descriptor, 11,
+        this.classRef(owner), this.nameAndType(name, descriptor), null);
+  }
+
+  // adds a public static method with the given name and code
+  void addMethod(String name, ArithMethodWriter method) {
+    try {
+      byte[] code = method.code.toByteArray();
+      this.methodsOut.writeShort(0x0009);
+      this.methodsOut.writeShort(this.utf8(name));
+      this.methodsOut.writeShort(this.utf8(ArithCompiler.DESCRIPTOR));
+      this.methodsOut.writeShort(1);
+      this.methodsOut.writeShort(this.utf8("Code"));
+      this.methodsOut.writeInt(12 + code.length);
+      this.methodsOut.writeShort(method.maxStack);
+      this.methodsOut.writeShort(2);
+      this.methodsOut.writeInt(code.length);
+      this.methodsOut.write(code);
+      this.methodsOut.writeShort(0);
+      this.methodsOut.writeShort(0);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    this.methodCount += 1;
+  }
+
+  // returns the finished class file
+  byte[] toBytes() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      out.writeInt(0xCAFEBABE);
+      out.writeShort(0);
+      out.writeShort(55);
+      out.writeShort(this.poolCount);
+      out.write(this.pool.toByteArray());
+      out.writeShort(0x0031);
+      out.writeShort(this.thisClass);
+      out.writeShort(this.superClass);
+      out.writeShort(0);
+      out.writeShort(0);
+      out.writeShort(this.methodCount);
+      out.write(this.methods.toByteArray());
+      out.writeShort(0);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+}
+
+// writes the code of one generated method, tracking the operand stack depth
+class ArithMethodWriter {
+  static final int ALOAD_0 = 0x2a;
+  static final int ALOAD_1 = 0x2b;
+  static final int DALOAD = 0x31;
+  static final int AALOAD = 0x32;
+  static final int DUP2 = 0x5c;
+  static final int IADD = 0x60;
+  static final int IMUL = 0x68;
+  static final int DADD = 0x63;
+  static final int DSUB = 0x67;
+  static final int DMUL = 0x6b;
+  static final int DDIV = 0x6f;
+  static final int DNEG = 0x77;
+  static final int DRETURN = 0xaf;
+  static final int INVOKESTATIC = 0xb8;
+  static final int INVOKEINTERFACE = 0xb9;
+  static final int CHECKCAST = 0xc0;
+
+  ArithClassWriter writer;
+  ByteArrayOutputStream code = new ByteArrayOutputStream();
+  int stack = 0;
+  int maxStack = 0;
+
+  ArithMethodWriter(ArithClassWriter writer) {
+    this.writer = writer;
+  }
+
+  // writes a single instruction which changes the stack by the given number of slots
+  void op(int opcode, int stackChange) {
+    this.code.write(opcode);
+    this.grow(stackChange);
+  }
+
+  void grow(int stackChange) {
+    this.stack += stackChange;
+    this.maxStack = Math.max(this.maxStack, this.stack);
+  }
+
+  void u2(int value) {
+    this.code.write(value >> 8);
+    this.code.write(value);
+  }
+
+  // pushes the given int constant
+  void pushInt(int value) {
+    if (value <= 5) {
+      this.op(0x03 + value, 1);
+    } else if (value <= Byte.MAX_VALUE) {
+      this.op(0x10, 1);
+      this.code.write(value);
+    } else if (value <= Short.MAX_VALUE) {
+      this.op(0x11, 1);
+      this.u2(value);
+    } else {
+      // built from short pieces rather than an int constant, since a huge tree
+      // would overflow the constant pool with one constant per index
+      this.pushInt(value / Short.MAX_VALUE);
+      this.pushInt(Short.MAX_VALUE);
+      this.op(IMUL, -1);
+      this.pushInt(value % Short.MAX_VALUE);
+      this.op(IADD, -1);
+    }
+  }
+
+  // pushes consts[index]
+  void loadConst(int index) {
+    this.op(ALOAD_0, 1);
+    this.pushInt(index);
+    this.op(DALOAD, 0);
+  }
+
+  // pushes funcs[index], cast to the given interface
+  void loadFunc(int index, String type) {
+    this.op(ALOAD_1, 1);
+    this.pushInt(index);
+    this.op(AALOAD, -1);
+    this.op(CHECKCAST, 0);
+    this.u2(this.writer.classRef(type));
+  }
+
+  // calls applyAsDouble on a func pushed below its arguments, which take argSlots
+  // slots together with the func
+  void callFunc(String type, String descriptor, int argSlots) {
+    this.op(INVOKEINTERFACE, 2 - argSlots);
+    this.u2(this.writer.interfaceMethodRef(type, "applyAsDouble", descriptor));
+    this.code.write(argSlots);
+    this.code.write(0);
+  }
+
+  // pushes the result of the generated method with the given name
+  void callPart(String name) {
+    this.op(ALOAD_0, 1);
+    this.op(ALOAD_1, 1);
+    this.op(INVOKESTATIC, 0);
+    this.u2(this.writer.methodRef(this.writer.className, name, ArithCompiler.DESCRIPTOR));
+  }
+}
+
+class ExamplesArithCompiler {
+  IArith allAdds = new Addition(new Addition(2, 2), new Addition(2, 2));
+  IArith pointless = new Multiplication(
+      new Multiplication(2, new Subtraction(2, 5)),
+      new Addition(new Negation(1), new Division(new Addition(2, 3), 5)));
+  IArith large = new Square(
+      new Multiplication(new Square(10), new Square(63)));
+
+  // returns a left leaning chain of n additions of 1 onto 0
+  IArith chain(int n) {
+    IArith res = new Const(0);
+    for (int i = 0; i < n; i += 1) {
+      res = new Addition(res, 1);
+    }
+    return res;
+  }
+
+  boolean testCompile(Tester t) {
+    boolean res = true;
+
+    // simple tests
+
+    // - const
+
+    res &= t.checkInexact(ArithCompiler.compile(new Const(2)).eval(), 2.0, .001);
+
+    // - unary
+    res &= t.checkInexact(ArithCompiler.compile(new Negation(2)).eval(), -2.0, .001);
+    res &= t.checkInexact(ArithCompiler.compile(new Square(2)).eval(), 4.0, .001);
+
+    // - binary
+    res &= t.checkInexact(ArithCompiler.compile(new Addition(1, 2)).eval(), 3.0, .001);
+    res &= t.checkInexact(ArithCompiler.compile(new Subtraction(1, 2)).eval(), -1.0, .001);
+    res &= t.checkInexact(ArithCompiler.compile(new Multiplication(1, 2)).eval(), 2.0, .001);
+    res &= t.checkInexact(ArithCompiler.compile(new Division(1, 2)).eval(), 1d / 2, .001);
+
+    // - formulas with custom funcs, with and without a primitive op
+    res &= t.checkInexact(ArithCompiler.compile(
+        new UnaryFormula((a) -> a + 1, "inc", new Const(2))).eval(), 3.0, .001);
+    res &= t.checkInexact(ArithCompiler.compile(
+        new UnaryFormula((a) -> a + 1, (a) -> a + 1, "inc", new Const(2))).eval(), 3.0, .001);
+    res &= t.checkInexact(ArithCompiler.compile(
+        new BinaryFormula(Math::max, "max", new Const(2), new Const(5))).eval(), 5.0, .001);
+    res &= t.checkInexact(ArithCompiler.compile(
+        new BinaryFormula(Math::max, Math::max, "max", new Const(2), new Const(5))).eval(),
+        5.0, .001);
+
+    // complicated tests
+    res &= t.checkInexact(ArithCompiler.compile(allAdds).eval(), 8.0, .001);
+    res &= t.checkInexact(ArithCompiler.compile(pointless).eval(), 0.0, .001);
+    res &= t.checkInexact(ArithCompiler.compile(large).eval(), 157529610000.0, .001);
+    res &= t.checkInexact(ArithCompiler.compile(pointless.base()).eval(), 0.0, .001);
+
+    return res;
+  }
+
+  boolean testCompiledConsts(Tester t) {
+    boolean res = true;
+
+    CompiledArith compiled = ArithCompiler.compile(pointless);
+
+    // constants are numbered from left to right
+    res &= t.checkExpect(compiled.consts,
+        new double[] { 2.0, 2.0, 5.0, 1.0, 2.0, 3.0, 5.0 });
+
+    // (2 * (1 - 5)) * (-2 + (2 + 3) / 5)
+    res &= t.checkInexact(compiled.eval(new double[] { 2, 1, 5, 2, 2, 3, 5 }), 8.0, .001);
+
+    // the original constants are unchanged
+    res &= t.checkInexact(compiled.eval(), 0.0, .001);
+
+    return res;
+  }
+
+  boolean testCompileLarge(Tester t) {
+    boolean res = true;
+
+    // trees larger than one method are split across several
+    res &= t.checkInexact(ArithCompiler.compile(chain(ArithCompiler.METHOD_NODES * 3)).eval(),
+        ArithCompiler.METHOD_NODES * 3.0, .001);
+    res &= t.checkInexact(ArithCompiler.compile(chain(100000)).eval(), 100000.0, .001);
+
+    IArith wide = new Multiplication(chain(5000), new Negation(chain(5000)));
+    res &= t.checkInexact(ArithCompiler.compile(wide).eval(), -25000000.0, .001);
+
+    return res;
+  }
+
+  // returns the metaspace in use after a collection, which unloads unreachable classes
+  long metaspace() {
+    System.gc();
+    long used = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getName().equals("Metaspace")) {
+        used += pool.getUsage().getUsed();
+      }
+    }
+    return used;
+  }
+
+  // a DAG of shared nodes, as ArithFactory makes, is planned a node at a time, not
+  // a path at a time, and compiles into methods of bounded size
+  boolean testCompileShared(Tester t) {
+    boolean res = true;
+
+    ArithFactory factory = new ArithFactory();
+    IArith doubling = factory.num(1);
+    for (int i = 0; i < 40; i += 1) {
+      doubling = factory.plus(doubling, doubling);
+    }
+    ArithCompiler compiler = new ArithCompiler();
+    compiler.plan(doubling);
+    res &= t.checkExpect(compiler.cost.size(), 41);
+    res &= t.checkExpect(compiler.consts().length, 1);
+    res &= t.checkInexact(ArithCompiler.compile(doubling).eval(), Math.pow(2, 40), .001);
+    res &= t.checkInexact(ArithCompiler.compile(doubling).eval(new double[] {3}),
+        3 * Math.pow(2, 40), .001);
+
+    // a node shared with a left sibling is planned before the parent of both, and
+    // the constants are still numbered from left to right
+    IArith shared = factory.minus(factory.num(5), factory.num(2));
+    IArith right = factory.div(shared, factory.num(4));
+    IArith dag = factory.mul(right, shared);
+    CompiledArith compiled = ArithCompiler.compile(dag);
+    res &= t.checkExpect(compiled.consts, new double[] {5, 2, 4});
+    res &= t.checkInexact(compiled.eval(), 2.25, .001);
+    res &= t.checkInexact(compiled.eval(new double[] {6, 2, 2}), 8.0, .001);
+
+    return res;
+  }
+
+  boolean testCompileUnloads(Tester t) {
+    boolean res = true;
+
+    // warm up, so the classes the compiler itself needs are already loaded
+    for (int i = 0; i < 1000; i += 1) {
+      res &= t.checkInexact(ArithCompiler.compile(chain(10)).eval(), 10.0, .001);
+    }
+    long before = this.metaspace();
+    for (int i = 0; i < 10000; i += 1) {
+      res &= t.checkInexact(ArithCompiler.compile(chain(10)).eval(), 10.0, .001);
+    }
+    // ten thousand classes kept alive would take many megabytes of metaspace
+    res &= t.checkExpect(this.metaspace() - before < 2000000, true);
+
+    return res;
+  }
+}
@@ -0,0 +1,391 @@
+import java.lang.ref.*;
+import java.util.*;
+import java.util.function.*;
+import tester.Tester;
+
+// builds trees of arithmetic out of shared nodes: asking for a node equal to one
+// this factory already made returns that same node, so equal subtrees become one
+// node of a DAG. Nodes are held weakly, and their keys do not hold their children,
+// so a whole DAG which nothing else uses is collected at once and then forgotten.
+// Shared nodes must not be mutated, since every tree using them would change.
+class ArithFactory implements IArithFolder<IArith> {
+  HashMap<ArithKey, ArithRef> nodes = new HashMap<ArithKey, ArithRef>();
+  ReferenceQueue<IArith> collected = new ReferenceQueue<IArith>();
+
+  // returns the shared const with the given num
+  IArith num(double num) {
+    long bits = Double.doubleToRawLongBits(num);
+    return this.find(new ArithKey(Const.class, null, null, null, bits),
+        num, null, null, null);
+  }
+
+  // returns the shared param for the given column with the given default num
+  IArith param(int column, double num) {
+    long bits = Double.doubleToRawLongBits(num);
+    return this.find(new ArithKey(Param.class, null, null, null, bits, column),
+        num, null, null, null);
+  }
+
+  // returns the shared unary formula with the given func, op and name over the
+  // given child, which should itself come from this factory
+  IArith unary(Function<Double, Double> func, DoubleUnaryOperator op, String name,
+      IArith child) {
+    return this.unary(UnaryArithOp.of(func, op, name), child);
+  }
+
+  // returns the shared unary formula of the given operator over the given child,
+  // which should itself come from this factory; operators with the same func, op
+  // and name are treated as one
+  IArith unary(UnaryArithOp operator, IArith child) {
+    Object kind = operator.op == null ? operator.func : operator.op;
+    return this.find(new ArithKey(kind, operator.name, child, null, 0),
+        0, operator, child, null);
+  }
+
+  // returns the shared binary formula with the given func, op and name over the
+  // given left and right, which should themselves come from this factory
+  IArith binary(BiFunction<Double, Double, Double> func, DoubleBinaryOperator op,
+      String name, IArith left, IArith right) {
+    return this.binary(BinaryArithOp.of(func, op, name), left, right);
+  }
+
+  // returns the shared binary formula of the given operator over the given left and
+  // right, which should themselves come from this factory; operators with the same
+  // func, op and name are treated as one
+  IArith binary(BinaryArithOp operator, IArith left, IArith right) {
+    Object kind = operator.op == null ? operator.func : operator.op;
+    return this.find(new ArithKey(kind, operator.name, left, right, 0),
+        0, operator, left, right);
+  }
+
+  IArith neg(IArith child) {
+    return this.unary(ArithOp.NEG, child);
+  }
+
+  IArith sqr(IArith child) {
+    return this.unary(ArithOp.SQR, child);
+  }
+
+  IArith plus(IArith left, IArith right) {
+    return this.binary(ArithOp.PLUS, left, right);
+  }
+
+  IArith minus(IArith left, IArith right) {
+    return this.binary(ArithOp.MINUS, left, right);
+  }
+
+  IArith mul(IArith left, IArith right) {
+    return this.binary(ArithOp.MUL, left, right);
+  }
+
+  IArith div(IArith left, IArith right) {
+    return this.binary(ArithOp.DIV, left, right);
+  }
+
+  // returns a copy of arith made of shared nodes, stripped of any
+  // extension classes like base(), without recursing on the tree
+  IArith intern(IArith arith) {
+    return new IterativeVisitor<IArith>(this).apply(arith);
+  }
+
+  // returns the number of shared nodes still in use
+  int size() {
+    this.purge();
+    return this.nodes.size();
+  }
+
+  // returns the node for the given key, making it from the given parts if there is none
+  IArith find(ArithKey key, double num, ArithOp operator, IArith left, IArith right) {
+    this.purge();
+    ArithRef ref = this.nodes.get(key);
+    IArith node = ref == null ? null : ref.get();
+    if (node == null) {
+      if (ref != null) {
+        // collected since it was found, so its key no longer matches even itself
+        this.nodes.remove(ref.key);
+      }
+      node = this.make(key, num, operator, left, right);
+      ref = new ArithRef(node, key, this.collected);
+      key.store(ref);
+      this.nodes.put(key, ref);
+    }
+    return node;
+  }
+
+  // makes a new node for the given key from the given parts
+  IArith make(ArithKey key, double num, ArithOp operator, IArith left, IArith right) {
+    if (key.kind == Param.class) {
+      return new Param(key.column, num);
+    } else if (left == null) {
+      return new Const(num);
+    } else if (right == null) {
+      return new UnaryFormula((UnaryArithOp) operator, left);
+    } else {
+      return new BinaryFormula((BinaryArithOp) operator, left, right);
+    }
+  }
+
+  // forgets the keys of nodes which have been collected
+  void purge() {
+    Reference<? extends IArith> ref = this.collected.poll();
+    while (ref != null) {
+      ArithRef arithRef = (ArithRef) ref;
+      if (this.nodes.get(arithRef.key) == arithRef) {
+        this.nodes.remove(arithRef.key);
+      }
+      ref = this.collected.poll();
+    }
+  }
+
+  // asks arith to pass itself to the apply function of this
+  // visitor which accepts its IArith implementation
+  // Then, returns the shared copy of the tree of arithmetic
+  public IArith apply(IArith arith) {
+    return arith.accept(this);
+  }
+
+  // returns the shared copy of arith
+  public IArith apply(Const arith) {
+    if (arith instanceof Param) {
+      return this.param(((Param) arith).column, arith.num);
+    }
+    return this.num(arith.num);
+  }
+
+  // returns the shared copy of arith, over the shared copy of its child
+  public IArith apply(UnaryFormula arith) {
+    return this.apply(arith, arith.childAccept(this));
+  }
+
+  // returns the shared copy of arith, over the shared copies of its left and right
+  public IArith apply(BinaryFormula arith) {
+    return this.apply(arith, arith.leftAccept(this), arith.rightAccept(this));
+  }
+
+  // returns the shared copy of arith, over the given shared child
+  public IArith apply(UnaryFormula arith, IArith child) {
+    return this.unary(arith.operator, child);
+  }
+
+  // returns the shared copy of arith, over the given shared left and right
+  public IArith apply(BinaryFormula arith, IArith left, IArith right) {
+    return this.binary(arith.operator, left, right);
+  }
+}
+
+// identifies a node of an ArithFactory by its operator, name and children,
+// comparing operators and children by identity. A key being looked up holds the
+// children it asks for; a stored key instead reads them from its node through the
+// node's weak reference, so the table never keeps a child alive, and a key whose
+// node has been collected matches no other key.
+class ArithKey {
+  // Const.class for consts, otherwise the op of the formula, or its func if it has no op
+  Object kind;
+  String name;
+  // the children of the node, until the key is stored
+  IArith left;
+  IArith right;
+  // the bits of a const's num
+  long bits;
+  // the column of a param
+  int column;
+  int hash;
+  // the reference to the node the key is stored for, once it is
+  ArithRef ref;
+
+  ArithKey(Object kind, String name, IArith left, IArith right, long bits) {
+    this(kind, name, left, right, bits, 0);
+  }
+
+  ArithKey(Object kind, String name, IArith left, IArith right, long bits, int column) {
+    this.kind = kind;
+    this.name = name;
+    this.left = left;
+    this.right = right;
+    this.bits = bits;
+    this.column = column;
+    int hash = System.identityHashCode(kind);
+    hash = hash * 31 + Objects.hashCode(name);
+    hash = hash * 31 + System.identityHashCode(left);
+    hash = hash * 31 + System.identityHashCode(right);
+    hash = hash * 31 + Long.hashCode(bits);
+    this.hash = hash * 31 + column;
+  }
+
+  // makes this the key of the node the given reference refers to, letting go of
+  // the children, which the node holds
+  void store(ArithRef ref) {
+    this.ref = ref;
+    this.left = null;
+    this.right = null;
+  }
+
+  // is the other object a key for the same node as this one?
+  public boolean equals(Object other) {
+    if (!(other instanceof ArithKey)) {
+      return false;
+    }
+    ArithKey key = (ArithKey) other;
+    if (this.hash != key.hash || this.kind != key.kind || this.bits != key.bits
+        || this.column != key.column || !Objects.equals(this.name, key.name)) {
+      return false;
+    }
+    IArith node = this.ref == null ? null : this.ref.get();
+    IArith keyNode = key.ref == null ? null : key.ref.get();
+    if ((this.ref != null && node == null) || (key.ref != null && keyNode == null)) {
+      return false;
+    }
+    IArith left = this.ref == null ? this.left : ArithKey.left(node);
+    IArith right = this.ref == null ? this.right : ArithKey.right(node);
+    return left == (key.ref == null ? key.left : ArithKey.left(keyNode))
+        && right == (key.ref == null ? key.right : ArithKey.right(keyNode));
+  }
+
+  public int hashCode() {
+    return this.hash;
+  }
+
+  // returns the left or only child of the node, or null if it has none
+  static IArith left(IArith node) {
+    if (node instanceof UnaryFormula) {
+      return ((UnaryFormula) node).child;
+    } else if (node instanceof BinaryFormula) {
+      return ((BinaryFormula) node).left;
+    }
+    return null;
+  }
+
+  // returns the right child of the node, or null if it has none
+  static IArith right(IArith node) {
+    if (node instanceof BinaryFormula) {
+      return ((BinaryFormula) node).right;
+    }
+    return null;
+  }
+}
+
+// a weak reference to a node of an ArithFactory, remembering its key
+class ArithRef extends WeakReference<IArith> {
+  ArithKey key;
+
+  ArithRef(IArith node, ArithKey key, ReferenceQueue<IArith> queue) {
+    super(node, queue);
+    this.key = key;
+  }
+}
+
+class ExamplesArithFactory {
+  IArith pointless = new Multiplication(
+      new Multiplication(2, new Subtraction(2, 5)),
+      new Addition(new Negation(1), new Division(new Addition(2, 3), 5)));
+
+  boolean testFactoryShares(Tester t) {
+    boolean res = true;
+    ArithFactory factory = new ArithFactory();
+
+    // - const
+    res &= t.checkExpect(factory.num(2) == factory.num(2), true);
+    res &= t.checkExpect(factory.num(2) == factory.num(3), false);
+    res &= t.checkExpect(factory.num(0.0) == factory.num(-0.0), false);
+    res &= t.checkExpect(factory.num(2), new Const(2));
+
+    // - param
+    res &= t.checkExpect(factory.param(0, 2) == factory.param(0, 2), true);
+    res &= t.checkExpect(factory.param(0, 2) == factory.param(1, 2), false);
+    res &= t.checkExpect(factory.param(0, 2) == factory.num(2), false);
+    res &= t.checkExpect(factory.intern(new Param(1, 2)), new Param(1, 2));
+
+    // - unary
+    res &= t.checkExpect(factory.sqr(factory.num(2)) == factory.sqr(factory.num(2)), true);
+    res &= t.checkExpect(factory.sqr(factory.num(2)) == factory.neg(factory.num(2)), false);
+    res &= t.checkExpect(factory.sqr(factory.num(2)), new Square(2).base());
+
+    // - binary
+    res &= t.checkExpect(factory.plus(factory.num(1), factory.num(2))
+        == factory.plus(factory.num(1), factory.num(2)), true);
+    res &= t.checkExpect(factory.plus(factory.num(1), factory.num(2))
+        == factory.plus(factory.num(2), factory.num(1)), false);
+    res &= t.checkExpect(factory.minus(factory.num(1), factory.num(2))
+        == factory.plus(factory.num(1), factory.num(2)), false);
+    res &= t.checkExpect(factory.div(factory.num(1), factory.num(2)),
+        new Division(1, 2).base());
+
+    // - custom formulas with the same name but a different func stay apart
+    Function<Double, Double> inc = (a) -> a + 1;
+    Function<Double, Double> dec = (a) -> a - 1;
+    res &= t.checkExpect(factory.unary(inc, null, "f", factory.num(1))
+        == factory.unary(inc, null, "f", factory.num(1)), true);
+    res &= t.checkExpect(factory.unary(inc, null, "f", factory.num(1))
+        == factory.unary(dec, null, "f", factory.num(1)), false);
+
+    return res;
+  }
+
+  boolean testFactoryIntern(Tester t) {
+    boolean res = true;
+    ArithFactory factory = new ArithFactory();
+
+    IArith adds = factory.intern(new Addition(new Addition(2, 2), new Addition(2, 2)));
+    res &= t.checkExpect(((BinaryFormula) adds).left == ((BinaryFormula) adds).right, true);
+    res &= t.checkExpect(adds, new Addition(new Addition(2, 2), new Addition(2, 2)).base());
+    res &= t.checkExpect(factory.size(), 3);
+
+    // interning an equal tree finds the same nodes
+    res &= t.checkExpect(factory.intern(pointless) == factory.intern(pointless.base()), true);
+    res &= t.checkExpect(factory.intern(pointless), pointless.base());
+    res &= t.checkInexact(factory.intern(pointless).evalDouble(), 0.0, .001);
+    res &= t.checkExpect(
+        factory.intern(pointless.accept(new MirrorVisitor()))
+        == factory.intern(pointless.accept(new MirrorVisitor())), true);
+
+    return res;
+  }
+
+  boolean testFactoryForgets(Tester t) {
+    boolean res = true;
+    ArithFactory factory = new ArithFactory();
+
+    IArith kept = factory.plus(factory.num(1), factory.num(2));
+    for (int i = 0; i < 10000; i += 1) {
+      factory.sqr(factory.num(i));
+    }
+    res &= t.checkExpect(factory.size(), 20001);
+
+    // the table holds no node but through the weak references, so a dead DAG is
+    // unreachable all at once, rather than a level per collection
+    boolean weak = true;
+    for (ArithKey key : factory.nodes.keySet()) {
+      weak &= key.left == null && key.right == null && key.ref.key == key;
+    }
+    res &= t.checkExpect(weak, true);
+
+    // collect everything but the kept tree, as the collector would in one cycle
+    for (ArithRef ref : factory.nodes.values()) {
+      IArith node = ref.get();
+      if (node != kept && node != ((BinaryFormula) kept).left
+          && node != ((BinaryFormula) kept).right) {
+        ref.clear();
+        ref.enqueue();
+      }
+    }
+
+    // only the kept tree is still in use
+    res &= t.checkExpect(factory.size(), 3);
+    res &= t.checkExpect(factory.plus(factory.num(1), factory.num(2)) == kept, true);
+    res &= t.checkExpect(factory.sqr(factory.num(5)), new Square(5).base());
+    res &= t.checkExpect(factory.size(), 5);
+
+    // a node collected but not yet queued matches nothing, and is replaced, and
+    // its entry is dropped once it is queued
+    IArith seven = factory.num(7);
+    ArithRef sevenRef = factory.nodes.get(new ArithKey(Const.class, null, null, null,
+        Double.doubleToRawLongBits(7)));
+    sevenRef.clear();
+    res &= t.checkExpect(factory.num(7) == seven, false);
+    res &= t.checkExpect(factory.num(7) == factory.num(7), true);
+    sevenRef.enqueue();
+    res &= t.checkExpect(factory.size(), 6);
+
+    return res;
+  }
+}
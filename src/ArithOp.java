@@ -0,0 +1,316 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import tester.Tester;
+
+// an operator of formulas, shared by every formula which uses it, so the nodes of
+// a tree hold one reference to their operator rather than their own funcs and
+// name. The known operators each have an id of their own, which evaluators can
+// switch on; every other operator has CUSTOM_ID and is called through its funcs.
+// Operators can be registered by name, and the known ones always are; the registry
+// is only changed through define and undefine, which are safe on any thread.
+abstract class ArithOp {
+  static final int NEG_ID = 0;
+  static final int SQR_ID = 1;
+  static final int PLUS_ID = 2;
+  static final int MINUS_ID = 3;
+  static final int MUL_ID = 4;
+  static final int DIV_ID = 5;
+  static final int CUSTOM_ID = 6;
+
+  // the registered operators, by name
+  private static final ConcurrentHashMap<String, ArithOp> REGISTRY =
+      new ConcurrentHashMap<String, ArithOp>();
+
+  static final UnaryArithOp NEG = new UnaryArithOp(NEG_ID, "neg", (a) -> {
+    return -a;
+  }, (a) -> -a);
+  static final UnaryArithOp SQR = new UnaryArithOp(SQR_ID, "sqr", (a) -> {
+    return a * a;
+  }, (a) -> a * a);
+  static final BinaryArithOp PLUS = new BinaryArithOp(PLUS_ID, "plus", (a, b) -> {
+    return a + b;
+  }, (a, b) -> a + b);
+  static final BinaryArithOp MINUS = new BinaryArithOp(MINUS_ID, "minus", (a, b) -> {
+    return a - b;
+  }, (a, b) -> a - b);
+  static final BinaryArithOp MUL = new BinaryArithOp(MUL_ID, "mul", (a, b) -> {
+    return a * b;
+  }, (a, b) -> a * b);
+  static final BinaryArithOp DIV = new BinaryArithOp(DIV_ID, "div", (a, b) -> {
+    return a / b;
+  }, (a, b) -> a / b);
+
+  static {
+    define(NEG);
+    define(SQR);
+    define(PLUS);
+    define(MINUS);
+    define(MUL);
+    define(DIV);
+  }
+
+  int id;
+  String name;
+
+  ArithOp(int id, String name) {
+    this.id = id;
+    this.name = name;
+  }
+
+  // registers the operator under its name, unless another operator has it already
+  static void define(ArithOp op) {
+    ArithOp old = REGISTRY.putIfAbsent(op.name, op);
+    if (old != null && old != op) {
+      throw new IllegalArgumentException("an operator named " + op.name + " already exists");
+    }
+  }
+
+  // unregisters the custom operator, returning whether it was registered; the
+  // known operators are always registered
+  static boolean undefine(ArithOp op) {
+    if (op.id != CUSTOM_ID) {
+      throw new IllegalArgumentException("the known operator " + op.name + " stays registered");
+    }
+    return REGISTRY.remove(op.name, op);
+  }
+
+  // returns the operator registered with the given name, or null if there is none
+  static ArithOp named(String name) {
+    return REGISTRY.get(name);
+  }
+}
+
+class UnaryArithOp extends ArithOp {
+  Function<Double, Double> func;
+  // primitive version of func, or null if this operator only has the boxed func
+  DoubleUnaryOperator op;
+
+  UnaryArithOp(Function<Double, Double> func, DoubleUnaryOperator op, String name) {
+    this(CUSTOM_ID, name, func, op);
+  }
+
+  UnaryArithOp(int id, String name, Function<Double, Double> func, DoubleUnaryOperator op) {
+    super(id, name);
+    this.func = func;
+    this.op = op;
+  }
+
+  // returns the registered operator with the given name if it has the same func,
+  // and op unless op is null, or otherwise a new operator
+  static UnaryArithOp of(Function<Double, Double> func, DoubleUnaryOperator op, String name) {
+    ArithOp named = ArithOp.named(name);
+    if (named instanceof UnaryArithOp && ((UnaryArithOp) named).func == func
+        && (op == null || ((UnaryArithOp) named).op == op)) {
+      return (UnaryArithOp) named;
+    }
+    return new UnaryArithOp(func, op, name);
+  }
+
+  // applies this operator to a primitive value
+  double applyDouble(double a) {
+    switch (this.id) {
+      case NEG_ID:
+        return -a;
+      case SQR_ID:
+        return a * a;
+      default:
+        if (this.op == null) {
+          return this.func.apply(a);
+        }
+        return this.op.applyAsDouble(a);
+    }
+  }
+
+  // returns a formula of this operator over the given child, as a Negation
+  // or Square for the known operators
+  IArith make(IArith child) {
+    switch (this.id) {
+      case NEG_ID:
+        return new Negation(child);
+      case SQR_ID:
+        return new Square(child);
+      default:
+        return new UnaryFormula(this, child);
+    }
+  }
+}
+
+class BinaryArithOp extends ArithOp {
+  BiFunction<Double, Double, Double> func;
+  // primitive version of func, or null if this operator only has the boxed func
+  DoubleBinaryOperator op;
+
+  BinaryArithOp(BiFunction<Double, Double, Double> func, DoubleBinaryOperator op,
+      String name) {
+    this(CUSTOM_ID, name, func, op);
+  }
+
+  BinaryArithOp(int id, String name, BiFunction<Double, Double, Double> func,
+      DoubleBinaryOperator op) {
+    super(id, name);
+    this.func = func;
+    this.op = op;
+  }
+
+  // returns the registered operator with the given name if it has the same func,
+  // and op unless op is null, or otherwise a new operator
+  static BinaryArithOp of(BiFunction<Double, Double, Double> func, DoubleBinaryOperator op,
+      String name) {
+    ArithOp named = ArithOp.named(name);
+    if (named instanceof BinaryArithOp && ((BinaryArithOp) named).func == func
+        && (op == null || ((BinaryArithOp) named).op == op)) {
+      return (BinaryArithOp) named;
+    }
+    return new BinaryArithOp(func, op, name);
+  }
+
+  // applies this operator to primitive values
+  double applyDouble(double a, double b) {
+    switch (this.id) {
+      case PLUS_ID:
+        return a + b;
+      case MINUS_ID:
+        return a - b;
+      case MUL_ID:
+        return a * b;
+      case DIV_ID:
+        return a / b;
+      default:
+        if (this.op == null) {
+          return this.func.apply(a, b);
+        }
+        return this.op.applyAsDouble(a, b);
+    }
+  }
+
+  // returns a formula of this operator over the given left and right, as an
+  // Addition, Subtraction, Multiplication or Division for the known operators
+  IArith make(IArith left, IArith right) {
+    switch (this.id) {
+      case PLUS_ID:
+        return new Addition(left, right);
+      case MINUS_ID:
+        return new Subtraction(left, right);
+      case MUL_ID:
+        return new Multiplication(left, right);
+      case DIV_ID:
+        return new Division(left, right);
+      default:
+        return new BinaryFormula(this, left, right);
+    }
+  }
+}
+
+class ExamplesArithOp {
+  boolean testKnownOps(Tester t) {
+    boolean res = true;
+
+    // every formula of a known operator shares it
+    res &= t.checkExpect(new Negation(1).operator == new Negation(2).operator, true);
+    res &= t.checkExpect(new Addition(1, 2).operator == ArithOp.PLUS, true);
+    res &= t.checkExpect(new Division(1, 2).operator.id, ArithOp.DIV_ID);
+    res &= t.checkExpect(ArithOp.named("sqr"), ArithOp.SQR);
+    res &= t.checkExpect(ArithOp.named("pow"), null);
+
+    // formulas built from the funcs of a known operator find it
+    res &= t.checkExpect(new UnaryFormula(ArithOp.NEG.func, "neg", new Const(1)).operator,
+        ArithOp.NEG);
+    res &= t.checkExpect(new BinaryFormula(ArithOp.MUL.func, "mul", new Const(1), new Const(2))
+        .operator == ArithOp.MUL, true);
+    res &= t.checkExpect(new UnaryFormula(ArithOp.NEG.func, "opposite", new Const(1))
+        .operator.id, ArithOp.CUSTOM_ID);
+
+    // - applyDouble
+    res &= t.checkInexact(ArithOp.NEG.applyDouble(2), -2.0, .001);
+    res &= t.checkInexact(ArithOp.SQR.applyDouble(3), 9.0, .001);
+    res &= t.checkInexact(ArithOp.MINUS.applyDouble(1, 2), -1.0, .001);
+    res &= t.checkInexact(ArithOp.DIV.applyDouble(1, 2), 0.5, .001);
+
+    // - make
+    res &= t.checkExpect(ArithOp.SQR.make(new Const(2)), new Square(2));
+    res &= t.checkExpect(ArithOp.PLUS.make(new Const(1), new Const(2)), new Addition(1, 2));
+
+    return res;
+  }
+
+  boolean testCustomOps(Tester t) {
+    boolean res = true;
+    BinaryArithOp max = new BinaryArithOp(Math::max, Math::max, "max");
+    UnaryArithOp inc = new UnaryArithOp((a) -> a + 1, null, "inc");
+
+    res &= t.checkInexact(max.applyDouble(1, 2), 2.0, .001);
+    res &= t.checkInexact(inc.applyDouble(1), 2.0, .001);
+    res &= t.checkExpect(max.make(new Const(1), new Const(2)),
+        new BinaryFormula(max, new Const(1), new Const(2)));
+
+    // registered operators are found by name, and formulas built from their funcs share them
+    ArithOp.define(inc);
+    res &= t.checkExpect(ArithOp.named("inc") == inc, true);
+    res &= t.checkExpect(new UnaryFormula(inc.func, "inc", new Const(1)).operator == inc, true);
+    String error = "";
+    try {
+      ArithOp.define(new UnaryArithOp((a) -> a + 1, null, "inc"));
+    } catch (IllegalArgumentException e) {
+      error = e.getMessage();
+    }
+    res &= t.checkExpect(error, "an operator named inc already exists");
+
+    // only the operator registered under a name unregisters it
+    res &= t.checkExpect(ArithOp.undefine(new UnaryArithOp((a) -> a + 1, null, "inc")), false);
+    res &= t.checkExpect(ArithOp.named("inc") == inc, true);
+    res &= t.checkExpect(ArithOp.undefine(inc), true);
+    res &= t.checkExpect(ArithOp.named("inc"), null);
+    res &= t.checkExpect(ArithOp.undefine(inc), false);
+    error = "";
+    try {
+      ArithOp.undefine(ArithOp.SQR);
+    } catch (IllegalArgumentException e) {
+      error = e.getMessage();
+    }
+    res &= t.checkExpect(error, "the known operator sqr stays registered");
+    res &= t.checkExpect(ArithOp.named("sqr"), ArithOp.SQR);
+
+    return res;
+  }
+
+  boolean testConcurrentDefine(Tester t) throws InterruptedException {
+    boolean res = true;
+
+    // of many threads defining operators of the same name at once, exactly one wins
+    int threads = 8;
+    UnaryArithOp[] ops = new UnaryArithOp[threads];
+    int[] wins = new int[1];
+    Thread[] running = new Thread[threads];
+    CountDownLatch start = new CountDownLatch(1);
+    for (int i = 0; i < threads; i += 1) {
+      UnaryArithOp op = new UnaryArithOp((a) -> a, null, "racing");
+      ops[i] = op;
+      running[i] = new Thread(() -> {
+        try {
+          start.await();
+          ArithOp.define(op);
+          synchronized (wins) {
+            wins[0] += 1;
+          }
+        } catch (IllegalArgumentException | InterruptedException e) {
+          return;
+        }
+      });
+      running[i].start();
+    }
+    start.countDown();
+    for (Thread thread : running) {
+      thread.join();
+    }
+    res &= t.checkExpect(wins[0], 1);
+    boolean registered = false;
+    for (UnaryArithOp op : ops) {
+      registered |= ArithOp.named("racing") == op;
+    }
+    res &= t.checkExpect(registered, true);
+    res &= t.checkExpect(ArithOp.undefine(ArithOp.named("racing")), true);
+
+    return res;
+  }
+}
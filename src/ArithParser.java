@@ -0,0 +1,687 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import tester.Tester;
+
+// reads trees of arithmetic written the way PrintVisitor writes them, like
+// (plus 1.0 (neg 2.0)), one after another from a stream of text. The text is read
+// a buffer at a time and never looked at twice, names are matched without making
+// strings, and nesting is kept on an explicit stack, so any number of formulas of
+// any depth can be read. Params are written as their num, so they read back as consts.
+class ArithParser {
+  static final int BUFFER_SIZE = 8192;
+  // 10^0 to 10^22, every one exactly representable as a double
+  static final double[] POWERS_OF_TEN = new double[23];
+  // 5^0 to 5^22, every one below 2^52
+  static final long[] POWERS_OF_FIVE = new long[23];
+
+  static {
+    POWERS_OF_TEN[0] = 1;
+    POWERS_OF_FIVE[0] = 1;
+    for (int i = 1; i < POWERS_OF_TEN.length; i += 1) {
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+      POWERS_OF_FIVE[i] = POWERS_OF_FIVE[i - 1] * 5;
+    }
+  }
+
+  // where more text comes from, or null if buffer holds all of it
+  Readable in;
+  CharBuffer buffer;
+  // how many chars were read before the ones in buffer
+  long offset = 0;
+  // the operators this parser knows, by name
+  HashMap<CharBuffer, ArithOp> formulas = new HashMap<CharBuffer, ArithOp>();
+  // the formulas being read, from the outermost in
+  ArrayList<ArithFrame> frames = new ArrayList<ArithFrame>();
+  int depth = 0;
+  // the chars of the token being read, and a view of them for looking up names
+  char[] token = new char[64];
+  CharBuffer tokenView = CharBuffer.wrap(this.token);
+
+  // reads from the given text, a buffer at a time
+  ArithParser(Readable in) {
+    this.in = in;
+    this.buffer = CharBuffer.allocate(BUFFER_SIZE);
+    this.buffer.flip();
+    this.defineKnown();
+  }
+
+  // reads straight out of the given chars, without copying them
+  ArithParser(CharBuffer text) {
+    this.in = null;
+    this.buffer = text.slice();
+    this.defineKnown();
+  }
+
+  // returns a parser of the given UTF-8 file, which is mapped into memory a window
+  // at a time and decoded a buffer at a time rather than read onto the heap whole
+  static ArithParser open(Path path) throws IOException {
+    return new ArithParser(new MappedText(path, MappedText.WINDOW));
+  }
+
+  // closes the text this parser reads from, if it can be closed
+  void close() throws IOException {
+    if (this.in instanceof Closeable) {
+      ((Closeable) this.in).close();
+    }
+  }
+
+  // teaches this parser the operators of Negation, Square, Addition,
+  // Subtraction, Multiplication and Division
+  void defineKnown() {
+    this.define(ArithOp.NEG);
+    this.define(ArithOp.SQR);
+    this.define(ArithOp.PLUS);
+    this.define(ArithOp.MINUS);
+    this.define(ArithOp.MUL);
+    this.define(ArithOp.DIV);
+  }
+
+  // teaches this parser to read formulas named like the given operator as formulas
+  // of it; names it was not taught are looked up in the ArithOp registry
+  void define(ArithOp operator) {
+    this.formulas.put(CharBuffer.wrap(operator.name), operator);
+  }
+
+  // teaches this parser to read formulas named like the given one as
+  // formulas of its operator
+  void define(UnaryFormula formula) {
+    this.define(formula.operator);
+  }
+
+  // teaches this parser to read formulas named like the given one as
+  // formulas of its operator
+  void define(BinaryFormula formula) {
+    this.define(formula.operator);
+  }
+
+  // is there another formula to read?
+  boolean hasNext() throws IOException {
+    return this.skipSpace() != -1;
+  }
+
+  // reads the next formula, or returns null if the text has ended
+  IArith next() throws IOException {
+    while (true) {
+      int c = this.skipSpace();
+      IArith done;
+      if (c == -1) {
+        if (this.depth > 0) {
+          throw this.error("unexpected end of text inside a formula");
+        }
+        return null;
+      } else if (c == '(') {
+        this.read();
+        this.open();
+        continue;
+      } else if (c == ')') {
+        this.read();
+        done = this.finish();
+      } else {
+        done = new Const(this.readNumber());
+      }
+      if (this.depth == 0) {
+        return done;
+      }
+      ArithFrame frame = this.frames.get(this.depth - 1);
+      if (!frame.add(done)) {
+        throw this.error("too many arguments to " + frame.name());
+      }
+    }
+  }
+
+  // starts a formula, reading its name
+  void open() throws IOException {
+    int length = this.readToken();
+    if (length == 0) {
+      throw this.error("expected the name of a formula");
+    }
+    this.tokenView.clear();
+    this.tokenView.limit(length);
+    ArithOp formula = this.formulas.get(this.tokenView);
+    if (formula == null) {
+      formula = ArithOp.named(this.tokenView.toString());
+    }
+    if (formula == null) {
+      throw this.error("unknown formula " + this.tokenView);
+    }
+    if (this.depth == this.frames.size()) {
+      this.frames.add(new ArithFrame());
+    }
+    this.frames.get(this.depth).start(formula);
+    this.depth += 1;
+  }
+
+  // finishes the innermost formula, returning it
+  IArith finish() throws IOException {
+    if (this.depth == 0) {
+      throw this.error("unexpected )");
+    }
+    this.depth -= 1;
+    ArithFrame frame = this.frames.get(this.depth);
+    IArith res = frame.build();
+    if (res == null) {
+      throw this.error("too few arguments to " + frame.name());
+    }
+    return res;
+  }
+
+  // reads a number in any form Double.toString writes
+  double readNumber() throws IOException {
+    int length = this.readToken();
+    double res = this.parseFast(length);
+    if (Double.isNaN(res) && !this.isToken(0, length, "NaN")) {
+      try {
+        return Double.parseDouble(new String(this.token, 0, length));
+      } catch (NumberFormatException e) {
+        throw this.error("expected a number but got " + new String(this.token, 0, length));
+      }
+    }
+    return res;
+  }
+
+  // parses the token as a number if it is NaN, an infinity, or has at most 18
+  // digits and a small exponent; otherwise returns NaN. Up to 15 digits, one exact
+  // multiplication or division by a power of ten is correctly rounded; up to 18,
+  // which takes in every number Double.toString writes, scaleExact rounds exactly.
+  double parseFast(int length) {
+    int i = 0;
+    boolean negative = length > 0 && this.token[0] == '-';
+    if (negative) {
+      i += 1;
+    }
+    if (this.isToken(0, length, "NaN")) {
+      return Double.NaN;
+    } else if (this.isToken(i, length, "Infinity")) {
+      return negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+    }
+    long mantissa = 0;
+    int digits = 0;
+    int exponent = 0;
+    boolean seenDigit = false;
+    boolean seenPoint = false;
+    for (; i < length && this.token[i] != 'E' && this.token[i] != 'e'; i += 1) {
+      char c = this.token[i];
+      if (c == '.' && !seenPoint) {
+        seenPoint = true;
+      } else if (c >= '0' && c <= '9') {
+        seenDigit = true;
+        if (mantissa != 0 || c != '0') {
+          digits += 1;
+        }
+        mantissa = mantissa * 10 + (c - '0');
+        if (seenPoint) {
+          exponent -= 1;
+        }
+        if (digits > 18) {
+          return Double.NaN;
+        }
+      } else {
+        return Double.NaN;
+      }
+    }
+    if (!seenDigit) {
+      return Double.NaN;
+    }
+    if (i < length) {
+      i += 1;
+      boolean negativeExponent = i < length && this.token[i] == '-';
+      if (negativeExponent || (i < length && this.token[i] == '+')) {
+        i += 1;
+      }
+      if (i == length || length - i > 3) {
+        return Double.NaN;
+      }
+      int written = 0;
+      for (; i < length; i += 1) {
+        char c = this.token[i];
+        if (c < '0' || c > '9') {
+          return Double.NaN;
+        }
+        written = written * 10 + (c - '0');
+      }
+      exponent += negativeExponent ? -written : written;
+    }
+    double res;
+    if (mantissa == 0) {
+      res = 0;
+    } else if (Math.abs(exponent) >= POWERS_OF_TEN.length) {
+      return Double.NaN;
+    } else if (digits > 15) {
+      res = ArithParser.scaleExact(mantissa, exponent);
+    } else if (exponent >= 0) {
+      res = mantissa * POWERS_OF_TEN[exponent];
+    } else {
+      res = mantissa / POWERS_OF_TEN[-exponent];
+    }
+    return negative ? -res : res;
+  }
+
+  // returns mantissa * 10^exponent correctly rounded, for a mantissa below 10^18
+  // and an exponent of at most 22 either way, in exact integer arithmetic: as
+  // 10^exponent is 5^exponent * 2^exponent, only the product or quotient with the
+  // power of five needs rounding, and scaling by the power of two is exact
+  static double scaleExact(long mantissa, int exponent) {
+    if (exponent >= 0) {
+      long five = POWERS_OF_FIVE[exponent];
+      return ArithParser.round(Math.multiplyHigh(mantissa, five), mantissa * five, false,
+          exponent);
+    }
+    long five = POWERS_OF_FIVE[-exponent];
+    // divides a few bits at a time, as remainder << step cannot overflow, until the
+    // quotient has two bits more than a double keeps
+    int step = Long.numberOfLeadingZeros(five) - 1;
+    long quotient = mantissa / five;
+    long remainder = mantissa % five;
+    int scale = exponent;
+    int bits = 64 - Long.numberOfLeadingZeros(quotient);
+    while (bits < 55) {
+      int shift = Math.min(step, 55 - bits);
+      remainder <<= shift;
+      quotient = (quotient << shift) | (remainder / five);
+      remainder %= five;
+      scale -= shift;
+      bits = 64 - Long.numberOfLeadingZeros(quotient);
+    }
+    return ArithParser.round(0, quotient, remainder != 0, scale);
+  }
+
+  // returns the unsigned 128 bit integer high:low, plus a little more if sticky,
+  // times 2^scale, rounded to the nearest double, and to even on a tie
+  static double round(long high, long low, boolean sticky, int scale) {
+    if (high != 0) {
+      int shift = 64 - Long.numberOfLeadingZeros(high);
+      sticky |= (low << (64 - shift)) != 0;
+      low = (high << (64 - shift)) | (low >>> shift);
+      scale += shift;
+    }
+    int bits = 64 - Long.numberOfLeadingZeros(low);
+    if (bits <= 53) {
+      return Math.scalb((double) low, scale);
+    }
+    int shift = bits - 53;
+    long top = low >>> shift;
+    boolean half = ((low >>> (shift - 1)) & 1) != 0;
+    boolean rest = sticky || (low & ((1L << (shift - 1)) - 1)) != 0;
+    if (half && (rest || (top & 1) != 0)) {
+      top += 1;
+    }
+    return Math.scalb((double) top, scale + shift);
+  }
+
+  // are the chars of the token from start up to length exactly s?
+  boolean isToken(int start, int length, String s) {
+    if (length - start != s.length()) {
+      return false;
+    }
+    for (int i = start; i < length; i += 1) {
+      if (this.token[i] != s.charAt(i - start)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // reads chars into token up to the next space or parenthesis, returning how many
+  int readToken() throws IOException {
+    int length = 0;
+    int c = this.peek();
+    while (c != -1 && c != '(' && c != ')' && !Character.isWhitespace(c)) {
+      if (length == this.token.length) {
+        this.token = Arrays.copyOf(this.token, length * 2);
+        this.tokenView = CharBuffer.wrap(this.token);
+      }
+      this.token[length] = (char) c;
+      length += 1;
+      this.read();
+      c = this.peek();
+    }
+    return length;
+  }
+
+  // skips whitespace, returning the next char without reading it, or -1 at the end
+  int skipSpace() throws IOException {
+    int c = this.peek();
+    while (c != -1 && Character.isWhitespace(c)) {
+      this.read();
+      c = this.peek();
+    }
+    return c;
+  }
+
+  // returns the next char without reading it, or -1 at the end of the text
+  int peek() throws IOException {
+    if (!this.buffer.hasRemaining() && !this.fill()) {
+      return -1;
+    }
+    return this.buffer.get(this.buffer.position());
+  }
+
+  // reads the next char, which peek has already seen
+  void read() {
+    this.buffer.get();
+  }
+
+  // refills the buffer, returning false at the end of the text
+  boolean fill() throws IOException {
+    if (this.in == null) {
+      return false;
+    }
+    this.offset += this.buffer.position();
+    this.buffer.clear();
+    int read = this.in.read(this.buffer);
+    while (read == 0) {
+      read = this.in.read(this.buffer);
+    }
+    this.buffer.flip();
+    return read > 0;
+  }
+
+  // returns an error at the current position
+  IllegalArgumentException error(String message) {
+    return new IllegalArgumentException(
+        message + " at char " + (this.offset + this.buffer.position()));
+  }
+}
+
+// the text of a UTF-8 file for an ArithParser, mapped into memory a window at a
+// time and decoded into the parser's buffer as it asks for more, so neither the
+// bytes nor the chars of the whole file are ever held at once
+class MappedText implements Readable, Closeable {
+  static final int WINDOW = 1 << 26;
+
+  FileChannel channel;
+  long size;
+  int window;
+  // where in the file the mapped window starts
+  long base = 0;
+  ByteBuffer bytes;
+  CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+  // has every char of the file been decoded
+  boolean done = false;
+
+  // text which maps the given number of bytes of the file at a time, at least
+  // enough for any one char
+  MappedText(Path path, int window) throws IOException {
+    this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    this.size = this.channel.size();
+    this.window = Math.max(window, 4);
+    this.map(0);
+  }
+
+  // maps the window which starts at the given place in the file
+  void map(long at) throws IOException {
+    this.base = at;
+    this.bytes = this.channel.map(FileChannel.MapMode.READ_ONLY, at,
+        Math.min(this.window, this.size - at));
+  }
+
+  // decodes as many chars as fit into the given buffer, moving on to the next
+  // window when this one runs out, and returns how many, or -1 at the end
+  public int read(CharBuffer chars) throws IOException {
+    int start = chars.position();
+    while (chars.position() == start && chars.hasRemaining() && !this.done) {
+      boolean last = this.base + this.bytes.limit() == this.size;
+      CoderResult result = this.decoder.decode(this.bytes, chars, last);
+      if (result.isError()) {
+        result.throwException();
+      } else if (result.isUnderflow() && !last) {
+        // what is left of the window is at most the start of a char
+        this.map(this.base + this.bytes.position());
+      } else if (result.isUnderflow()) {
+        this.done = this.decoder.flush(chars).isUnderflow();
+      }
+    }
+    int read = chars.position() - start;
+    return read == 0 && this.done ? -1 : read;
+  }
+
+  public void close() throws IOException {
+    this.channel.close();
+  }
+}
+
+// a formula being read by an ArithParser, reused for every formula at its depth
+class ArithFrame {
+  // a UnaryArithOp or BinaryArithOp
+  ArithOp formula;
+  IArith left;
+  IArith right;
+  int count;
+
+  // starts reading the given formula
+  void start(ArithOp formula) {
+    this.formula = formula;
+    this.left = null;
+    this.right = null;
+    this.count = 0;
+  }
+
+  // adds an argument to this formula, returning false if it already has them all
+  boolean add(IArith arg) {
+    int arity = this.formula instanceof UnaryArithOp ? 1 : 2;
+    if (this.count == arity) {
+      return false;
+    } else if (this.count == 0) {
+      this.left = arg;
+    } else {
+      this.right = arg;
+    }
+    this.count += 1;
+    return true;
+  }
+
+  // returns the finished formula, or null if it is missing arguments
+  IArith build() {
+    if (this.formula instanceof UnaryArithOp) {
+      return this.count == 1 ? ((UnaryArithOp) this.formula).make(this.left) : null;
+    }
+    return this.count == 2 ? ((BinaryArithOp) this.formula).make(this.left, this.right) : null;
+  }
+
+  // returns the name of this formula
+  String name() {
+    return this.formula.name;
+  }
+}
+
+class ExamplesArithParser {
+  IArith allAdds = new Addition(new Addition(2, 2), new Addition(2, 2));
+  IArith pointless = new Multiplication(
+      new Multiplication(2, new Subtraction(2, 5)),
+      new Addition(new Negation(1), new Division(new Addition(2, 3), 5)));
+  IArith large = new Square(
+      new Multiplication(new Square(10), new Square(63)));
+
+  PrintVisitor print = new PrintVisitor();
+
+  // reads the only formula in the given text
+  IArith parse(String text) {
+    try {
+      return new ArithParser(new StringReader(text)).next();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // returns the message of the error reading the given text, or "" if there is none
+  String parseError(String text) {
+    try {
+      ArithParser parser = new ArithParser(CharBuffer.wrap(text));
+      while (parser.next() != null) {
+        continue;
+      }
+      return "";
+    } catch (IllegalArgumentException | IOException e) {
+      return e.getMessage();
+    }
+  }
+
+  boolean testParse(Tester t) {
+    boolean res = true;
+
+    // simple tests
+
+    // - const
+
+    res &= t.checkExpect(parse("2.0"), new Const(2));
+    res &= t.checkExpect(parse("  -2.5 "), new Const(-2.5));
+
+    // - unary
+    res &= t.checkExpect(parse("(neg 2.0)"), new Negation(2));
+    res &= t.checkExpect(parse("(sqr 2.0)"), new Square(2));
+
+    // - binary
+    res &= t.checkExpect(parse("(plus 1.0 2.0)"), new Addition(1, 2));
+    res &= t.checkExpect(parse("(minus 1.0 2.0)"), new Subtraction(1, 2));
+    res &= t.checkExpect(parse("(mul 1.0 2.0)"), new Multiplication(1, 2));
+    res &= t.checkExpect(parse("(div\n1.0\t2.0)"), new Division(1, 2));
+
+    // complicated tests
+    res &= t.checkExpect(parse(allAdds.accept(print)), allAdds);
+    res &= t.checkExpect(parse(pointless.accept(print)), pointless);
+    res &= t.checkExpect(parse(large.accept(print)), large);
+
+    return res;
+  }
+
+  boolean testParseNumbers(Tester t) {
+    boolean res = true;
+    double[] nums = new double[] { 0.0, -0.0, 1.0, 0.1, 0.30000000000000004, 123456.789,
+        1.0E10, 1.0E-5, 6.02214076E23, 4.9E-324, Double.MAX_VALUE, Double.MIN_NORMAL,
+        Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, -1.2345678901234E-7 };
+
+    // every number reads back exactly as Double.toString wrote it
+    for (double num : nums) {
+      res &= t.checkExpect(parse(Double.toString(num)), new Const(num));
+    }
+    res &= t.checkExpect(parse("1e3"), new Const(1000));
+    res &= t.checkExpect(parse("-.5"), new Const(-0.5));
+
+    // numbers of 16 to 18 digits are rounded exactly without making strings
+    Random random = new Random(5);
+    boolean exact = true;
+    for (int i = 0; i < 100000; i += 1) {
+      long mantissa = (long) (random.nextDouble() * 1e18);
+      int exponent = random.nextInt(45) - 22;
+      exact &= ArithParser.scaleExact(mantissa, exponent)
+          == Double.parseDouble(mantissa + "E" + exponent);
+    }
+    res &= t.checkExpect(exact, true);
+    // - including ties, which round to even
+    res &= t.checkExpect(ArithParser.scaleExact(9007199254740993L, 0), 9007199254740992.0);
+    res &= t.checkExpect(ArithParser.scaleExact(9007199254740995L, 0), 9007199254740996.0);
+    res &= t.checkExpect(ArithParser.scaleExact(90071992547409930L, -1), 9007199254740992.0);
+    ArithParser parser = new ArithParser(CharBuffer.wrap(""));
+    String seventeen = "0.30000000000000004";
+    seventeen.getChars(0, seventeen.length(), parser.token, 0);
+    res &= t.checkExpect(parser.parseFast(seventeen.length()), 0.30000000000000004);
+    "-Infinity".getChars(0, 9, parser.token, 0);
+    res &= t.checkExpect(parser.parseFast(9), Double.NEGATIVE_INFINITY);
+
+    return res;
+  }
+
+  boolean testParseStream(Tester t) throws IOException {
+    boolean res = true;
+
+    // many formulas, split across many buffers
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 5000; i += 1) {
+      text.append(pointless.accept(print)).append('\n');
+    }
+    ArithParser parser = new ArithParser(new StringReader(text.toString()));
+    int count = 0;
+    while (parser.hasNext()) {
+      res &= t.checkInexact(parser.next().evalDouble(), 0.0, .001);
+      count += 1;
+    }
+    res &= t.checkExpect(count, 5000);
+    res &= t.checkExpect(parser.next(), null);
+
+    // deeply nested formulas
+    int depth = 200000;
+    IArith deep = new ArithParser(CharBuffer.wrap(
+        "(neg ".repeat(depth) + "1.0" + ")".repeat(depth))).next();
+    res &= t.checkInexact(new IterativeVisitor<Double>(new EvalVisitor()).apply(deep), 1.0, .001);
+
+    return res;
+  }
+
+  boolean testParseFile(Tester t) throws IOException {
+    boolean res = true;
+    Path file = Files.createTempFile("arith", ".txt");
+    try {
+      // spaces of three bytes fall across the ends of small windows
+      StringBuilder text = new StringBuilder();
+      for (int i = 0; i < 1000; i += 1) {
+        text.append(pointless.accept(print).replace(" ", "\u2003")).append('\n');
+      }
+      Files.write(file, text.toString().getBytes(StandardCharsets.UTF_8));
+      for (int window : new int[] {MappedText.WINDOW, 4, 5, 7, 4096}) {
+        ArithParser parser = new ArithParser(new MappedText(file, window));
+        int count = 0;
+        while (parser.hasNext()) {
+          res &= t.checkExpect(parser.next(), pointless);
+          count += 1;
+        }
+        res &= t.checkExpect(count, 1000);
+        parser.close();
+      }
+      ArithParser parser = ArithParser.open(file);
+      res &= t.checkExpect(parser.next(), pointless);
+      parser.close();
+
+      // text which is not UTF-8 is an error
+      Files.write(file, new byte[] {'(', 'n', 'e', 'g', ' ', (byte) 0xff, ')'});
+      parser = ArithParser.open(file);
+      String error = "";
+      try {
+        parser.next();
+      } catch (CharacterCodingException e) {
+        error = e.getClass().getSimpleName();
+      }
+      parser.close();
+      res &= t.checkExpect(error, "MalformedInputException");
+
+      // and so is an empty file, which holds no formula
+      Files.write(file, new byte[0]);
+      parser = ArithParser.open(file);
+      res &= t.checkExpect(parser.next(), null);
+      parser.close();
+    } finally {
+      Files.delete(file);
+    }
+    return res;
+  }
+
+  boolean testParseCustom(Tester t) throws IOException {
+    boolean res = true;
+    BinaryFormula max = new BinaryFormula(Math::max, "max", new Const(0), new Const(0));
+    IArith formula = new BinaryFormula(max.operator, new Negation(3), new Const(2));
+
+    ArithParser parser = new ArithParser(CharBuffer.wrap(formula.accept(print)));
+    parser.define(max);
+    res &= t.checkExpect(parser.next(), formula);
+
+    return res;
+  }
+
+  boolean testParseErrors(Tester t) {
+    boolean res = true;
+
+    res &= t.checkExpect(parseError("(pow 1.0 2.0)"), "unknown formula pow at char 4");
+    res &= t.checkExpect(parseError("(neg 1.0"),
+        "unexpected end of text inside a formula at char 8");
+    res &= t.checkExpect(parseError("(neg 1.0 2.0)"), "too many arguments to neg at char 12");
+    res &= t.checkExpect(parseError("(plus 1.0)"), "too few arguments to plus at char 10");
+    res &= t.checkExpect(parseError("1.0)"), "unexpected ) at char 4");
+    res &= t.checkExpect(parseError("( neg 1.0)"), "expected the name of a formula at char 1");
+    res &= t.checkExpect(parseError("(neg one)"), "expected a number but got one at char 8");
+
+    return res;
+  }
+}
@@ -0,0 +1,221 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.util.*;
+import tester.Tester;
+
+// writes trees of arithmetic exactly as PrintVisitor does, but into one growing
+// StringBuilder instead of concatenating the text of every subtree, so printing
+// takes time linear in the size of the tree. Doubles are appended without making
+// strings, and nesting is kept on an explicit stack, so any depth is fine. Text
+// for an Appendable or a channel is collected a chunk at a time and then flushed.
+class ArithPrinter {
+  static final int CHUNK_SIZE = 8192;
+  // markers on the todo stack for the text between and after children
+  static final String SPACE = " ";
+  static final String CLOSE = ")";
+
+  // where the text goes once a chunk is full, or null if it stays in text
+  Appendable out;
+  WritableByteChannel channel;
+  CharsetEncoder encoder;
+  ByteBuffer bytes;
+  StringBuilder text;
+  ArrayDeque<Object> todo = new ArrayDeque<Object>();
+
+  // prints into the given builder, all at once
+  ArithPrinter(StringBuilder text) {
+    this.text = text;
+  }
+
+  // prints into the given Appendable, a chunk at a time
+  ArithPrinter(Appendable out) {
+    this.out = out;
+    this.text = new StringBuilder(CHUNK_SIZE);
+  }
+
+  // prints UTF-8 text into the given channel, a chunk at a time
+  ArithPrinter(WritableByteChannel channel) {
+    this.channel = channel;
+    this.encoder = StandardCharsets.UTF_8.newEncoder();
+    this.bytes = ByteBuffer.allocate(CHUNK_SIZE * 4);
+    this.text = new StringBuilder(CHUNK_SIZE);
+  }
+
+  // returns the text of the tree of arithmetic, the same as PrintVisitor's
+  static String print(IArith arith) {
+    StringBuilder text = new StringBuilder();
+    new ArithPrinter(text).append(arith);
+    return text.toString();
+  }
+
+  // writes the text of the tree of arithmetic, flushing full chunks as it goes
+  void write(IArith arith) throws IOException {
+    this.todo.push(arith);
+    this.writeAll();
+  }
+
+  // writes the text of the tree of arithmetic followed by a newline
+  void writeLine(IArith arith) throws IOException {
+    this.write(arith);
+    this.text.append('\n');
+  }
+
+  // appends the text of the tree of arithmetic to the builder of this printer,
+  // which must not flush anywhere
+  void append(IArith arith) {
+    this.todo.push(arith);
+    try {
+      this.writeAll();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // writes everything on the todo stack
+  void writeAll() throws IOException {
+    while (!this.todo.isEmpty()) {
+      Object item = this.todo.pop();
+      if (item instanceof String) {
+        this.text.append((String) item);
+      } else if (item instanceof UnaryFormula) {
+        UnaryFormula unary = (UnaryFormula) item;
+        this.text.append('(').append(unary.operator.name).append(' ');
+        this.todo.push(CLOSE);
+        this.todo.push(unary.child);
+      } else if (item instanceof BinaryFormula) {
+        BinaryFormula binary = (BinaryFormula) item;
+        this.text.append('(').append(binary.operator.name).append(' ');
+        this.todo.push(CLOSE);
+        this.todo.push(binary.right);
+        this.todo.push(SPACE);
+        this.todo.push(binary.left);
+      } else {
+        this.text.append(((Const) item).num);
+      }
+      if (this.text.length() >= CHUNK_SIZE) {
+        this.flushText();
+      }
+    }
+  }
+
+  // sends everything written so far on to the Appendable or channel
+  void flush() throws IOException {
+    this.flushText();
+    if (this.out instanceof Flushable) {
+      ((Flushable) this.out).flush();
+    }
+  }
+
+  // sends the text collected so far on to the Appendable or channel, if there is one
+  void flushText() throws IOException {
+    if (this.out != null) {
+      this.out.append(this.text);
+      this.text.setLength(0);
+    } else if (this.channel != null) {
+      CharBuffer chars = CharBuffer.wrap(this.text);
+      CoderResult result = this.encoder.encode(chars, this.bytes, true);
+      while (result.isOverflow()) {
+        this.drain();
+        result = this.encoder.encode(chars, this.bytes, true);
+      }
+      if (result.isError()) {
+        result.throwException();
+      }
+      this.drain();
+      this.encoder.reset();
+      this.text.setLength(0);
+    }
+  }
+
+  // writes the encoded bytes into the channel
+  void drain() throws IOException {
+    this.bytes.flip();
+    while (this.bytes.hasRemaining()) {
+      this.channel.write(this.bytes);
+    }
+    this.bytes.clear();
+  }
+}
+
+class ExamplesArithPrinter {
+  IArith allAdds = new Addition(new Addition(2, 2), new Addition(2, 2));
+  IArith pointless = new Multiplication(
+      new Multiplication(2, new Subtraction(2, 5)),
+      new Addition(new Negation(1), new Division(new Addition(2, 3), 5)));
+  IArith large = new Square(
+      new Multiplication(new Square(10), new Square(63)));
+
+  PrintVisitor print = new PrintVisitor();
+
+  boolean testPrint(Tester t) {
+    boolean res = true;
+
+    // simple tests
+    res &= t.checkExpect(ArithPrinter.print(new Const(2)), "2.0");
+    res &= t.checkExpect(ArithPrinter.print(new Const(-0.0)), "-0.0");
+    res &= t.checkExpect(ArithPrinter.print(new Param(1, 1.0E10)), "1.0E10");
+    res &= t.checkExpect(ArithPrinter.print(new Negation(2)), "(neg 2.0)");
+    res &= t.checkExpect(ArithPrinter.print(new Division(1, 2)), "(div 1.0 2.0)");
+
+    // complicated tests match PrintVisitor
+    res &= t.checkExpect(ArithPrinter.print(allAdds), allAdds.accept(print));
+    res &= t.checkExpect(ArithPrinter.print(pointless), pointless.accept(print));
+    res &= t.checkExpect(ArithPrinter.print(large), large.accept(print));
+    IArith custom = new BinaryFormula(Math::max, "max", new Const(Double.NaN),
+        new UnaryFormula((a) -> a, "id", new Const(Double.NEGATIVE_INFINITY)));
+    res &= t.checkExpect(ArithPrinter.print(custom), custom.accept(print));
+
+    // deep trees do not overflow the stack
+    int depth = 200000;
+    IArith deep = new Const(0);
+    for (int i = 0; i < depth; i += 1) {
+      deep = new Addition(deep, new Const(2));
+    }
+    res &= t.checkExpect(ArithPrinter.print(deep),
+        "(plus ".repeat(depth) + "0.0" + " 2.0)".repeat(depth));
+
+    return res;
+  }
+
+  boolean testPrintStreams(Tester t) throws IOException {
+    boolean res = true;
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 2000; i += 1) {
+      expected.append(pointless.accept(print)).append('\n');
+    }
+
+    // - Appendable
+    StringWriter writer = new StringWriter();
+    ArithPrinter printer = new ArithPrinter(writer);
+    for (int i = 0; i < 2000; i += 1) {
+      printer.writeLine(pointless);
+    }
+    res &= t.checkExpect(writer.toString().length() < expected.length(), true);
+    printer.flush();
+    res &= t.checkExpect(writer.toString(), expected.toString());
+
+    // - channel
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    printer = new ArithPrinter(Channels.newChannel(stream));
+    for (int i = 0; i < 2000; i += 1) {
+      printer.writeLine(pointless);
+    }
+    printer.flush();
+    res &= t.checkExpect(stream.toString(StandardCharsets.UTF_8), expected.toString());
+
+    // - names are written as UTF-8
+    stream.reset();
+    printer = new ArithPrinter(Channels.newChannel(stream));
+    printer.write(new UnaryFormula((a) -> a, "√", new Const(4)));
+    printer.flush();
+    res &= t.checkExpect(stream.toString(StandardCharsets.UTF_8), "(√ 4.0)");
+
+    // and the text reads back as the same tree
+    ArithParser parser = new ArithParser(new StringReader(writer.toString()));
+    res &= t.checkExpect(parser.next(), pointless);
+
+    return res;
+  }
+}
@@ -0,0 +1,198 @@
+import java.util.*;
+import java.util.function.*;
+import tester.Tester;
+
+// evaluates a tree of arithmetic for many rows of inputs at once: every Param
+// reads its column of the inputs, and every formula runs once over whole columns,
+// in one tight loop per formula rather than once per row
+class BatchEvalVisitor implements IArithVisitor<double[]> {
+  // the inputs, one array of rows per column; they are never written to
+  double[][] columns;
+  int rows;
+
+  BatchEvalVisitor(double[][] columns, int rows) {
+    for (double[] column : columns) {
+      if (column.length != rows) {
+        throw new IllegalArgumentException(
+            "expected columns of " + rows + " rows but got " + column.length);
+      }
+    }
+    this.columns = columns;
+    this.rows = rows;
+  }
+
+  // makes a visitor over the given columns, which all have the same number of rows
+  BatchEvalVisitor(double[][] columns) {
+    this(columns, columns.length == 0 ? 0 : columns[0].length);
+  }
+
+  // makes a visitor over the given rows, each of which holds one value per column
+  static BatchEvalVisitor ofRows(double[][] rows, int columnCount) {
+    double[][] columns = new double[columnCount][rows.length];
+    for (int row = 0; row < rows.length; row += 1) {
+      for (int column = 0; column < columnCount; column += 1) {
+        columns[column][row] = rows[row][column];
+      }
+    }
+    return new BatchEvalVisitor(columns, rows.length);
+  }
+
+  // asks arith to pass itself to the apply function of this
+  // visitor which accepts its IArith implementation
+  // Then, evaluates the tree of arithmetic for every row
+  public double[] apply(IArith arith) {
+    return arith.accept(this);
+  }
+
+  // returns a copy of the column of a param, or the num of a const in every row
+  public double[] apply(Const arith) {
+    if (arith instanceof Param) {
+      return this.columns[((Param) arith).column].clone();
+    }
+    double[] res = new double[this.rows];
+    Arrays.fill(res, arith.num);
+    return res;
+  }
+
+  // returns the formula applied to every row of the evaluated child
+  public double[] apply(UnaryFormula arith) {
+    double[] in = this.operand(arith.child);
+    double[] out = arith.child instanceof Param ? new double[this.rows] : in;
+    DoubleUnaryOperator op = arith.operator.op;
+    if (arith.operator.id == ArithOp.NEG_ID) {
+      for (int i = 0; i < this.rows; i += 1) {
+        out[i] = -in[i];
+      }
+    } else if (arith.operator.id == ArithOp.SQR_ID) {
+      for (int i = 0; i < this.rows; i += 1) {
+        out[i] = in[i] * in[i];
+      }
+    } else if (op != null) {
+      for (int i = 0; i < this.rows; i += 1) {
+        out[i] = op.applyAsDouble(in[i]);
+      }
+    } else {
+      for (int i = 0; i < this.rows; i += 1) {
+        out[i] = arith.operator.func.apply(in[i]);
+      }
+    }
+    return out;
+  }
+
+  // returns the formula applied to every row of the evaluated left and right
+  public double[] apply(BinaryFormula arith) {
+    double[] left = this.operand(arith.left);
+    double[] right = this.operand(arith.right);
+    double[] out;
+    if (!(arith.left instanceof Param)) {
+      out = left;
+    } else if (!(arith.right instanceof Param)) {
+      out = right;
+    } else {
+      out = new double[this.rows];
+    }
+    DoubleBinaryOperator op = arith.operator.op;
+    int id = arith.operator.id;
+    if (id == ArithOp.PLUS_ID) {
+      for (int i = 0; i < this.rows; i += 1) {
+        out[i] = left[i] + right[i];
+      }
+    } else if (id == ArithOp.MINUS_ID) {
+      for (int i = 0; i < this.rows; i += 1) {
+        out[i] = left[i] - right[i];
+      }
+    } else if (id == ArithOp.MUL_ID) {
+      for (int i = 0; i < this.rows; i += 1) {
+        out[i] = left[i] * right[i];
+      }
+    } else if (id == ArithOp.DIV_ID) {
+      for (int i = 0; i < this.rows; i += 1) {
+        out[i] = left[i] / right[i];
+      }
+    } else if (op != null) {
+      for (int i = 0; i < this.rows; i += 1) {
+        out[i] = op.applyAsDouble(left[i], right[i]);
+      }
+    } else {
+      for (int i = 0; i < this.rows; i += 1) {
+        out[i] = arith.operator.func.apply(left[i], right[i]);
+      }
+    }
+    return out;
+  }
+
+  // returns the values of the child of a formula in every row: the column itself
+  // for a param, which must not be overwritten, and otherwise a new array which
+  // the formula may overwrite with its own values
+  double[] operand(IArith child) {
+    if (child instanceof Param) {
+      return this.columns[((Param) child).column];
+    }
+    return child.accept(this);
+  }
+}
+
+class ExamplesBatchEvalVisitor {
+  Param x = new Param(0);
+  Param y = new Param(1);
+  // (x * x) - (y / 2)
+  IArith formula = new Subtraction(new Multiplication(x, x), new Division(y, 2));
+
+  boolean testBatchEvalColumns(Tester t) {
+    boolean res = true;
+    double[] xs = new double[] { 1, 2, 3 };
+    double[] ys = new double[] { 4, 6, 8 };
+    BatchEvalVisitor batch = new BatchEvalVisitor(new double[][] { xs, ys });
+
+    // - const and param
+    res &= t.checkExpect(new Const(2).accept(batch), new double[] { 2, 2, 2 });
+    res &= t.checkExpect(batch.apply(x), new double[] { 1, 2, 3 });
+    // - results never share an array with the inputs
+    IArith param = y;
+    res &= t.checkExpect(batch.apply(param) == ys, false);
+    res &= t.checkExpect(y.accept(batch) == ys, false);
+    res &= t.checkExpect(y.accept(batch), ys);
+    // - a formula over the same param twice reads its column twice
+    res &= t.checkExpect(batch.apply(new Addition(x, new Negation(x))), new double[] { 0, 0, 0 });
+
+    // - unary
+    res &= t.checkExpect(batch.apply(new Negation(x)), new double[] { -1, -2, -3 });
+    res &= t.checkExpect(batch.apply(new Square(y)), new double[] { 16, 36, 64 });
+
+    // - binary
+    res &= t.checkExpect(batch.apply(new Addition(x, y)), new double[] { 5, 8, 11 });
+    res &= t.checkExpect(batch.apply(new Subtraction(x, 1)), new double[] { 0, 1, 2 });
+    res &= t.checkExpect(batch.apply(new Multiplication(x, x)), new double[] { 1, 4, 9 });
+    res &= t.checkExpect(batch.apply(new Division(y, x)), new double[] { 4, 3, 8d / 3 });
+
+    // - custom formulas
+    res &= t.checkExpect(batch.apply(new BinaryFormula(Math::max, "max", x, new Const(2))),
+        new double[] { 2, 2, 3 });
+    res &= t.checkExpect(batch.apply(new UnaryFormula((a) -> a + 1, (a) -> a + 1, "inc", y)),
+        new double[] { 5, 7, 9 });
+
+    // complicated tests
+    res &= t.checkExpect(batch.apply(formula), new double[] { -1, 1, 5 });
+
+    // the inputs are unchanged
+    res &= t.checkExpect(xs, new double[] { 1, 2, 3 });
+    res &= t.checkExpect(ys, new double[] { 4, 6, 8 });
+
+    return res;
+  }
+
+  boolean testBatchEvalRows(Tester t) {
+    boolean res = true;
+    BatchEvalVisitor batch = BatchEvalVisitor.ofRows(
+        new double[][] { { 1, 4 }, { 2, 6 }, { 3, 8 }, { 4, 10 } }, 2);
+
+    res &= t.checkExpect(batch.rows, 4);
+    res &= t.checkExpect(batch.apply(formula), new double[] { -1, 1, 5, 11 });
+
+    // the defaults of the params are what every other visitor sees
+    res &= t.checkInexact(new Subtraction(new Multiplication(new Param(0, 3), new Param(0, 3)),
+        new Division(new Param(1, 8), 2)).accept(new EvalVisitor()), 5.0, .001);
+
+    return res;
+  }
+}
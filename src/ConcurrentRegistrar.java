@@ -0,0 +1,597 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import tester.Tester;
+
+// enrolls students in courses from many threads at once. Every student and course
+// is guarded by one of a fixed number of locks, its stripe, picked by its identity
+// hash. An enrollment holds the stripes of both its student and its course while
+// it changes both, so the two always agree, and takes them in stripe order so no
+// two enrollments can wait on each other. Enrollments of different students and
+// courses mostly take different stripes and so rarely wait at all. While threads
+// enroll, every enrollment of their students and courses must go through the same
+// registrar; readers need no lock, and see each list as it was last written.
+// Readers who need every list as of one moment take a snapshot, which holds every
+// student, course and instructor the registrar has seen.
+class ConcurrentRegistrar {
+  static final int DEFAULT_STRIPES = 64;
+  // how many times a snapshot copies without locking before it waits for writers
+  static final int OPTIMISTIC_TRIES = 3;
+
+  RegistrarStripe[] stripes;
+  // stripes.length - 1, which is a power of two less one
+  int mask;
+  // how many enrollments and courses have been made through this registrar
+  AtomicLong version = new AtomicLong();
+
+  ConcurrentRegistrar() {
+    this(DEFAULT_STRIPES);
+  }
+
+  // a registrar with at least the given number of stripes, rounded up to a power of two
+  ConcurrentRegistrar(int stripes) {
+    if (stripes < 1) {
+      throw new IllegalArgumentException("a registrar needs at least one stripe");
+    }
+    int count = 1;
+    while (count < stripes) {
+      count *= 2;
+    }
+    this.stripes = new RegistrarStripe[count];
+    for (int i = 0; i < count; i += 1) {
+      this.stripes[i] = new RegistrarStripe();
+    }
+    this.mask = count - 1;
+  }
+
+  // returns the index of the stripe which guards the student or course, spreading
+  // the bits of its identity hash so that nearby hashes land on different stripes
+  int stripe(Object o) {
+    int hash = System.identityHashCode(o) * 0x9E3779B9;
+    return (hash ^ (hash >>> 16)) & this.mask;
+  }
+
+  // enrolls the student in the course, as Student.enroll does, holding the stripes
+  // of both, and keeps both in snapshots from now on
+  void enroll(Student s, Course c) {
+    int a = this.stripe(s);
+    int b = this.stripe(c);
+    StampedLock first = this.stripes[Math.min(a, b)].lock;
+    StampedLock second = this.stripes[Math.max(a, b)].lock;
+    long firstStamp = first.writeLock();
+    try {
+      long secondStamp = a != b ? second.writeLock() : 0;
+      try {
+        this.stripes[a].keep(s);
+        this.stripes[b].keep(c);
+        s.enroll(c);
+        this.version.incrementAndGet();
+      } finally {
+        if (a != b) {
+          second.unlockWrite(secondStamp);
+        }
+      }
+    } finally {
+      first.unlockWrite(firstStamp);
+    }
+  }
+
+  // makes a course taught by the instructor, holding the stripe of the instructor,
+  // and keeps both in snapshots from now on. The course is kept under the stripe
+  // of its instructor, as its own stripe is not known until it has been made.
+  Course newCourse(String name, Instructor prof) {
+    RegistrarStripe stripe = this.stripes[this.stripe(prof)];
+    long stamp = stripe.lock.writeLock();
+    try {
+      Course c = new Course(name, prof);
+      stripe.keep(prof);
+      stripe.keep(c);
+      this.version.incrementAndGet();
+      return c;
+    } finally {
+      stripe.lock.unlockWrite(stamp);
+    }
+  }
+
+  // keeps the student in snapshots from now on, though it has not enrolled
+  void add(Student s) {
+    this.keep(s);
+  }
+
+  // keeps the course in snapshots from now on, though nobody has enrolled in it
+  void add(Course c) {
+    this.keep(c);
+  }
+
+  // keeps the instructor in snapshots from now on
+  void add(Instructor i) {
+    this.keep(i);
+  }
+
+  // keeps the student, course or instructor in snapshots, holding its stripe
+  void keep(Object member) {
+    RegistrarStripe stripe = this.stripes[this.stripe(member)];
+    long stamp = stripe.lock.writeLock();
+    try {
+      stripe.keep(member);
+    } finally {
+      stripe.lock.unlockWrite(stamp);
+    }
+  }
+
+  // returns the lists of every student, course and instructor this registrar has
+  // seen as they all were at one moment. The heads of the lists are first copied
+  // without taking any lock, and kept if no stripe was written meanwhile; only if
+  // writers keep getting in the way does the copy hold every stripe, and even then
+  // writers wait only for the copy into arrays, not for the maps built from them.
+  // The lists themselves are never changed, only replaced, so the snapshot shares
+  // them rather than copying them.
+  RegistrarSnapshot snapshot() {
+    long[] stamps = new long[this.stripes.length];
+    for (int attempt = 0; attempt < OPTIMISTIC_TRIES; attempt += 1) {
+      for (int i = 0; i < this.stripes.length; i += 1) {
+        stamps[i] = this.stripes[i].lock.tryOptimisticRead();
+      }
+      RegistrarCopy copy = this.copy();
+      boolean valid = true;
+      for (int i = 0; i < this.stripes.length; i += 1) {
+        valid &= stamps[i] != 0 && this.stripes[i].lock.validate(stamps[i]);
+      }
+      if (valid) {
+        return copy.snapshot();
+      }
+    }
+    for (int i = 0; i < this.stripes.length; i += 1) {
+      stamps[i] = this.stripes[i].lock.readLock();
+    }
+    RegistrarCopy copy;
+    try {
+      copy = this.copy();
+    } finally {
+      for (int i = this.stripes.length - 1; i >= 0; i -= 1) {
+        this.stripes[i].lock.unlockRead(stamps[i]);
+      }
+    }
+    return copy.snapshot();
+  }
+
+  // copies the heads of the lists of every member of every stripe into arrays.
+  // Without the locks, what it reads may be torn by writers, but it neither throws
+  // nor loops on what it reads, and the snapshot throws a torn copy away.
+  RegistrarCopy copy() {
+    int total = 0;
+    for (RegistrarStripe stripe : this.stripes) {
+      total += stripe.count;
+    }
+    RegistrarCopy copy = new RegistrarCopy(total);
+    copy.version = this.version.get();
+    for (RegistrarStripe stripe : this.stripes) {
+      int count = stripe.count;
+      Object[] members = stripe.members;
+      for (int i = 0; i < Math.min(count, members.length) && copy.size < total; i += 1) {
+        copy.add(members[i]);
+      }
+    }
+    return copy;
+  }
+}
+
+// one stripe of a ConcurrentRegistrar: its lock, and the students, courses and
+// instructors under it which the registrar has seen, for snapshots to find
+class RegistrarStripe {
+  StampedLock lock = new StampedLock();
+  // the members seen, only looked at with the write lock held
+  IdentityHashMap<Object, Boolean> seen = new IdentityHashMap<Object, Boolean>();
+  // the members in the order they were seen, which snapshots read without the lock;
+  // a member is stored before count takes it in, and a grown array holds every
+  // member before it replaces the old one
+  volatile Object[] members = new Object[16];
+  volatile int count = 0;
+
+  // keeps the member, unless it is kept already; the write lock must be held
+  void keep(Object member) {
+    if (this.seen.put(member, Boolean.TRUE) == null) {
+      Object[] members = this.members;
+      if (this.count == members.length) {
+        members = Arrays.copyOf(members, members.length * 2);
+        this.members = members;
+      }
+      members[this.count] = member;
+      this.count += 1;
+    }
+  }
+}
+
+// the heads of the lists of the members of a ConcurrentRegistrar, copied into
+// arrays sized before the copy, from which a snapshot is built afterwards
+class RegistrarCopy {
+  long version;
+  Object[] members;
+  // the courses of a student, the students of a course or the courses of an instructor
+  Object[] lists;
+  // the course ids of a student
+  int[][] ids;
+  int size = 0;
+
+  RegistrarCopy(int capacity) {
+    this.members = new Object[capacity];
+    this.lists = new Object[capacity];
+    this.ids = new int[capacity][];
+  }
+
+  // copies the head of the list of the member
+  void add(Object member) {
+    if (member instanceof Student) {
+      this.lists[this.size] = ((Student) member).courses;
+      this.ids[this.size] = ((Student) member).courseIds;
+    } else if (member instanceof Course) {
+      this.lists[this.size] = ((Course) member).students;
+    } else if (member instanceof Instructor) {
+      this.lists[this.size] = ((Instructor) member).courses;
+    } else {
+      return;
+    }
+    this.members[this.size] = member;
+    this.size += 1;
+  }
+
+  // returns the snapshot of what was copied
+  @SuppressWarnings("unchecked")
+  RegistrarSnapshot snapshot() {
+    int students = 0;
+    int courses = 0;
+    for (int i = 0; i < this.size; i += 1) {
+      students += this.members[i] instanceof Student ? 1 : 0;
+      courses += this.members[i] instanceof Course ? 1 : 0;
+    }
+    RegistrarSnapshot snapshot = new RegistrarSnapshot(students, courses,
+        this.size - students - courses);
+    snapshot.version = this.version;
+    for (int i = 0; i < this.size; i += 1) {
+      Object member = this.members[i];
+      if (member instanceof Student) {
+        snapshot.courses.put((Student) member, (IList<Course>) this.lists[i]);
+        snapshot.courseIds.put((Student) member, this.ids[i]);
+      } else if (member instanceof Course) {
+        snapshot.rosters.put((Course) member, (IList<Student>) this.lists[i]);
+      } else {
+        snapshot.taught.put((Instructor) member, (IList<Course>) this.lists[i]);
+      }
+    }
+    return snapshot;
+  }
+}
+
+// the lists of the students, courses and instructors of a ConcurrentRegistrar as
+// of one of its versions, which answer the same queries as the objects themselves
+// did then, however the objects have changed since
+class RegistrarSnapshot {
+  // how many enrollments and courses the registrar had made
+  long version;
+  IdentityHashMap<Student, IList<Course>> courses;
+  IdentityHashMap<Student, int[]> courseIds;
+  IdentityHashMap<Course, IList<Student>> rosters;
+  IdentityHashMap<Instructor, IList<Course>> taught;
+
+  RegistrarSnapshot(int students, int courses, int instructors) {
+    this.courses = new IdentityHashMap<Student, IList<Course>>(students);
+    this.courseIds = new IdentityHashMap<Student, int[]>(students);
+    this.rosters = new IdentityHashMap<Course, IList<Student>>(courses);
+    this.taught = new IdentityHashMap<Instructor, IList<Course>>(instructors);
+  }
+
+  // returns the courses of the student
+  IList<Course> coursesOf(Student s) {
+    return RegistrarSnapshot.get(this.courses, s, s.name);
+  }
+
+  // returns the students of the course
+  IList<Student> studentsOf(Course c) {
+    return RegistrarSnapshot.get(this.rosters, c, c.name);
+  }
+
+  // returns the courses the instructor teaches
+  IList<Course> taughtBy(Instructor i) {
+    return RegistrarSnapshot.get(this.taught, i, i.name);
+  }
+
+  // are the two students in any of the same classes, as Student.classmates
+  boolean classmates(Student s1, Student s2) {
+    int[] mine = RegistrarSnapshot.get(this.courseIds, s1, s1.name);
+    int[] theirs = RegistrarSnapshot.get(this.courseIds, s2, s2.name);
+    int i = 0;
+    int j = 0;
+    while (i < mine.length && j < theirs.length) {
+      if (mine[i] == theirs[j]) {
+        return true;
+      } else if (mine[i] < theirs[j]) {
+        i += 1;
+      } else {
+        j += 1;
+      }
+    }
+    return false;
+  }
+
+  // is the student in two courses with the same instructor, as Student.dejavu
+  boolean dejavu(Student s) {
+    return this.coursesOf(s).anyDuplicateBy((course) -> course.prof);
+  }
+
+  // returns what the map has for the key, throwing if the snapshot left it out
+  static <K, V> V get(IdentityHashMap<K, V> map, K key, String name) {
+    V value = map.get(key);
+    if (value == null) {
+      throw new IllegalArgumentException(name + " is not in this snapshot");
+    }
+    return value;
+  }
+}
+
+class ExamplesConcurrentRegistrar {
+  // returns the number of items in the list
+  <T> int length(IList<T> list) {
+    return list.fold((n, item) -> n + 1, 0);
+  }
+
+  // returns how many times the item is in the list
+  <T> int count(IList<T> list, T item) {
+    return list.fold((n, other) -> other == item ? n + 1 : n, 0);
+  }
+
+  boolean testStripes(Tester t) {
+    boolean res = true;
+
+    res &= t.checkExpect(new ConcurrentRegistrar().stripes.length, 64);
+    res &= t.checkExpect(new ConcurrentRegistrar(5).stripes.length, 8);
+    res &= t.checkExpect(new ConcurrentRegistrar(1).stripes.length, 1);
+    String error = "";
+    try {
+      new ConcurrentRegistrar(0);
+    } catch (IllegalArgumentException e) {
+      error = e.getMessage();
+    }
+    res &= t.checkExpect(error, "a registrar needs at least one stripe");
+
+    // enrolling on one thread is the same as Student.enroll, even when the student
+    // and course share a stripe
+    ConcurrentRegistrar registrar = new ConcurrentRegistrar(1);
+    Instructor prof = new Instructor("Prof");
+    Course c = new Course("Course", prof);
+    Student s = new Student("Student", 1);
+    registrar.enroll(s, c);
+    res &= t.checkExpect(s.courses, new ConsList<Course>(c, new MtList<Course>()));
+    res &= t.checkExpect(c.students, new ConsList<Student>(s, new MtList<Student>()));
+    res &= t.checkExpect(s.courseIds, new int[] {c.id});
+
+    return res;
+  }
+
+  // many threads enroll random students in random courses at once, and afterwards
+  // every enrollment is on both sides
+  boolean testStress(Tester t) throws InterruptedException {
+    boolean res = true;
+    int threads = 8;
+    int perThread = 20000;
+    RegistrarGen gen = new RegistrarGen(200, 50, 10, 0, 1.0, 5);
+    ConcurrentRegistrar registrar = new ConcurrentRegistrar(16);
+    // how many times each student enrolled in each course
+    int[][] enrolled = new int[threads][gen.students.length * gen.courses.length];
+    CountDownLatch start = new CountDownLatch(1);
+    Thread[] workers = new Thread[threads];
+    for (int i = 0; i < threads; i += 1) {
+      int[] mine = enrolled[i];
+      Random random = new Random(i);
+      workers[i] = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+        for (int j = 0; j < perThread; j += 1) {
+          int s = random.nextInt(gen.students.length);
+          int c = random.nextInt(gen.courses.length);
+          registrar.enroll(gen.students[s], gen.courses[c]);
+          mine[s * gen.courses.length + c] += 1;
+        }
+      });
+      workers[i].start();
+    }
+    start.countDown();
+    for (Thread worker : workers) {
+      worker.join();
+    }
+
+    int courses = 0;
+    int rosters = 0;
+    boolean agree = true;
+    for (int s = 0; s < gen.students.length; s += 1) {
+      Student student = gen.students[s];
+      courses += length(student.courses);
+      int taken = 0;
+      for (int c = 0; c < gen.courses.length; c += 1) {
+        int expected = 0;
+        for (int i = 0; i < threads; i += 1) {
+          expected += enrolled[i][s * gen.courses.length + c];
+        }
+        Course course = gen.courses[c];
+        agree &= count(student.courses, course) == expected;
+        agree &= count(course.students, student) == expected;
+        taken += expected > 0 ? 1 : 0;
+      }
+      agree &= student.courseIds.length == taken;
+    }
+    for (Course c : gen.courses) {
+      rosters += length(c.students);
+    }
+    res &= t.checkExpect(courses, threads * perThread);
+    res &= t.checkExpect(rosters, threads * perThread);
+    res &= t.checkExpect(agree, true);
+
+    return res;
+  }
+
+  boolean testSnapshot(Tester t) {
+    boolean res = true;
+    ConcurrentRegistrar registrar = new ConcurrentRegistrar();
+    Instructor razzaq = new Instructor("Razzaq");
+    Instructor smith = new Instructor("Smith");
+    Course fundies = registrar.newCourse("Fundies 2", razzaq);
+    Course calc = registrar.newCourse("Calculus", razzaq);
+    Course eng = registrar.newCourse("English", smith);
+    Student micah = new Student("Micah", 27390);
+    Student aidan = new Student("Aidan", 27600);
+    Student jacob = new Student("Jacob", 27740);
+    registrar.enroll(micah, fundies);
+    registrar.enroll(aidan, eng);
+    registrar.add(jacob);
+
+    RegistrarSnapshot before = registrar.snapshot();
+    registrar.enroll(micah, calc);
+    registrar.enroll(aidan, calc);
+    Course his = registrar.newCourse("History", smith);
+    RegistrarSnapshot after = registrar.snapshot();
+
+    res &= t.checkExpect(before.version, 5L);
+    res &= t.checkExpect(after.version, 8L);
+
+    // the earlier snapshot keeps the lists as they were
+    res &= t.checkExpect(before.coursesOf(micah),
+        new ConsList<Course>(fundies, new MtList<Course>()));
+    res &= t.checkExpect(before.studentsOf(calc), new MtList<Student>());
+    res &= t.checkExpect(before.classmates(micah, aidan), false);
+    res &= t.checkExpect(before.dejavu(micah), false);
+    res &= t.checkExpect(before.taughtBy(smith), new ConsList<Course>(eng, new MtList<Course>()));
+
+    // and the later one shares them
+    res &= t.checkExpect(after.coursesOf(micah), micah.courses);
+    res &= t.checkExpect(((ConsList<Course>) after.coursesOf(micah)).rest
+        == before.coursesOf(micah), true);
+    res &= t.checkExpect(after.classmates(micah, aidan), true);
+    res &= t.checkExpect(after.classmates(jacob, aidan), false);
+    res &= t.checkExpect(after.dejavu(micah), true);
+    res &= t.checkExpect(after.taughtBy(smith), new ConsList<Course>(his,
+        new ConsList<Course>(eng, new MtList<Course>())));
+
+    // everything the registrar has seen is in a snapshot, without being asked for
+    res &= t.checkExpect(before.courses.size(), 3);
+    res &= t.checkExpect(before.rosters.size(), 3);
+    res &= t.checkExpect(before.taught.size(), 2);
+    res &= t.checkExpect(after.studentsOf(his), new MtList<Student>());
+    res &= t.checkExpect(after.rosters.size(), 4);
+
+    // and nothing else
+    Course art = new Course("Art", smith);
+    String error = "";
+    try {
+      after.studentsOf(art);
+    } catch (IllegalArgumentException e) {
+      error = e.getMessage();
+    }
+    res &= t.checkExpect(error, "Art is not in this snapshot");
+    error = "";
+    try {
+      before.studentsOf(his);
+    } catch (IllegalArgumentException e) {
+      error = e.getMessage();
+    }
+    res &= t.checkExpect(error, "History is not in this snapshot");
+
+    // many members grow the arrays snapshots read
+    ConcurrentRegistrar small = new ConcurrentRegistrar(1);
+    for (int i = 0; i < 1000; i += 1) {
+      small.add(new Student("Student " + i, i));
+    }
+    small.enroll(micah, fundies);
+    small.enroll(micah, fundies);
+    res &= t.checkExpect(small.snapshot().courses.size(), 1001);
+    res &= t.checkExpect(small.snapshot().rosters.size(), 1);
+
+    return res;
+  }
+
+  // snapshots taken while many threads enroll each see every enrollment of its
+  // version on both sides, and no others
+  boolean testSnapshotWhileEnrolling(Tester t) throws InterruptedException {
+    boolean res = true;
+    int threads = 4;
+    int perThread = 20000;
+    RegistrarGen gen = new RegistrarGen(100, 20, 5, 0, 1.0, 9);
+    ConcurrentRegistrar registrar = new ConcurrentRegistrar(16);
+    for (Student s : gen.students) {
+      registrar.add(s);
+    }
+    for (Course c : gen.courses) {
+      registrar.add(c);
+    }
+    Thread[] workers = new Thread[threads];
+    for (int i = 0; i < threads; i += 1) {
+      Random random = new Random(i);
+      workers[i] = new Thread(() -> {
+        for (int j = 0; j < perThread; j += 1) {
+          registrar.enroll(gen.students[random.nextInt(gen.students.length)],
+              gen.courses[random.nextInt(gen.courses.length)]);
+        }
+      });
+      workers[i].start();
+    }
+    boolean consistent = true;
+    int snapshots = 0;
+    long last = 0;
+    while (last < threads * perThread) {
+      RegistrarSnapshot snapshot = registrar.snapshot();
+      consistent &= snapshot.version >= last;
+      last = snapshot.version;
+      int enrolled = 0;
+      for (Student s : gen.students) {
+        enrolled += length(snapshot.coursesOf(s));
+      }
+      int rostered = 0;
+      for (Course c : gen.courses) {
+        IList<Student> roster = snapshot.studentsOf(c);
+        rostered += length(roster);
+        consistent &= roster.allMatch((s) -> {
+          return count(snapshot.coursesOf(s), c) == count(roster, s);
+        });
+      }
+      consistent &= enrolled == snapshot.version && rostered == snapshot.version;
+      snapshots += 1;
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+
+    res &= t.checkExpect(consistent, true);
+    res &= t.checkExpect(snapshots > 0, true);
+
+    return res;
+  }
+
+  // courses made on many threads at once all get their own id and are all kept
+  // by their instructor
+  boolean testConcurrentCourses(Tester t) throws InterruptedException {
+    boolean res = true;
+    Instructor prof = new Instructor("Prof");
+    int threads = 8;
+    int perThread = 2000;
+    Thread[] workers = new Thread[threads];
+    for (int i = 0; i < threads; i += 1) {
+      workers[i] = new Thread(() -> {
+        for (int j = 0; j < perThread; j += 1) {
+          new Course("Course", prof);
+        }
+      });
+      workers[i].start();
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+
+    res &= t.checkExpect(length(prof.courses), threads * perThread);
+    res &= t.checkExpect(prof.courses.anyDuplicateBy((c) -> c.id), false);
+
+    return res;
+  }
+}
@@ -0,0 +1,268 @@
+import java.io.*;
+import java.lang.management.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+// times RegistrarImport over synthetic CSV files, reporting rows a second, the
+// peak heap while importing and the heap the store keeps. With --objects it also
+// times reading the same files a line at a time into Students, Courses and
+// Instructors made one at a time. Run with, for example:
+//   java -Xmx4g ImportBench --rows 10000000 --per-student 5 --objects
+class ImportBench {
+  public static void main(String[] args) throws IOException {
+    int rows = 10000000;
+    int perStudent = 5;
+    int courses = 5000;
+    int instructors = 1000;
+    double skew = 1.0;
+    boolean objects = false;
+    Path dir = null;
+    for (int i = 0; i < args.length; i += 1) {
+      if (args[i].equals("--objects")) {
+        objects = true;
+      } else if (i + 1 == args.length) {
+        throw new IllegalArgumentException("missing value of " + args[i]);
+      } else if (args[i].equals("--rows")) {
+        rows = Integer.parseInt(args[i + 1]);
+        i += 1;
+      } else if (args[i].equals("--per-student")) {
+        perStudent = Integer.parseInt(args[i + 1]);
+        i += 1;
+      } else if (args[i].equals("--courses")) {
+        courses = Integer.parseInt(args[i + 1]);
+        i += 1;
+      } else if (args[i].equals("--instructors")) {
+        instructors = Integer.parseInt(args[i + 1]);
+        i += 1;
+      } else if (args[i].equals("--skew")) {
+        skew = Double.parseDouble(args[i + 1]);
+        i += 1;
+      } else if (args[i].equals("--dir")) {
+        dir = Paths.get(args[i + 1]);
+        i += 1;
+      } else {
+        throw new IllegalArgumentException("unknown argument " + args[i]);
+      }
+    }
+    boolean temporary = dir == null;
+    if (temporary) {
+      dir = Files.createTempDirectory("registrar");
+    }
+
+    try {
+      int students = Math.max(1, rows / perStudent);
+      long start = System.nanoTime();
+      writeSynthetic(dir, students, courses, instructors, perStudent, skew, 1);
+      long bytes = 0;
+      for (String name : new String[] {"instructors", "courses", "students", "enrollments"}) {
+        bytes += Files.size(dir.resolve(name + ".csv"));
+      }
+      System.out.printf("wrote %d students, %d courses, %d instructors, %d enrollments, "
+          + "%d bytes in %.1f s%n", students, courses, instructors,
+          (long) students * perStudent, bytes, (System.nanoTime() - start) / 1e9);
+      System.out.printf("%-30s %14s %14s %14s %14s%n", "import", "rows", "rows/s",
+          "peak heap", "kept heap");
+
+      Path files = dir;
+      measure("RegistrarImport", () -> {
+        RegistrarImport in = new RegistrarImport();
+        RegistrarStore store = in.read(files.resolve("instructors.csv"),
+            files.resolve("courses.csv"), files.resolve("students.csv"),
+            files.resolve("enrollments.csv"));
+        return new Object[] {in.rows, store};
+      });
+      if (objects) {
+        measure("objects", () -> readObjects(files));
+      }
+    } finally {
+      if (temporary) {
+        for (String name : new String[] {"instructors", "courses", "students", "enrollments"}) {
+          Files.deleteIfExists(dir.resolve(name + ".csv"));
+        }
+        Files.delete(dir);
+      }
+    }
+  }
+
+  // an import to measure, which returns the number of rows it read and what it built
+  interface Import {
+    Object[] run() throws IOException;
+  }
+
+  // runs the import once, printing its rows a second, the most heap in use while
+  // it ran, and the heap what it built still takes
+  static void measure(String name, Import in) throws IOException {
+    long before = ImportBench.usedHeap();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      pool.resetPeakUsage();
+    }
+    long start = System.nanoTime();
+    Object[] result = in.run();
+    long nanos = System.nanoTime() - start;
+    // the sum of the peaks of every pool, which may have peaked at different times,
+    // so at most the heap ever in use at once
+    long peak = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        peak += pool.getPeakUsage().getUsed();
+      }
+    }
+    long kept = ImportBench.usedHeap() - before;
+    long rows = (Long) result[0];
+    System.out.printf("%-30s %14d %14.0f %14d %14d%n", name, rows, rows / (nanos / 1e9),
+        peak, kept);
+    ArithBench.sink += Objects.hashCode(result[1]);
+  }
+
+  // returns the bytes of the heap in use once garbage has been collected
+  static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    long used = Long.MAX_VALUE;
+    // collect until the heap stops shrinking, since one collection may not get it all
+    for (int i = 0; i < 10; i += 1) {
+      System.gc();
+      long now = runtime.totalMemory() - runtime.freeMemory();
+      if (now >= used) {
+        return now;
+      }
+      used = now;
+    }
+    return used;
+  }
+
+  // reads the files the way a registrar of objects is built, one split line, one
+  // new object and one enroll at a time, returning the number of rows and the students
+  static Object[] readObjects(Path dir) throws IOException {
+    long rows = 0;
+    HashMap<Integer, Instructor> instructors = new HashMap<Integer, Instructor>();
+    HashMap<Integer, Course> courses = new HashMap<Integer, Course>();
+    HashMap<Integer, Student> students = new HashMap<Integer, Student>();
+    try (BufferedReader in = ImportBench.read(dir, "instructors")) {
+      for (String line = in.readLine(); line != null; line = in.readLine()) {
+        String[] fields = line.split(",");
+        instructors.put(Integer.parseInt(fields[0]), new Instructor(fields[1]));
+        rows += 1;
+      }
+    }
+    try (BufferedReader in = ImportBench.read(dir, "courses")) {
+      for (String line = in.readLine(); line != null; line = in.readLine()) {
+        String[] fields = line.split(",");
+        courses.put(Integer.parseInt(fields[0]),
+            new Course(fields[1], instructors.get(Integer.parseInt(fields[2]))));
+        rows += 1;
+      }
+    }
+    try (BufferedReader in = ImportBench.read(dir, "students")) {
+      for (String line = in.readLine(); line != null; line = in.readLine()) {
+        String[] fields = line.split(",");
+        int id = Integer.parseInt(fields[0]);
+        students.put(id, new Student(fields[1], id));
+        rows += 1;
+      }
+    }
+    try (BufferedReader in = ImportBench.read(dir, "enrollments")) {
+      for (String line = in.readLine(); line != null; line = in.readLine()) {
+        String[] fields = line.split(",");
+        students.get(Integer.parseInt(fields[0])).enroll(
+            courses.get(Integer.parseInt(fields[1])));
+        rows += 1;
+      }
+    }
+    return new Object[] {rows, students};
+  }
+
+  // returns a reader of the named CSV file in the directory, past its header
+  static BufferedReader read(Path dir, String name) throws IOException {
+    BufferedReader in = Files.newBufferedReader(dir.resolve(name + ".csv"),
+        StandardCharsets.UTF_8);
+    in.readLine();
+    return in;
+  }
+
+  // writes the registrar as the four CSV files RegistrarImport reads, giving each
+  // instructor its index as its id, and each course and student its own id
+  static void write(Path dir, RegistrarGen gen) throws IOException {
+    IdentityHashMap<Instructor, Integer> profIds = new IdentityHashMap<Instructor, Integer>();
+    try (BufferedWriter out = ImportBench.open(dir, "instructors", "id,name")) {
+      for (int i = 0; i < gen.instructors.length; i += 1) {
+        profIds.put(gen.instructors[i], i);
+        out.write(i + "," + ImportBench.quote(gen.instructors[i].name) + "\n");
+      }
+    }
+    try (BufferedWriter out = ImportBench.open(dir, "courses", "id,name,instructor")) {
+      for (Course c : gen.courses) {
+        out.write(c.id + "," + ImportBench.quote(c.name) + "," + profIds.get(c.prof) + "\n");
+      }
+    }
+    try (BufferedWriter out = ImportBench.open(dir, "students", "id,name")) {
+      for (Student s : gen.students) {
+        out.write(s.id + "," + ImportBench.quote(s.name) + "\n");
+      }
+    }
+    try (BufferedWriter out = ImportBench.open(dir, "enrollments", "student,course")) {
+      for (Student s : gen.students) {
+        for (int id : s.courseIds) {
+          out.write(s.id + "," + id + "\n");
+        }
+      }
+    }
+  }
+
+  // writes four CSV files of a registrar picked as RegistrarGen picks one, but
+  // straight into the files, so registrars too big to hold as objects can be written
+  static void writeSynthetic(Path dir, int students, int courses, int instructors,
+      int perStudent, double skew, long seed) throws IOException {
+    if (perStudent > courses) {
+      throw new IllegalArgumentException(
+          "cannot enroll in " + perStudent + " of only " + courses + " courses");
+    }
+    Random random = new Random(seed);
+    try (BufferedWriter out = ImportBench.open(dir, "instructors", "id,name")) {
+      for (int i = 0; i < instructors; i += 1) {
+        out.write(i + ",Instructor " + i + "\n");
+      }
+    }
+    double[] profWeights = RegistrarGen.zipf(instructors, skew);
+    try (BufferedWriter out = ImportBench.open(dir, "courses", "id,name,instructor")) {
+      for (int i = 0; i < courses; i += 1) {
+        out.write(i + ",Course " + i + "," + RegistrarGen.pick(profWeights, random) + "\n");
+      }
+    }
+    try (BufferedWriter out = ImportBench.open(dir, "students", "id,name")) {
+      for (int i = 0; i < students; i += 1) {
+        out.write(i + ",Student " + i + "\n");
+      }
+    }
+    double[] courseWeights = RegistrarGen.zipf(courses, skew);
+    int[] taken = new int[perStudent];
+    try (BufferedWriter out = ImportBench.open(dir, "enrollments", "student,course")) {
+      for (int i = 0; i < students; i += 1) {
+        for (int j = 0; j < perStudent; j += 1) {
+          int course = RegistrarGen.pick(courseWeights, random);
+          while (RegistrarGen.contains(taken, j, course)) {
+            course = random.nextInt(courses);
+          }
+          taken[j] = course;
+          out.write(i + "," + course + "\n");
+        }
+      }
+    }
+  }
+
+  // returns a writer of the named CSV file in the directory, which has the header written
+  static BufferedWriter open(Path dir, String name, String header) throws IOException {
+    BufferedWriter out = Files.newBufferedWriter(dir.resolve(name + ".csv"),
+        StandardCharsets.UTF_8);
+    out.write(header + "\n");
+    return out;
+  }
+
+  // returns the text as a CSV field, quoted if it has to be
+  static String quote(String text) {
+    if (text.indexOf(',') < 0 && text.indexOf('"') < 0 && !text.startsWith(" ")) {
+      return text;
+    }
+    return "\"" + text.replace("\"", "\"\"") + "\"";
+  }
+}
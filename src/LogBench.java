@@ -0,0 +1,117 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+// times how long a RegistrarLog takes to open, and so a registrar to start, when
+// everything must be replayed from the log, when it is all in a snapshot, and
+// when it is a snapshot and a tail of log after it. Run with, for example:
+//   java -Xmx4g LogBench --students 1000000 --per-student 5 --tail 0.1
+class LogBench {
+  public static void main(String[] args) throws IOException {
+    int students = 1000000;
+    int perStudent = 5;
+    int courses = 5000;
+    int instructors = 1000;
+    double skew = 1.0;
+    double tail = 0.1;
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      if (args[i].equals("--students")) {
+        students = Integer.parseInt(args[i + 1]);
+      } else if (args[i].equals("--per-student")) {
+        perStudent = Integer.parseInt(args[i + 1]);
+      } else if (args[i].equals("--courses")) {
+        courses = Integer.parseInt(args[i + 1]);
+      } else if (args[i].equals("--instructors")) {
+        instructors = Integer.parseInt(args[i + 1]);
+      } else if (args[i].equals("--skew")) {
+        skew = Double.parseDouble(args[i + 1]);
+      } else if (args[i].equals("--tail")) {
+        tail = Double.parseDouble(args[i + 1]);
+      } else {
+        throw new IllegalArgumentException("unknown argument " + args[i]);
+      }
+    }
+
+    Path dir = Files.createTempDirectory("registrar");
+    try {
+      RegistrarLog registrar = RegistrarLog.open(dir);
+      long start = System.nanoTime();
+      LogBench.fill(registrar, students, courses, instructors, perStudent, skew, 1);
+      registrar.close();
+      long events = registrar.events;
+      long logBytes = Files.size(registrar.log);
+      registrar = null;
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.printf("logged %d events, %d bytes, in %.1f s, %.0f events/s%n",
+          events, logBytes, seconds, events / seconds);
+      System.out.printf("%-30s %14s %14s %14s %10s%n", "open", "events", "log bytes",
+          "snapshot bytes", "ms");
+      LogBench.open(dir, "whole log");
+
+      registrar = RegistrarLog.open(dir);
+      start = System.nanoTime();
+      registrar.compact();
+      System.out.printf("compacted in %.0f ms%n", (System.nanoTime() - start) / 1e6);
+      LogBench.open(dir, "snapshot");
+
+      // enroll the students in some more courses after the snapshot
+      Random random = new Random(2);
+      double[] courseWeights = RegistrarGen.zipf(courses, skew);
+      for (long i = 0; i < (long) (tail * students * perStudent); i += 1) {
+        registrar.enroll(random.nextInt(students), RegistrarGen.pick(courseWeights, random));
+      }
+      registrar.close();
+      registrar = null;
+      LogBench.open(dir, "snapshot and tail");
+    } finally {
+      for (String name : new String[] {"registrar.log", "registrar.snapshot"}) {
+        Files.deleteIfExists(dir.resolve(name));
+      }
+      Files.delete(dir);
+    }
+  }
+
+  // opens the registrar in the directory, ready for queries, printing how long that
+  // took, starting with the garbage of whatever ran before collected
+  static void open(Path dir, String name) throws IOException {
+    ImportBench.usedHeap();
+    long start = System.nanoTime();
+    RegistrarLog registrar = RegistrarLog.open(dir);
+    long nanos = System.nanoTime() - start;
+    System.out.printf("%-30s %14d %14d %14d %10.0f%n", name, registrar.events,
+        Files.size(registrar.log),
+        Files.exists(registrar.snapshot) ? Files.size(registrar.snapshot) : 0, nanos / 1e6);
+    registrar.close();
+    ArithBench.sink += registrar.delta.students();
+  }
+
+  // logs a registrar picked as RegistrarGen picks one
+  static void fill(RegistrarLog registrar, int students, int courses, int instructors,
+      int perStudent, double skew, long seed) throws IOException {
+    if (perStudent > courses) {
+      throw new IllegalArgumentException(
+          "cannot enroll in " + perStudent + " of only " + courses + " courses");
+    }
+    Random random = new Random(seed);
+    for (int i = 0; i < instructors; i += 1) {
+      registrar.addInstructor("Instructor " + i);
+    }
+    double[] profWeights = RegistrarGen.zipf(instructors, skew);
+    for (int i = 0; i < courses; i += 1) {
+      registrar.addCourse("Course " + i, RegistrarGen.pick(profWeights, random));
+    }
+    double[] courseWeights = RegistrarGen.zipf(courses, skew);
+    int[] taken = new int[perStudent];
+    for (int i = 0; i < students; i += 1) {
+      int student = registrar.addStudent("Student " + i, i);
+      for (int j = 0; j < perStudent; j += 1) {
+        int course = RegistrarGen.pick(courseWeights, random);
+        while (RegistrarGen.contains(taken, j, course)) {
+          course = random.nextInt(courses);
+        }
+        taken[j] = course;
+        registrar.enroll(student, course);
+      }
+    }
+  }
+}
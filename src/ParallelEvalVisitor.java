@@ -0,0 +1,300 @@
+import java.util.*;
+import java.util.concurrent.*;
+import tester.Tester;
+
+// evaluates a tree of arithmetic like EvalVisitor, but splits work off binary
+// formulas into tasks of a ForkJoinPool: whenever the larger child of a formula
+// has at least threshold nodes, its smaller child is forked, unless it has fewer
+// than a sixteenth of threshold nodes and is not worth a task of its own. Every
+// task walks its subtree on explicit stacks, so deep trees are fine. The formulas
+// split in the last evaluated tree are kept, so evaluating it again does not
+// measure it again, and changing the shape of that tree is not noticed.
+class ParallelEvalVisitor implements IArithVisitor<Double> {
+  static final int THRESHOLD = 10000;
+
+  ForkJoinPool pool;
+  int threshold;
+  // the least number of nodes of a forked subtree
+  int grain;
+  // the last evaluated tree, and the formulas in it which are split, each mapped
+  // to whether its left is the child forked
+  IArith measured = null;
+  IdentityHashMap<IArith, Boolean> splits = null;
+
+  ParallelEvalVisitor() {
+    this(ForkJoinPool.commonPool(), THRESHOLD);
+  }
+
+  ParallelEvalVisitor(ForkJoinPool pool, int threshold) {
+    this.pool = pool;
+    this.threshold = threshold;
+    this.grain = Math.max(2, threshold / 16);
+  }
+
+  // asks arith to pass itself to the apply function of this
+  // visitor which accepts its IArith implementation
+  // Then, evaluates the tree of arithmetic in parallel
+  public Double apply(IArith arith) {
+    if (this.measured != arith) {
+      this.splits = this.measure(arith);
+      this.measured = arith;
+    }
+    return this.pool.invoke(new ArithTask(arith, this.splits));
+  }
+
+  // returns the value of the const
+  public Double apply(Const arith) {
+    return arith.num;
+  }
+
+  // evaluates arith in parallel
+  public Double apply(UnaryFormula arith) {
+    return this.apply((IArith) arith);
+  }
+
+  // evaluates arith in parallel
+  public Double apply(BinaryFormula arith) {
+    return this.apply((IArith) arith);
+  }
+
+  // returns the binary formulas of arith to split, each mapped to whether its left
+  // is the child to fork, found by counting the nodes of every subtree without
+  // recursing on the tree. Every forked subtree has at least grain nodes of its
+  // own, so there are at most as many splits as the tree has grains.
+  IdentityHashMap<IArith, Boolean> measure(IArith arith) {
+    IdentityHashMap<IArith, Boolean> splits = new IdentityHashMap<IArith, Boolean>();
+    ArrayDeque<IArith> todo = new ArrayDeque<IArith>();
+    ArrayDeque<Boolean> expanded = new ArrayDeque<Boolean>();
+    long[] counts = new long[16];
+    int top = -1;
+    todo.push(arith);
+    expanded.push(false);
+    while (!todo.isEmpty()) {
+      IArith node = todo.pop();
+      boolean done = expanded.pop();
+      long size;
+      if (node instanceof UnaryFormula && !done) {
+        todo.push(node);
+        expanded.push(true);
+        todo.push(((UnaryFormula) node).child);
+        expanded.push(false);
+        continue;
+      } else if (node instanceof BinaryFormula && !done) {
+        todo.push(node);
+        expanded.push(true);
+        todo.push(((BinaryFormula) node).right);
+        expanded.push(false);
+        todo.push(((BinaryFormula) node).left);
+        expanded.push(false);
+        continue;
+      } else if (node instanceof UnaryFormula) {
+        size = 1 + counts[top];
+        top -= 1;
+      } else if (node instanceof BinaryFormula) {
+        long left = counts[top - 1];
+        long right = counts[top];
+        if (Math.max(left, right) >= this.threshold && Math.min(left, right) >= this.grain) {
+          splits.put(node, left <= right);
+        }
+        size = 1 + left + right;
+        top -= 2;
+      } else {
+        size = 1;
+      }
+      top += 1;
+      if (top == counts.length) {
+        counts = Arrays.copyOf(counts, counts.length * 2);
+      }
+      counts[top] = size;
+    }
+    return splits;
+  }
+}
+
+// evaluates one subtree for a ParallelEvalVisitor, walking it on explicit stacks
+// and forking a new task for the chosen child of every formula to split
+class ArithTask extends RecursiveTask<Double> {
+  private static final long serialVersionUID = 1L;
+
+  // marks a formula in the todo stack whose children have not been visited yet,
+  // whose children have been computed, or whose right was computed before its left
+  static final int NEW = 0;
+  static final int DONE = 1;
+  static final int FORKED = 2;
+
+  IArith arith;
+  // the formulas to split, each mapped to whether its left is the child to fork
+  IdentityHashMap<IArith, Boolean> splits;
+
+  ArithTask(IArith arith, IdentityHashMap<IArith, Boolean> splits) {
+    this.arith = arith;
+    this.splits = splits;
+  }
+
+  // returns the value of this task's subtree
+  protected Double compute() {
+    ArrayDeque<Object> todo = new ArrayDeque<Object>();
+    ArrayDeque<Integer> states = new ArrayDeque<Integer>();
+    double[] values = new double[16];
+    int top = -1;
+    todo.push(this.arith);
+    states.push(NEW);
+    while (!todo.isEmpty()) {
+      Object item = todo.pop();
+      int state = states.pop();
+      double value;
+      if (item instanceof ArithTask) {
+        value = ((ArithTask) item).join();
+      } else if (item instanceof UnaryFormula) {
+        UnaryFormula unary = (UnaryFormula) item;
+        if (state == NEW) {
+          todo.push(unary);
+          states.push(DONE);
+          todo.push(unary.child);
+          states.push(NEW);
+          continue;
+        }
+        value = unary.applyDouble(values[top]);
+        top -= 1;
+      } else if (item instanceof BinaryFormula) {
+        BinaryFormula binary = (BinaryFormula) item;
+        Boolean forkLeft = state == NEW ? this.splits.get(binary) : null;
+        if (forkLeft != null && forkLeft) {
+          ArithTask left = new ArithTask(binary.left, this.splits);
+          left.fork();
+          todo.push(binary);
+          states.push(FORKED);
+          todo.push(left);
+          states.push(NEW);
+          todo.push(binary.right);
+          states.push(NEW);
+          continue;
+        } else if (forkLeft != null) {
+          ArithTask right = new ArithTask(binary.right, this.splits);
+          right.fork();
+          todo.push(binary);
+          states.push(DONE);
+          todo.push(right);
+          states.push(NEW);
+          todo.push(binary.left);
+          states.push(NEW);
+          continue;
+        } else if (state == NEW) {
+          todo.push(binary);
+          states.push(DONE);
+          todo.push(binary.right);
+          states.push(NEW);
+          todo.push(binary.left);
+          states.push(NEW);
+          continue;
+        } else if (state == FORKED) {
+          value = binary.applyDouble(values[top], values[top - 1]);
+        } else {
+          value = binary.applyDouble(values[top - 1], values[top]);
+        }
+        top -= 2;
+      } else {
+        value = ((IArith) item).evalDouble();
+      }
+      top += 1;
+      if (top == values.length) {
+        values = Arrays.copyOf(values, values.length * 2);
+      }
+      values[top] = value;
+    }
+    return values[0];
+  }
+}
+
+class ExamplesParallelEvalVisitor {
+  IArith pointless = new Multiplication(
+      new Multiplication(2, new Subtraction(2, 5)),
+      new Addition(new Negation(1), new Division(new Addition(2, 3), 5)));
+  IArith large = new Square(
+      new Multiplication(new Square(10), new Square(63)));
+
+  // returns a balanced tree of additions and subtractions with 2^depth leaves,
+  // numbered from start
+  IArith balanced(int depth, int start) {
+    if (depth == 0) {
+      return new Const(start);
+    }
+    IArith left = balanced(depth - 1, start);
+    IArith right = balanced(depth - 1, start + (1 << (depth - 1)));
+    if (depth % 2 == 0) {
+      return new Subtraction(left, new Negation(right));
+    }
+    return new Addition(left, right);
+  }
+
+  boolean testParallelEval(Tester t) {
+    boolean res = true;
+    ParallelEvalVisitor parallel = new ParallelEvalVisitor();
+
+    // small trees are evaluated sequentially
+    res &= t.checkInexact(new Const(2).accept(parallel), 2.0, .001);
+    res &= t.checkInexact(parallel.apply(new Negation(2)), -2.0, .001);
+    res &= t.checkInexact(parallel.apply(new Division(1, 2)), 1d / 2, .001);
+    res &= t.checkInexact(parallel.apply(pointless), 0.0, .001);
+    res &= t.checkInexact(parallel.apply(large), 157529610000.0, .001);
+
+    return res;
+  }
+
+  boolean testParallelEvalSplits(Tester t) {
+    boolean res = true;
+    ForkJoinPool pool = new ForkJoinPool(4);
+    IArith tree = balanced(16, 0);
+    double expected = tree.evalDouble();
+
+    // every threshold gives the sequential result
+    res &= t.checkInexact(new ParallelEvalVisitor(pool, 1).apply(tree), expected, .001);
+    res &= t.checkInexact(new ParallelEvalVisitor(pool, 100).apply(tree), expected, .001);
+    res &= t.checkInexact(new ParallelEvalVisitor(pool, 1000000).apply(tree), expected, .001);
+
+    // splits are measured once per tree
+    ParallelEvalVisitor parallel = new ParallelEvalVisitor(pool, 1000);
+    res &= t.checkInexact(parallel.apply(tree), expected, .001);
+    res &= t.checkInexact(parallel.apply(tree), expected, .001);
+    IdentityHashMap<IArith, Boolean> splits = parallel.splits;
+    res &= t.checkInexact(parallel.apply(tree), expected, .001);
+    res &= t.checkExpect(parallel.splits == splits, true);
+
+    // a formula is split when its larger child reaches the threshold, forking its
+    // smaller child unless that is too small for a task
+    res &= t.checkExpect(new ParallelEvalVisitor(pool, 2)
+        .measure(new Addition(new Negation(1), 2)).size(), 0);
+    IArith lopsided = new Addition(new Negation(1), new Addition(new Negation(2), 3));
+    IdentityHashMap<IArith, Boolean> lopsidedSplits = new ParallelEvalVisitor(pool, 3)
+        .measure(lopsided);
+    res &= t.checkExpect(lopsidedSplits.size(), 1);
+    res &= t.checkExpect(lopsidedSplits.get(lopsided), true);
+    res &= t.checkInexact(new ParallelEvalVisitor(pool, 3).apply(lopsided), 0.0, .001);
+    IArith mirrored = lopsided.accept(new MirrorVisitor());
+    res &= t.checkExpect(new ParallelEvalVisitor(pool, 3).measure(mirrored).get(mirrored),
+        false);
+    res &= t.checkInexact(new ParallelEvalVisitor(pool, 3).apply(mirrored), 0.0, .001);
+
+    // - every forked subtree has at least a sixteenth of the threshold nodes, so a
+    // tree has few splits however lopsided it is
+    res &= t.checkExpect(new ParallelEvalVisitor(pool, 1600).measure(tree).size() <= 131072 / 100,
+        true);
+    IArith comb = new Const(0);
+    for (int i = 0; i < 100000; i += 1) {
+      comb = new Addition(new Negation(i), comb);
+    }
+    res &= t.checkExpect(new ParallelEvalVisitor(pool, 1000).measure(comb).size(), 0);
+    res &= t.checkInexact(new ParallelEvalVisitor(pool, 1000).apply(comb),
+        -4999950000.0, .001);
+
+    // deep chains do not overflow the stack
+    IArith deep = new Const(0);
+    for (int i = 0; i < 1000000; i += 1) {
+      deep = new Addition(new Const(1), deep);
+    }
+    res &= t.checkInexact(new ParallelEvalVisitor(pool, 1000).apply(deep), 1000000.0, .001);
+
+    pool.shutdown();
+    return res;
+  }
+}
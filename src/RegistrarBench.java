@@ -0,0 +1,346 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import tester.Tester;
+
+// builds a synthetic registrar: students, courses and instructors, where every
+// course is taught by one instructor and every student enrolls in perStudent
+// different courses. Courses are picked with a Zipf distribution of the given
+// skew, so with a skew of 0 every course is as popular as any other, and with
+// larger skews a few courses get most of the students. Instructors are picked
+// for courses the same way.
+class RegistrarGen {
+  Student[] students;
+  Course[] courses;
+  Instructor[] instructors;
+  int enrollments = 0;
+
+  RegistrarGen(int students, int courses, int instructors, int perStudent, double skew,
+      long seed) {
+    if (perStudent > courses) {
+      throw new IllegalArgumentException(
+          "cannot enroll in " + perStudent + " of only " + courses + " courses");
+    }
+    Random random = new Random(seed);
+    this.instructors = new Instructor[instructors];
+    for (int i = 0; i < instructors; i += 1) {
+      this.instructors[i] = new Instructor("Instructor " + i);
+    }
+    double[] profWeights = RegistrarGen.zipf(instructors, skew);
+    this.courses = new Course[courses];
+    for (int i = 0; i < courses; i += 1) {
+      this.courses[i] = new Course("Course " + i,
+          this.instructors[RegistrarGen.pick(profWeights, random)]);
+    }
+    double[] courseWeights = RegistrarGen.zipf(courses, skew);
+    this.students = new Student[students];
+    int[] taken = new int[perStudent];
+    for (int i = 0; i < students; i += 1) {
+      Student s = new Student("Student " + i, i);
+      this.students[i] = s;
+      for (int j = 0; j < perStudent; j += 1) {
+        int course = RegistrarGen.pick(courseWeights, random);
+        while (RegistrarGen.contains(taken, j, course)) {
+          course = random.nextInt(courses);
+        }
+        taken[j] = course;
+        s.enroll(this.courses[course]);
+        this.enrollments += 1;
+      }
+    }
+  }
+
+  // returns the running totals of the Zipf weights 1 / rank^skew of n ranks
+  static double[] zipf(int n, double skew) {
+    double[] totals = new double[n];
+    double total = 0;
+    for (int i = 0; i < n; i += 1) {
+      total += 1 / Math.pow(i + 1, skew);
+      totals[i] = total;
+    }
+    return totals;
+  }
+
+  // returns a random rank, each as likely as its weight in the given running totals
+  static int pick(double[] totals, Random random) {
+    double target = random.nextDouble() * totals[totals.length - 1];
+    int index = Arrays.binarySearch(totals, target);
+    return Math.min(index < 0 ? -index - 1 : index, totals.length - 1);
+  }
+
+  // is the value among the first count values?
+  static boolean contains(int[] values, int count, int value) {
+    for (int i = 0; i < count; i += 1) {
+      if (values[i] == value) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
+
+// one registrar query timed by RegistrarBench, which runs it with the index of
+// each run so that it can pick different students and instructors every time
+class RegistrarBenchCase {
+  String name;
+  IntFunction<Object> query;
+
+  RegistrarBenchCase(String name, IntFunction<Object> query) {
+    this.name = name;
+    this.query = query;
+  }
+}
+
+// the registrar queries, enrollment and snapshots which the JMH benchmarks in jmh
+// time over synthetic registrars, and the registrars whose footprint
+// bench.Footprint measures
+class RegistrarBench {
+  // how many randomly picked students and instructors the queries cycle through
+  static final int PICKS = 4096;
+
+  // the queries timed over the given registrar
+  static ArrayList<RegistrarBenchCase> cases(RegistrarGen gen, long seed) {
+    Random random = new Random(seed);
+    Student[] students = new Student[PICKS];
+    Student[] others = new Student[PICKS];
+    Instructor[] instructors = new Instructor[PICKS];
+    Course[] courses = new Course[PICKS];
+    // the instructor of a random course of each picked student
+    Instructor[] taught = new Instructor[PICKS];
+    // the ids of the same picks in the columnar store
+    int[] studentIds = new int[PICKS];
+    int[] otherIds = new int[PICKS];
+    int[] courseIds = new int[PICKS];
+    int[] otherCourseIds = new int[PICKS];
+    for (int i = 0; i < PICKS; i += 1) {
+      studentIds[i] = random.nextInt(gen.students.length);
+      otherIds[i] = random.nextInt(gen.students.length);
+      courseIds[i] = random.nextInt(gen.courses.length);
+      otherCourseIds[i] = random.nextInt(gen.courses.length);
+      students[i] = gen.students[studentIds[i]];
+      others[i] = gen.students[otherIds[i]];
+      instructors[i] = gen.instructors[random.nextInt(gen.instructors.length)];
+      courses[i] = gen.courses[courseIds[i]];
+      ArrayList<Course> taken = students[i].courses.fold((res, c) -> {
+        res.add(c);
+        return res;
+      }, new ArrayList<Course>());
+      taught[i] = taken.isEmpty() ? null : taken.get(random.nextInt(taken.size())).prof;
+    }
+    ArrayList<RegistrarBenchCase> cases = new ArrayList<RegistrarBenchCase>();
+    cases.add(new RegistrarBenchCase("Student.classmates",
+        (i) -> students[i % PICKS].classmates(others[i % PICKS])));
+    cases.add(new RegistrarBenchCase("Student.allClassmates",
+        (i) -> students[i % PICKS].allClassmates()));
+    cases.add(new RegistrarBenchCase("Student.dejavu",
+        (i) -> students[i % PICKS].dejavu(instructors[i % PICKS])));
+    cases.add(new RegistrarBenchCase("Instructor.dejavu",
+        (i) -> instructors[i % PICKS].dejavu(students[i % PICKS])));
+    cases.add(new RegistrarBenchCase("anyCompareMatches(courses)",
+        (i) -> students[i % PICKS].courses.anyCompareMatches((c1, c2) -> c1.sameProf(c2))));
+    cases.add(new RegistrarBenchCase("anyCompareMatches(roster)",
+        (i) -> courses[i % PICKS].students.anyCompareMatches((s1, s2) -> s1.id == s2.id)));
+    cases.add(new RegistrarBenchCase("anyDuplicateBy(courses)",
+        (i) -> students[i % PICKS].courses.anyDuplicateBy((c) -> c.prof)));
+    cases.add(new RegistrarBenchCase("anyDuplicateBy(roster)",
+        (i) -> courses[i % PICKS].students.anyDuplicateBy((s) -> s.id)));
+    // whether a student has any course of an instructor who teaches one of their
+    // courses, by a fold which always walks every course and by anyMatch which
+    // stops at the first
+    cases.add(new RegistrarBenchCase("fold any(courses)",
+        (i) -> students[i % PICKS].courses.fold((res, c) -> {
+          return res || c.prof == taught[i % PICKS];
+        }, false)));
+    cases.add(new RegistrarBenchCase("anyMatch(courses)",
+        (i) -> students[i % PICKS].courses.anyMatch((c) -> c.prof == taught[i % PICKS])));
+    // the same queries of the same picks, asked of the objects and of the store
+    RegistrarStore store = RegistrarStoreBuilder.of(gen.students, gen.courses,
+        gen.instructors);
+    cases.add(new RegistrarBenchCase("Course.sameProf",
+        (i) -> courses[i % PICKS].sameProf(gen.courses[otherCourseIds[i % PICKS]])));
+    cases.add(new RegistrarBenchCase("RegistrarStore.classmates",
+        (i) -> store.classmates(studentIds[i % PICKS], otherIds[i % PICKS])));
+    cases.add(new RegistrarBenchCase("RegistrarStore.dejavu",
+        (i) -> store.dejavu(studentIds[i % PICKS])));
+    cases.add(new RegistrarBenchCase("RegistrarStore.sameProf",
+        (i) -> store.sameProf(courseIds[i % PICKS], otherCourseIds[i % PICKS])));
+    return cases;
+  }
+
+  // returns the named query of the cases, over a registrar made by RegistrarGen,
+  // for a benchmark to run with the index of each run
+  static IntFunction<Object> query(String name, int students, int courses, int instructors,
+      int perStudent, double skew) {
+    RegistrarGen gen = new RegistrarGen(students, courses, instructors, perStudent, skew, 1);
+    for (RegistrarBenchCase c : RegistrarBench.cases(gen, 2)) {
+      if (c.name.equals(name)) {
+        return c.query;
+      }
+    }
+    throw new IllegalArgumentException("unknown query " + name);
+  }
+
+  // returns an enrollment for a benchmark to run from many threads at once, which
+  // enrolls a random student of the registrar in a random course, picked as
+  // RegistrarGen picks them, through a ConcurrentRegistrar with the given stripes
+  static Runnable enroller(int students, int courses, int instructors, double skew,
+      int stripes) {
+    RegistrarGen gen = new RegistrarGen(students, courses, instructors, 0, skew, 1);
+    ConcurrentRegistrar registrar = new ConcurrentRegistrar(stripes);
+    double[] courseWeights = RegistrarGen.zipf(courses, skew);
+    return () -> {
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      registrar.enroll(gen.students[random.nextInt(students)],
+          gen.courses[RegistrarGen.pick(courseWeights, random)]);
+    };
+  }
+
+  // returns a snapshot of every student, course and instructor of a registrar made
+  // by RegistrarGen, for a benchmark to take again and again
+  static Supplier<Object> snapshots(int students, int courses, int instructors,
+      int perStudent, double skew) {
+    RegistrarGen gen = new RegistrarGen(students, courses, instructors, perStudent, skew, 1);
+    ConcurrentRegistrar registrar =
+        RegistrarBench.keeping(gen, ConcurrentRegistrar.DEFAULT_STRIPES);
+    return () -> registrar.snapshot();
+  }
+
+  // returns an enrollment and a snapshot of the same registrar, by name, for a
+  // benchmark to run at once from different threads, so that how long snapshots
+  // hold up enrollments can be seen. The registrar starts with no enrollments.
+  static Map<String, Object> contended(int students, int courses, int instructors,
+      double skew, int stripes) {
+    RegistrarGen gen = new RegistrarGen(students, courses, instructors, 0, skew, 1);
+    ConcurrentRegistrar registrar = RegistrarBench.keeping(gen, stripes);
+    double[] courseWeights = RegistrarGen.zipf(courses, skew);
+    LinkedHashMap<String, Object> contended = new LinkedHashMap<String, Object>();
+    contended.put("enroll", (Runnable) () -> {
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      registrar.enroll(gen.students[random.nextInt(students)],
+          gen.courses[RegistrarGen.pick(courseWeights, random)]);
+    });
+    contended.put("snapshot", (Supplier<Object>) () -> registrar.snapshot());
+    return contended;
+  }
+
+  // returns a registrar with the given stripes which keeps every student, course
+  // and instructor of the registrar made by RegistrarGen in its snapshots
+  static ConcurrentRegistrar keeping(RegistrarGen gen, int stripes) {
+    ConcurrentRegistrar registrar = new ConcurrentRegistrar(stripes);
+    for (Student s : gen.students) {
+      registrar.add(s);
+    }
+    for (Course c : gen.courses) {
+      registrar.add(c);
+    }
+    for (Instructor i : gen.instructors) {
+      registrar.add(i);
+    }
+    return registrar;
+  }
+
+  // returns the same registrar, made by RegistrarGen, as objects and as a
+  // RegistrarStore, by name, for their footprints to be measured
+  static Map<String, Object> representations(int students, int courses, int instructors,
+      int perStudent, double skew) {
+    RegistrarGen gen = new RegistrarGen(students, courses, instructors, perStudent, skew, 1);
+    LinkedHashMap<String, Object> representations = new LinkedHashMap<String, Object>();
+    representations.put("objects", new Object[] {gen.students, gen.courses, gen.instructors});
+    representations.put("RegistrarStore", RegistrarStoreBuilder.of(gen.students, gen.courses,
+        gen.instructors));
+    return representations;
+  }
+}
+
+class ExamplesRegistrarBench {
+  // returns the number of items in the list
+  <T> int length(IList<T> list) {
+    return list.fold((n, item) -> n + 1, 0);
+  }
+
+  boolean testRegistrarGen(Tester t) {
+    boolean res = true;
+    RegistrarGen gen = new RegistrarGen(1000, 50, 10, 4, 1.0, 7);
+
+    res &= t.checkExpect(gen.students.length, 1000);
+    res &= t.checkExpect(gen.courses.length, 50);
+    res &= t.checkExpect(gen.instructors.length, 10);
+    res &= t.checkExpect(gen.enrollments, 4000);
+
+    // every student takes 4 different courses, and is on the roster of each
+    boolean distinct = true;
+    for (Student s : gen.students) {
+      distinct &= length(s.courses) == 4;
+      distinct &= !s.courses.anyCompareMatches((c1, c2) -> c1.sameCourse(c2));
+      distinct &= s.courses.allMatch((c) -> c.students.anyMatch((other) -> other == s));
+    }
+    res &= t.checkExpect(distinct, true);
+
+    // every course is taught by one of the instructors
+    int rosters = 0;
+    int taught = 0;
+    for (Course c : gen.courses) {
+      rosters += length(c.students);
+    }
+    for (Instructor i : gen.instructors) {
+      taught += length(i.courses);
+    }
+    res &= t.checkExpect(rosters, 4000);
+    res &= t.checkExpect(taught, 50);
+
+    // skewed courses are more popular at the front
+    res &= t.checkExpect(length(gen.courses[0].students) > length(gen.courses[49].students),
+        true);
+
+    // the same seed makes the same registrar
+    RegistrarGen again = new RegistrarGen(1000, 50, 10, 4, 1.0, 7);
+    res &= t.checkExpect(length(again.courses[3].students), length(gen.courses[3].students));
+
+    return res;
+  }
+
+  boolean testRegistrarBenchCases(Tester t) {
+    boolean res = true;
+    RegistrarGen gen = new RegistrarGen(200, 20, 5, 3, 0.5, 1);
+
+    for (RegistrarBenchCase c : RegistrarBench.cases(gen, 2)) {
+      res &= t.checkExpect(c.query.apply(0) != null, true);
+      res &= t.checkExpect(RegistrarBench.query(c.name, 200, 20, 5, 3, 0.5).apply(7) != null,
+          true);
+    }
+    String error = "";
+    try {
+      RegistrarBench.query("Student.enemies", 200, 20, 5, 3, 0.5);
+    } catch (IllegalArgumentException e) {
+      error = e.getMessage();
+    }
+    res &= t.checkExpect(error, "unknown query Student.enemies");
+
+    Runnable enroll = RegistrarBench.enroller(200, 20, 5, 0.5, 4);
+    for (int i = 0; i < 100; i += 1) {
+      enroll.run();
+    }
+    RegistrarSnapshot snapshot = (RegistrarSnapshot) RegistrarBench.snapshots(200, 20, 5, 3,
+        0.5).get();
+    res &= t.checkExpect(snapshot.version, 0L);
+    res &= t.checkExpect(snapshot.courses.size(), 200);
+    res &= t.checkExpect(snapshot.rosters.size(), 20);
+    res &= t.checkExpect(snapshot.taught.size(), 5);
+
+    Map<String, Object> contended = RegistrarBench.contended(200, 20, 5, 0.5, 4);
+    res &= t.checkExpect(contended.keySet().toString(), "[enroll, snapshot]");
+    for (int i = 0; i < 100; i += 1) {
+      ((Runnable) contended.get("enroll")).run();
+    }
+    @SuppressWarnings("unchecked")
+    Supplier<Object> contendedSnapshot = (Supplier<Object>) contended.get("snapshot");
+    res &= t.checkExpect(((RegistrarSnapshot) contendedSnapshot.get()).version, 100L);
+
+    Map<String, Object> representations = RegistrarBench.representations(200, 20, 5, 3, 0.5);
+    res &= t.checkExpect(representations.keySet().toString(), "[objects, RegistrarStore]");
+    res &= t.checkExpect(((RegistrarStore) representations.get("RegistrarStore")).students(),
+        200);
+
+    return res;
+  }
+}
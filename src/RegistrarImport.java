@@ -0,0 +1,561 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import tester.Tester;
+
+// a map from int keys to non-negative int values, kept in two arrays with linear
+// probing, so neither keys nor values are ever boxed
+class IntIntMap {
+  static final int MISSING = -1;
+
+  int[] keys;
+  // the value of each slot, or MISSING if the slot is empty
+  int[] values;
+  int size = 0;
+
+  IntIntMap() {
+    this(16);
+  }
+
+  // a map with room for about the given number of keys before it grows
+  IntIntMap(int expected) {
+    int capacity = 16;
+    while (capacity < expected * 2) {
+      capacity *= 2;
+    }
+    this.keys = new int[capacity];
+    this.values = new int[capacity];
+    Arrays.fill(this.values, MISSING);
+  }
+
+  // returns the slot of the key, or the empty slot where it would go
+  int slot(int key) {
+    int mask = this.keys.length - 1;
+    int hash = key * 0x9E3779B9;
+    int i = (hash ^ (hash >>> 16)) & mask;
+    while (this.values[i] != MISSING && this.keys[i] != key) {
+      i = (i + 1) & mask;
+    }
+    return i;
+  }
+
+  // returns the value of the key, or MISSING if it has none
+  int get(int key) {
+    return this.values[this.slot(key)];
+  }
+
+  // gives the key the value unless it has one already, returning the value it had,
+  // or MISSING if it had none
+  int putIfAbsent(int key, int value) {
+    if (value < 0) {
+      throw new IllegalArgumentException("values must not be negative");
+    }
+    int i = this.slot(key);
+    if (this.values[i] != MISSING) {
+      return this.values[i];
+    }
+    this.keys[i] = key;
+    this.values[i] = value;
+    this.size += 1;
+    if (this.size * 2 > this.keys.length) {
+      this.grow();
+    }
+    return MISSING;
+  }
+
+  // moves every key into arrays twice as long
+  void grow() {
+    int[] oldKeys = this.keys;
+    int[] oldValues = this.values;
+    this.keys = new int[oldKeys.length * 2];
+    this.values = new int[oldKeys.length * 2];
+    Arrays.fill(this.values, MISSING);
+    for (int i = 0; i < oldKeys.length; i += 1) {
+      if (oldValues[i] != MISSING) {
+        int j = this.slot(oldKeys[i]);
+        this.keys[j] = oldKeys[i];
+        this.values[j] = oldValues[i];
+      }
+    }
+  }
+}
+
+// reads the rows of a CSV file out of memory mapped a window at a time, so files
+// of any size are read without copying them onto the heap. Every row must fit in
+// one window. Fields are ints or strings, which may be quoted with " and hold ""
+// for a quote; lines end with \n or \r\n.
+class CsvReader {
+  static final int WINDOW = 1 << 26;
+
+  String name;
+  FileChannel channel;
+  long size;
+  int window;
+  // where in the file the mapped window starts
+  long base = 0;
+  ByteBuffer bytes;
+  // where in the window the current row ends, before its line break
+  int end;
+  // is there another field in the current row
+  boolean more;
+  int line = 0;
+  // the bytes of the current string field
+  byte[] scratch = new byte[64];
+
+  CsvReader(Path path) throws IOException {
+    this(path, WINDOW);
+  }
+
+  // a reader which maps the given number of bytes of the file at a time
+  CsvReader(Path path, int window) throws IOException {
+    this.name = path.getFileName().toString();
+    this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    this.size = this.channel.size();
+    this.window = window;
+    this.map(0);
+  }
+
+  // maps the window which starts at the given place in the file
+  void map(long at) throws IOException {
+    this.base = at;
+    this.bytes = this.channel.map(FileChannel.MapMode.READ_ONLY, at,
+        Math.min(this.window, this.size - at));
+  }
+
+  // moves to the next row, returning false at the end of the file
+  boolean nextRow() throws IOException {
+    if (this.base + this.bytes.position() >= this.size) {
+      return false;
+    }
+    int lineEnd = this.findLineEnd();
+    if (lineEnd < 0) {
+      this.map(this.base + this.bytes.position());
+      lineEnd = this.findLineEnd();
+      if (lineEnd < 0) {
+        throw new IOException("line " + (this.line + 1) + " of " + this.name
+            + " is longer than " + this.window + " bytes");
+      }
+    }
+    this.line += 1;
+    this.end = lineEnd;
+    if (lineEnd > this.bytes.position() && this.bytes.get(lineEnd - 1) == '\r') {
+      this.end = lineEnd - 1;
+    }
+    this.more = true;
+    return true;
+  }
+
+  // returns where the current line ends in the window, at its \n or the end of the
+  // file, or -1 if the window ends first
+  int findLineEnd() {
+    ByteBuffer bytes = this.bytes;
+    for (int i = bytes.position(); i < bytes.limit(); i += 1) {
+      if (bytes.get(i) == '\n') {
+        return i;
+      }
+    }
+    return this.base + bytes.limit() == this.size ? bytes.limit() : -1;
+  }
+
+  // checks every field of the row has been read, and moves past its line break
+  void endRow() throws IOException {
+    if (this.more) {
+      throw this.error("too many fields");
+    }
+    int next = this.end;
+    while (next < this.bytes.limit() && this.bytes.get(next) != '\n') {
+      next += 1;
+    }
+    this.bytes.position(Math.min(next + 1, this.bytes.limit()));
+  }
+
+  // skips the first row if it is a header, which is any row not starting with a number
+  void skipHeader() throws IOException {
+    if (this.line == 0 && this.nextRow()) {
+      byte first = this.bytes.position() < this.end ? this.bytes.get(this.bytes.position()) : 0;
+      if ((first >= '0' && first <= '9') || first == '-') {
+        // a row of data, which nextRow finds again
+        this.line = 0;
+        return;
+      }
+      this.more = false;
+      this.endRow();
+    }
+  }
+
+  // returns the next field of the row as an int
+  int nextInt() throws IOException {
+    this.startField();
+    ByteBuffer bytes = this.bytes;
+    int i = bytes.position();
+    boolean negative = i < this.end && bytes.get(i) == '-';
+    if (negative) {
+      i += 1;
+    }
+    int start = i;
+    long value = 0;
+    while (i < this.end && bytes.get(i) >= '0' && bytes.get(i) <= '9') {
+      value = value * 10 + (bytes.get(i) - '0');
+      if (value > Integer.MAX_VALUE + 1L) {
+        throw this.error("number out of range");
+      }
+      i += 1;
+    }
+    if (i == start || (!negative && value > Integer.MAX_VALUE)) {
+      throw this.error(i == start ? "expected a number" : "number out of range");
+    }
+    bytes.position(i);
+    this.endField();
+    return (int) (negative ? -value : value);
+  }
+
+  // returns the next field of the row as a string
+  String nextString() throws IOException {
+    this.startField();
+    ByteBuffer bytes = this.bytes;
+    int i = bytes.position();
+    int length = 0;
+    if (i < this.end && bytes.get(i) == '"') {
+      i += 1;
+      while (true) {
+        if (i >= this.end) {
+          throw this.error("unclosed quote");
+        }
+        byte b = bytes.get(i);
+        i += 1;
+        if (b == '"') {
+          if (i < this.end && bytes.get(i) == '"') {
+            i += 1;
+          } else {
+            break;
+          }
+        }
+        length = this.put(length, b);
+      }
+    } else {
+      while (i < this.end && bytes.get(i) != ',') {
+        length = this.put(length, bytes.get(i));
+        i += 1;
+      }
+    }
+    bytes.position(i);
+    this.endField();
+    return new String(this.scratch, 0, length, StandardCharsets.UTF_8);
+  }
+
+  // puts the byte of a string field at the given length of scratch, returning the new length
+  int put(int length, byte b) {
+    if (length == this.scratch.length) {
+      this.scratch = Arrays.copyOf(this.scratch, length * 2);
+    }
+    this.scratch[length] = b;
+    return length + 1;
+  }
+
+  // checks the row has another field
+  void startField() throws IOException {
+    if (!this.more) {
+      throw this.error("too few fields");
+    }
+  }
+
+  // moves past the comma after a field, if there is one
+  void endField() throws IOException {
+    int i = this.bytes.position();
+    if (i == this.end) {
+      this.more = false;
+    } else if (this.bytes.get(i) == ',') {
+      this.bytes.position(i + 1);
+    } else {
+      throw this.error("expected a comma");
+    }
+  }
+
+  // returns an error about the current line
+  IOException error(String message) {
+    return new IOException(message + " at line " + this.line + " of " + this.name);
+  }
+
+  void close() throws IOException {
+    this.channel.close();
+  }
+}
+
+// builds a RegistrarStore from four CSV files, each read once from start to end:
+//   instructors  id,name
+//   courses      id,name,instructor id
+//   students     id,name
+//   enrollments  student id,course id
+// Each file may start with a header. Ids may be any ints, and are matched to the
+// dense ids of the store through IntIntMaps; instructors must come before their
+// courses, as must students and courses before their enrollments.
+class RegistrarImport {
+  RegistrarStoreBuilder builder = new RegistrarStoreBuilder();
+  // the dense ids of the ids in the files
+  IntIntMap instructors = new IntIntMap();
+  IntIntMap courses = new IntIntMap();
+  IntIntMap students = new IntIntMap();
+  long rows = 0;
+  int window;
+
+  RegistrarImport() {
+    this(CsvReader.WINDOW);
+  }
+
+  // an import which maps the given number of bytes of each file at a time
+  RegistrarImport(int window) {
+    this.window = window;
+  }
+
+  // returns the store of instructors.csv, courses.csv, students.csv and
+  // enrollments.csv in the directory
+  static RegistrarStore read(Path dir) throws IOException {
+    return new RegistrarImport().read(dir.resolve("instructors.csv"),
+        dir.resolve("courses.csv"), dir.resolve("students.csv"),
+        dir.resolve("enrollments.csv"));
+  }
+
+  // returns the store of the four files
+  RegistrarStore read(Path instructors, Path courses, Path students, Path enrollments)
+      throws IOException {
+    this.readInstructors(instructors);
+    this.readCourses(courses);
+    this.readStudents(students);
+    this.readEnrollments(enrollments);
+    return this.builder.build();
+  }
+
+  void readInstructors(Path path) throws IOException {
+    CsvReader csv = new CsvReader(path, this.window);
+    try {
+      csv.skipHeader();
+      while (csv.nextRow()) {
+        int id = csv.nextInt();
+        String name = csv.nextString();
+        csv.endRow();
+        this.add(csv, "instructor", this.instructors, id, this.builder.instructorNames.size());
+        this.builder.addInstructor(name);
+      }
+    } finally {
+      csv.close();
+    }
+  }
+
+  void readCourses(Path path) throws IOException {
+    CsvReader csv = new CsvReader(path, this.window);
+    try {
+      csv.skipHeader();
+      while (csv.nextRow()) {
+        int id = csv.nextInt();
+        String name = csv.nextString();
+        int prof = this.find(csv, "instructor", this.instructors, csv.nextInt());
+        csv.endRow();
+        this.add(csv, "course", this.courses, id, this.builder.courseNames.size());
+        this.builder.addCourse(name, prof);
+      }
+    } finally {
+      csv.close();
+    }
+  }
+
+  void readStudents(Path path) throws IOException {
+    CsvReader csv = new CsvReader(path, this.window);
+    try {
+      csv.skipHeader();
+      while (csv.nextRow()) {
+        int id = csv.nextInt();
+        String name = csv.nextString();
+        csv.endRow();
+        this.add(csv, "student", this.students, id, this.builder.studentNames.size());
+        this.builder.addStudent(name, id);
+      }
+    } finally {
+      csv.close();
+    }
+  }
+
+  void readEnrollments(Path path) throws IOException {
+    CsvReader csv = new CsvReader(path, this.window);
+    try {
+      csv.skipHeader();
+      while (csv.nextRow()) {
+        int student = this.find(csv, "student", this.students, csv.nextInt());
+        int course = this.find(csv, "course", this.courses, csv.nextInt());
+        csv.endRow();
+        this.builder.enroll(student, course);
+        this.rows += 1;
+      }
+    } finally {
+      csv.close();
+    }
+  }
+
+  // maps the id to the next dense id, throwing if the id has been seen before
+  void add(CsvReader csv, String kind, IntIntMap ids, int id, int dense) throws IOException {
+    if (ids.putIfAbsent(id, dense) != IntIntMap.MISSING) {
+      throw csv.error("duplicate " + kind + " id " + id);
+    }
+    this.rows += 1;
+  }
+
+  // returns the dense id of the id, throwing if it has not been seen
+  int find(CsvReader csv, String kind, IntIntMap ids, int id) throws IOException {
+    int dense = ids.get(id);
+    if (dense == IntIntMap.MISSING) {
+      throw csv.error("unknown " + kind + " id " + id);
+    }
+    return dense;
+  }
+}
+
+class ExamplesRegistrarImport {
+  boolean testIntIntMap(Tester t) {
+    boolean res = true;
+    IntIntMap map = new IntIntMap();
+
+    res &= t.checkExpect(map.get(0), IntIntMap.MISSING);
+    res &= t.checkExpect(map.putIfAbsent(0, 5), IntIntMap.MISSING);
+    res &= t.checkExpect(map.putIfAbsent(0, 6), 5);
+    res &= t.checkExpect(map.get(0), 5);
+    res &= t.checkExpect(map.putIfAbsent(-7, 0), IntIntMap.MISSING);
+    res &= t.checkExpect(map.get(-7), 0);
+
+    // every key is kept as the map grows
+    for (int i = 0; i < 100000; i += 1) {
+      map.putIfAbsent(i * 31 + 1, i);
+    }
+    boolean kept = true;
+    for (int i = 0; i < 100000; i += 1) {
+      kept &= map.get(i * 31 + 1) == i;
+    }
+    res &= t.checkExpect(kept, true);
+    res &= t.checkExpect(map.size, 100002);
+    res &= t.checkExpect(map.get(2), IntIntMap.MISSING);
+
+    return res;
+  }
+
+  // writes the lines to the file
+  void write(Path path, String... lines) throws IOException {
+    Files.write(path, Arrays.asList(lines), StandardCharsets.UTF_8);
+  }
+
+  // returns the message of the error reading the directory, or "" if there is none
+  String error(Path dir, int window) {
+    try {
+      new RegistrarImport(window).read(dir.resolve("instructors.csv"),
+          dir.resolve("courses.csv"), dir.resolve("students.csv"),
+          dir.resolve("enrollments.csv"));
+      return "";
+    } catch (IOException e) {
+      return e.getMessage();
+    }
+  }
+
+  // deletes the files of the directory and then the directory
+  void delete(Path dir) throws IOException {
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+      for (Path file : files) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(dir);
+  }
+
+  boolean testRead(Tester t) throws IOException {
+    boolean res = true;
+    Path dir = Files.createTempDirectory("registrar");
+    try {
+      write(dir.resolve("instructors.csv"), "id,name", "10,Razzaq", "20,\"Smith, Jr.\"");
+      write(dir.resolve("courses.csv"), "id,name,instructor",
+          "100,Fundies 2,10", "101,Calculus,10", "-5,\"The \"\"English\"\"\",20");
+      write(dir.resolve("students.csv"), "27390,Micah", "27600,Aidan", "27978,Daniël");
+      Files.write(dir.resolve("enrollments.csv"), ("student,course\r\n27390,100\r\n"
+          + "27390,101\r\n27600,101\r\n27600,-5\r\n27978,-5\r\n27390,100")
+          .getBytes(StandardCharsets.UTF_8));
+
+      // a window of a few rows makes rows cross the ends of windows
+      for (int window : new int[] {CsvReader.WINDOW, 24}) {
+        RegistrarImport in = new RegistrarImport(window);
+        RegistrarStore store = in.read(dir.resolve("instructors.csv"),
+            dir.resolve("courses.csv"), dir.resolve("students.csv"),
+            dir.resolve("enrollments.csv"));
+
+        res &= t.checkExpect(in.rows, 14L);
+        res &= t.checkExpect(store.instructorNames, new String[] {"Razzaq", "Smith, Jr."});
+        res &= t.checkExpect(store.courseNames,
+            new String[] {"Fundies 2", "Calculus", "The \"English\""});
+        res &= t.checkExpect(store.courseProfs, new int[] {0, 0, 1});
+        res &= t.checkExpect(store.studentNames, new String[] {"Micah", "Aidan", "Daniël"});
+        res &= t.checkExpect(store.studentIds, new int[] {27390, 27600, 27978});
+        res &= t.checkExpect(store.coursesOf(0), new int[] {0, 1});
+        res &= t.checkExpect(store.studentsOf(2), new int[] {1, 2});
+        res &= t.checkExpect(store.classmates(0, 1), true);
+        res &= t.checkExpect(store.classmates(0, 2), false);
+        res &= t.checkExpect(store.dejavu(0), true);
+        res &= t.checkExpect(store.dejavu(1), false);
+      }
+      res &= t.checkExpect(RegistrarImport.read(dir).students(), 3);
+
+      // errors name the line and file
+      write(dir.resolve("enrollments.csv"), "27390,100", "27390,102");
+      res &= t.checkExpect(error(dir, CsvReader.WINDOW),
+          "unknown course id 102 at line 2 of enrollments.csv");
+      write(dir.resolve("enrollments.csv"), "27390,100,1");
+      res &= t.checkExpect(error(dir, CsvReader.WINDOW),
+          "too many fields at line 1 of enrollments.csv");
+      write(dir.resolve("enrollments.csv"), "27390");
+      res &= t.checkExpect(error(dir, CsvReader.WINDOW),
+          "too few fields at line 1 of enrollments.csv");
+      write(dir.resolve("enrollments.csv"), "27390,1x");
+      res &= t.checkExpect(error(dir, CsvReader.WINDOW),
+          "expected a comma at line 1 of enrollments.csv");
+      write(dir.resolve("enrollments.csv"), "27390,99999999999");
+      res &= t.checkExpect(error(dir, CsvReader.WINDOW),
+          "number out of range at line 1 of enrollments.csv");
+      write(dir.resolve("students.csv"), "27390,Micah", "27390,Micah again");
+      res &= t.checkExpect(error(dir, CsvReader.WINDOW),
+          "duplicate student id 27390 at line 2 of students.csv");
+      write(dir.resolve("students.csv"), "27390,\"Micah");
+      res &= t.checkExpect(error(dir, CsvReader.WINDOW),
+          "unclosed quote at line 1 of students.csv");
+      write(dir.resolve("students.csv"), "27390,Micah", "27600,A very long name indeed");
+      res &= t.checkExpect(error(dir, 24),
+          "line 2 of students.csv is longer than 24 bytes");
+    } finally {
+      delete(dir);
+    }
+
+    return res;
+  }
+
+  // a registrar written out as CSV reads back as the same store as its objects make
+  boolean testReadGen(Tester t) throws IOException {
+    boolean res = true;
+    RegistrarGen gen = new RegistrarGen(500, 40, 8, 3, 1.0, 11);
+    Path dir = Files.createTempDirectory("registrar");
+    try {
+      ImportBench.write(dir, gen);
+      RegistrarStore read = new RegistrarImport(1000).read(dir.resolve("instructors.csv"),
+          dir.resolve("courses.csv"), dir.resolve("students.csv"),
+          dir.resolve("enrollments.csv"));
+      RegistrarStore made = RegistrarStoreBuilder.of(gen.students, gen.courses,
+          gen.instructors);
+
+      res &= t.checkExpect(read.studentNames, made.studentNames);
+      res &= t.checkExpect(read.studentIds, made.studentIds);
+      res &= t.checkExpect(read.courseProfs, made.courseProfs);
+      res &= t.checkExpect(read.courseStart, made.courseStart);
+      res &= t.checkExpect(read.courses, made.courses);
+      res &= t.checkExpect(read.rosters, made.rosters);
+      res &= t.checkExpect(read.taught, made.taught);
+    } finally {
+      delete(dir);
+    }
+
+    return res;
+  }
+}
@@ -0,0 +1,1060 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+import tester.Tester;
+
+// the file form of a RegistrarStore, written and read through memory mapped over
+// the file, with each column copied in bulk. It starts with MAGIC and the VERSION,
+// then the number of events the store holds and the numbers of instructors,
+// courses, students and enrollments, then every int column and every name as its
+// length and UTF-8 bytes, and ends with the CRC32 of all before it. Numbers are
+// big-endian.
+class StoreFile {
+  static final int MAGIC = 0x52454753;
+  static final int VERSION = 1;
+  // the bytes of the magic, version, events and counts
+  static final int HEADER_SIZE = 32;
+
+  RegistrarStore store;
+  // how many events of a RegistrarLog the store holds
+  long events;
+
+  StoreFile(RegistrarStore store, long events) {
+    this.store = store;
+    this.events = events;
+  }
+
+  // writes the store, which holds the given number of events, to the file, by way of
+  // a file beside it which then replaces it, so the file is always whole
+  static void write(Path path, RegistrarStore store, long events) throws IOException {
+    String[][] tables = new String[][] {store.instructorNames, store.courseNames,
+        store.studentNames};
+    int[][] columns = new int[][] {store.courseProfs, store.studentIds, store.courseStart,
+        store.courses, store.rosterStart, store.rosters, store.taughtStart, store.taught};
+    long size = HEADER_SIZE + 4;
+    for (int[] column : columns) {
+      size += 4L * column.length;
+    }
+    byte[][][] names = new byte[tables.length][][];
+    for (int i = 0; i < tables.length; i += 1) {
+      names[i] = new byte[tables[i].length][];
+      for (int j = 0; j < tables[i].length; j += 1) {
+        names[i][j] = tables[i][j].getBytes(StandardCharsets.UTF_8);
+        size += 4 + names[i][j].length;
+      }
+    }
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("a store of " + size + " bytes is too big for one file");
+    }
+
+    Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+    try (FileChannel file = FileChannel.open(temp, StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      MappedByteBuffer out = file.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      out.putInt(MAGIC);
+      out.putInt(VERSION);
+      out.putLong(events);
+      out.putInt(store.instructors());
+      out.putInt(store.courses());
+      out.putInt(store.students());
+      out.putInt(store.courses.length);
+      for (int[] column : columns) {
+        out.asIntBuffer().put(column);
+        out.position(out.position() + 4 * column.length);
+      }
+      for (byte[][] table : names) {
+        for (byte[] name : table) {
+          out.putInt(name.length);
+          out.put(name);
+        }
+      }
+      out.putInt(StoreFile.crc(out, out.position()));
+      out.force();
+    }
+    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  // returns the store in the file and the number of events it holds, mapping the
+  // file into memory to read it
+  static StoreFile read(Path path) throws IOException {
+    ByteBuffer in;
+    try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (file.size() < HEADER_SIZE + 4 || file.size() > Integer.MAX_VALUE) {
+        throw new IOException(path.getFileName() + " is not a registrar store");
+      }
+      in = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+    }
+    if (in.getInt() != MAGIC) {
+      throw new IOException(path.getFileName() + " is not a registrar store");
+    }
+    int version = in.getInt();
+    if (version != VERSION) {
+      throw new IOException("unknown version " + version + " of " + path.getFileName());
+    }
+    if (StoreFile.crc(in, in.limit() - 4) != in.getInt(in.limit() - 4)) {
+      throw new IOException(path.getFileName() + " is corrupt");
+    }
+    long events = in.getLong();
+    int instructors = in.getInt();
+    int courses = in.getInt();
+    int students = in.getInt();
+    int enrollments = in.getInt();
+    int[] courseProfs = StoreFile.ints(in, courses);
+    int[] studentIds = StoreFile.ints(in, students);
+    int[][] rows = new int[][] {StoreFile.ints(in, students + 1),
+        StoreFile.ints(in, enrollments)};
+    int[][] rosters = new int[][] {StoreFile.ints(in, courses + 1),
+        StoreFile.ints(in, enrollments)};
+    int[][] taught = new int[][] {StoreFile.ints(in, instructors + 1),
+        StoreFile.ints(in, courses)};
+    String[] instructorNames = StoreFile.names(in, instructors);
+    String[] courseNames = StoreFile.names(in, courses);
+    String[] studentNames = StoreFile.names(in, students);
+    return new StoreFile(new RegistrarStore(studentNames, studentIds, courseNames,
+        courseProfs, instructorNames, rows, rosters, taught), events);
+  }
+
+  // returns the next count ints of the buffer
+  static int[] ints(ByteBuffer in, int count) {
+    int[] column = new int[count];
+    in.asIntBuffer().get(column);
+    in.position(in.position() + 4 * count);
+    return column;
+  }
+
+  // returns the next count names of the buffer
+  static String[] names(ByteBuffer in, int count) {
+    String[] names = new String[count];
+    byte[] utf8 = new byte[64];
+    for (int i = 0; i < count; i += 1) {
+      int length = in.getInt();
+      if (length > utf8.length) {
+        utf8 = new byte[Math.max(length, utf8.length * 2)];
+      }
+      in.get(utf8, 0, length);
+      names[i] = new String(utf8, 0, length, StandardCharsets.UTF_8);
+    }
+    return names;
+  }
+
+  // returns the CRC32 of the first length bytes of the buffer
+  static int crc(ByteBuffer bytes, int length) {
+    ByteBuffer range = bytes.duplicate();
+    range.position(0).limit(length);
+    CRC32 crc = new CRC32();
+    crc.update(range);
+    return (int) crc.getValue();
+  }
+}
+
+// a registrar kept on disk as a snapshot, a StoreFile of everything up to some
+// event, and an append-only log of every event since. Opening a registrar loads
+// the snapshot and replays the log into a RegistrarDelta beside it, which queries
+// consult; compacting it writes a new snapshot and starts an empty log, so opening
+// takes time in the size of the snapshot and of the events since, not of every
+// event ever. The log is read out of memory mapped a window at a time, so a log of
+// any size can be replayed. The log starts with LOG_MAGIC, the
+// VERSION and the number of events before its first record. Each record is its
+// length, a tag and the event, and the CRC32 of the tag and event: INSTRUCTOR and
+// its name, COURSE, its name and instructor, STUDENT, its name and id number, or
+// ENROLL, a student and course. Ids are those of the store. A record cut off or
+// changed by a crash fails its length or CRC, and is dropped along with
+// everything after it.
+class RegistrarLog {
+  static final int LOG_MAGIC = 0x5245474C;
+  static final int VERSION = 1;
+  static final int LOG_HEADER_SIZE = 16;
+  static final int BUFFER_SIZE = 65536;
+  static final int WINDOW = 1 << 26;
+
+  static final byte INSTRUCTOR = 1;
+  static final byte COURSE = 2;
+  static final byte STUDENT = 3;
+  static final byte ENROLL = 4;
+
+  Path snapshot;
+  Path log;
+  FileChannel channel;
+  // records not yet written into the channel
+  ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+  // the store of the snapshot and every event since, which queries consult
+  RegistrarDelta delta;
+  // how many events the registrar holds
+  long events;
+  // where the record being written starts in the buffer
+  int recordStart;
+  // how many bytes were cut off the end of the log when it was opened
+  long dropped = 0;
+
+  RegistrarLog(Path dir) {
+    this.snapshot = dir.resolve("registrar.snapshot");
+    this.log = dir.resolve("registrar.log");
+  }
+
+  // opens the registrar kept in the directory, which is empty if there is none,
+  // and cuts off whatever a crash left of the last records of its log
+  static RegistrarLog open(Path dir) throws IOException {
+    return RegistrarLog.open(dir, WINDOW);
+  }
+
+  // opens the registrar, mapping the given number of bytes of its log at a time
+  static RegistrarLog open(Path dir, int window) throws IOException {
+    RegistrarLog registrar = new RegistrarLog(dir);
+    if (Files.exists(registrar.snapshot)) {
+      StoreFile file = StoreFile.read(registrar.snapshot);
+      registrar.delta = new RegistrarDelta(file.store);
+      registrar.events = file.events;
+    } else {
+      registrar.delta = new RegistrarDelta(new RegistrarStoreBuilder().build());
+      registrar.events = 0;
+    }
+    if (!Files.exists(registrar.log)) {
+      registrar.newLog();
+    }
+    long end = registrar.replay(Math.max(window, LOG_HEADER_SIZE));
+    registrar.channel = FileChannel.open(registrar.log, StandardOpenOption.WRITE);
+    registrar.channel.truncate(end);
+    registrar.channel.position(end);
+    return registrar;
+  }
+
+  // applies the records of the log which are not already in the snapshot, returning
+  // where the last whole record ends. A record which runs past the end of the
+  // window is read from a window mapped again where it starts, big enough to hold it.
+  long replay(int window) throws IOException {
+    try (FileChannel file = FileChannel.open(this.log, StandardOpenOption.READ)) {
+      long size = file.size();
+      if (size < LOG_HEADER_SIZE) {
+        throw new IOException(this.log.getFileName() + " is not a registrar log");
+      }
+      // where in the file the mapped window starts
+      long base = 0;
+      ByteBuffer in = file.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(window, size));
+      if (in.getInt() != LOG_MAGIC) {
+        throw new IOException(this.log.getFileName() + " is not a registrar log");
+      }
+      int version = in.getInt();
+      if (version != VERSION) {
+        throw new IOException("unknown version " + version + " of " + this.log.getFileName());
+      }
+      long event = in.getLong();
+      if (event > this.events) {
+        throw new IOException(this.log.getFileName() + " starts after the snapshot ends");
+      }
+      CRC32 crc = new CRC32();
+      long end = LOG_HEADER_SIZE;
+      while (size - end >= 4) {
+        if (in.remaining() < 4) {
+          base = end;
+          in = file.map(FileChannel.MapMode.READ_ONLY, base, Math.min(window, size - base));
+        }
+        int length = in.getInt(in.position());
+        if (length < 1 || length > size - end - 8 || length > Integer.MAX_VALUE - 8) {
+          break;
+        }
+        if (in.remaining() < 4 + length + 4) {
+          base = end;
+          in = file.map(FileChannel.MapMode.READ_ONLY, base,
+              Math.min(Math.max(window, 4 + length + 4), size - base));
+        }
+        int start = in.position();
+        in.position(start + 4);
+        ByteBuffer record = in.slice();
+        record.limit(length);
+        crc.reset();
+        crc.update(record.duplicate());
+        if ((int) crc.getValue() != in.getInt(start + 4 + length)) {
+          break;
+        }
+        in.position(start + 4 + length + 4);
+        end = base + in.position();
+        // records the snapshot already holds, left by a crash while compacting
+        if (event >= this.events) {
+          this.apply(record);
+          this.events += 1;
+        }
+        event += 1;
+      }
+      this.dropped = size - end;
+      return end;
+    }
+  }
+
+  // applies the event of the record to the delta
+  void apply(ByteBuffer record) throws IOException {
+    byte tag = record.get();
+    try {
+      switch (tag) {
+        case INSTRUCTOR:
+          this.delta.addInstructor(RegistrarLog.getString(record));
+          break;
+        case COURSE:
+          this.delta.addCourse(RegistrarLog.getString(record), record.getInt());
+          break;
+        case STUDENT:
+          this.delta.addStudent(RegistrarLog.getString(record), record.getInt());
+          break;
+        case ENROLL:
+          this.delta.enroll(record.getInt(), record.getInt());
+          break;
+        default:
+          throw new IOException("unknown record " + tag + " in " + this.log.getFileName());
+      }
+    } catch (IllegalArgumentException | BufferUnderflowException e) {
+      throw new IOException("bad record " + tag + " in " + this.log.getFileName(), e);
+    }
+  }
+
+  // returns a name written as its length and UTF-8 bytes
+  static String getString(ByteBuffer record) {
+    int length = record.getInt();
+    if (length < 0 || length > record.remaining()) {
+      throw new BufferUnderflowException();
+    }
+    byte[] utf8 = new byte[length];
+    record.get(utf8);
+    return new String(utf8, StandardCharsets.UTF_8);
+  }
+
+  // adds an instructor, returning its id
+  int addInstructor(String name) throws IOException {
+    byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+    this.startRecord(INSTRUCTOR, 4 + utf8.length);
+    this.buffer.putInt(utf8.length).put(utf8);
+    this.endRecord();
+    return this.delta.addInstructor(name);
+  }
+
+  // adds a course taught by the instructor, returning its id
+  int addCourse(String name, int prof) throws IOException {
+    RegistrarStoreBuilder.check("instructor", prof, this.delta.instructors());
+    byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+    this.startRecord(COURSE, 8 + utf8.length);
+    this.buffer.putInt(utf8.length).put(utf8).putInt(prof);
+    this.endRecord();
+    return this.delta.addCourse(name, prof);
+  }
+
+  // adds a student with the given id number, returning its id
+  int addStudent(String name, int id) throws IOException {
+    byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+    this.startRecord(STUDENT, 8 + utf8.length);
+    this.buffer.putInt(utf8.length).put(utf8).putInt(id);
+    this.endRecord();
+    return this.delta.addStudent(name, id);
+  }
+
+  // enrolls the student in the course
+  void enroll(int student, int course) throws IOException {
+    RegistrarStoreBuilder.check("student", student, this.delta.students());
+    RegistrarStoreBuilder.check("course", course, this.delta.courses());
+    this.startRecord(ENROLL, 8);
+    this.buffer.putInt(student).putInt(course);
+    this.endRecord();
+    this.delta.enroll(student, course);
+  }
+
+  // makes room in the buffer for a record of the tag and an event of the given size,
+  // and starts it
+  void startRecord(byte tag, int size) throws IOException {
+    int record = 4 + 1 + size + 4;
+    if (this.buffer.remaining() < record) {
+      this.flush();
+      if (this.buffer.capacity() < record) {
+        this.buffer = ByteBuffer.allocate(record);
+      }
+    }
+    this.recordStart = this.buffer.position();
+    this.buffer.putInt(1 + size).put(tag);
+  }
+
+  // ends the record started last with the CRC32 of its tag and event
+  void endRecord() {
+    CRC32 crc = new CRC32();
+    crc.update(this.buffer.array(), this.recordStart + 4,
+        this.buffer.position() - this.recordStart - 4);
+    this.buffer.putInt((int) crc.getValue());
+    this.events += 1;
+  }
+
+  // returns the store of every event so far, which is the store of the snapshot
+  // as it was loaded if nothing has happened since. Otherwise it is built anew, in
+  // time in the size of the whole registrar; queries should ask the delta instead.
+  RegistrarStore store() {
+    return this.delta.store();
+  }
+
+  // writes the buffered records into the log
+  void flush() throws IOException {
+    this.buffer.flip();
+    while (this.buffer.hasRemaining()) {
+      this.channel.write(this.buffer);
+    }
+    this.buffer.clear();
+  }
+
+  // writes the buffered records into the log and waits for them to reach the disk
+  void sync() throws IOException {
+    this.flush();
+    this.channel.force(false);
+  }
+
+  // writes a snapshot of every event so far and starts an empty log after it. A
+  // crash before the new log replaces the old leaves records the snapshot already
+  // holds, which opening skips.
+  void compact() throws IOException {
+    this.sync();
+    RegistrarStore store = this.store();
+    StoreFile.write(this.snapshot, store, this.events);
+    this.delta = new RegistrarDelta(store);
+    this.channel.close();
+    this.newLog();
+    this.channel = FileChannel.open(this.log, StandardOpenOption.WRITE);
+    this.channel.position(this.channel.size());
+  }
+
+  // replaces the log with one of no records, starting after the events so far
+  void newLog() throws IOException {
+    Path temp = this.log.resolveSibling(this.log.getFileName() + ".tmp");
+    try (FileChannel file = FileChannel.open(temp, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+      header.putInt(LOG_MAGIC).putInt(VERSION).putLong(this.events).flip();
+      while (header.hasRemaining()) {
+        file.write(header);
+      }
+      file.force(true);
+    }
+    Files.move(temp, this.log, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  // writes everything to the disk and closes the log
+  void close() throws IOException {
+    this.sync();
+    this.channel.close();
+  }
+}
+
+// the events of a RegistrarLog since the store of its snapshot, kept beside the
+// store rather than folded into it, which is never changed. Students, courses and
+// instructors added since take the ids after those of the store; enrollments since
+// are kept as DeltaRows of the students and courses they touch, holding only what
+// the store does not, and queries merge them with the rows of the store.
+class RegistrarDelta {
+  RegistrarStore store;
+  ArrayList<String> studentNames = new ArrayList<String>();
+  ArrayList<String> courseNames = new ArrayList<String>();
+  ArrayList<String> instructorNames = new ArrayList<String>();
+  // the id numbers of the students added since, and the instructors of the courses
+  int[] studentIds = new int[16];
+  int[] courseProfs = new int[16];
+  // the courses each student has enrolled in since, the students each course has
+  // had enroll since, and the courses added since of each instructor
+  DeltaRows courses = new DeltaRows();
+  DeltaRows rosters = new DeltaRows();
+  DeltaRows taught = new DeltaRows();
+  // how many events changed anything
+  int changes = 0;
+
+  RegistrarDelta(RegistrarStore store) {
+    this.store = store;
+  }
+
+  int students() {
+    return this.store.students() + this.studentNames.size();
+  }
+
+  int courses() {
+    return this.store.courses() + this.courseNames.size();
+  }
+
+  int instructors() {
+    return this.store.instructors() + this.instructorNames.size();
+  }
+
+  // adds an instructor, returning its id
+  int addInstructor(String name) {
+    this.instructorNames.add(name);
+    this.changes += 1;
+    return this.instructors() - 1;
+  }
+
+  // adds a course taught by the instructor, returning its id
+  int addCourse(String name, int prof) {
+    RegistrarStoreBuilder.check("instructor", prof, this.instructors());
+    int course = this.courses();
+    int index = this.courseNames.size();
+    this.courseNames.add(name);
+    this.courseProfs = RegistrarStoreBuilder.grow(this.courseProfs, index);
+    this.courseProfs[index] = prof;
+    this.taught.add(prof, course);
+    this.changes += 1;
+    return course;
+  }
+
+  // adds a student with the given id number, returning its id
+  int addStudent(String name, int id) {
+    int index = this.studentNames.size();
+    this.studentNames.add(name);
+    this.studentIds = RegistrarStoreBuilder.grow(this.studentIds, index);
+    this.studentIds[index] = id;
+    this.changes += 1;
+    return this.students() - 1;
+  }
+
+  // enrolls the student in the course; enrolling twice is the same as once
+  void enroll(int student, int course) {
+    RegistrarStoreBuilder.check("student", student, this.students());
+    RegistrarStoreBuilder.check("course", course, this.courses());
+    if (student < this.store.students() && Arrays.binarySearch(this.store.courses,
+        this.store.courseStart[student], this.store.courseStart[student + 1], course) >= 0) {
+      return;
+    }
+    this.courses.add(student, course);
+    this.rosters.add(course, student);
+    this.changes += 1;
+  }
+
+  // returns the courses of the student, sorted
+  int[] coursesOf(int student) {
+    return RegistrarDelta.row(this.store.courseStart, this.store.courses, student,
+        this.courses, student);
+  }
+
+  // returns the students of the course, sorted
+  int[] studentsOf(int course) {
+    return RegistrarDelta.row(this.store.rosterStart, this.store.rosters, course,
+        this.rosters, course);
+  }
+
+  // returns the courses the instructor teaches, sorted
+  int[] taughtBy(int instructor) {
+    return RegistrarDelta.row(this.store.taughtStart, this.store.taught, instructor,
+        this.taught, instructor);
+  }
+
+  // are the two students in any of the same courses
+  boolean classmates(int student1, int student2) {
+    if (this.courses.isEmpty(student1) && this.courses.isEmpty(student2)
+        && student1 < this.store.students() && student2 < this.store.students()) {
+      return this.store.classmates(student1, student2);
+    }
+    int[] courses1 = this.coursesOf(student1);
+    int[] courses2 = this.coursesOf(student2);
+    int i = 0;
+    int j = 0;
+    while (i < courses1.length && j < courses2.length) {
+      if (courses1[i] == courses2[j]) {
+        return true;
+      } else if (courses1[i] < courses2[j]) {
+        i += 1;
+      } else {
+        j += 1;
+      }
+    }
+    return false;
+  }
+
+  // is the student in two courses with the same instructor
+  boolean dejavu(int student) {
+    if (this.courses.isEmpty(student) && student < this.store.students()) {
+      return this.store.dejavu(student);
+    }
+    int[] profs = this.coursesOf(student);
+    for (int i = 0; i < profs.length; i += 1) {
+      profs[i] = this.prof(profs[i]);
+    }
+    Arrays.sort(profs);
+    for (int i = 1; i < profs.length; i += 1) {
+      if (profs[i] == profs[i - 1]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // are the two courses taught by the same instructor
+  boolean sameProf(int course1, int course2) {
+    return this.prof(course1) == this.prof(course2);
+  }
+
+  // returns the instructor of the course
+  int prof(int course) {
+    if (course < this.store.courses()) {
+      return this.store.courseProfs[course];
+    }
+    return this.courseProfs[course - this.store.courses()];
+  }
+
+  // returns a store of everything in the store and every event since, which is the
+  // store itself if no event changed anything
+  RegistrarStore store() {
+    if (this.changes == 0) {
+      return this.store;
+    }
+    RegistrarStoreBuilder builder = RegistrarStoreBuilder.of(this.store);
+    for (String name : this.instructorNames) {
+      builder.addInstructor(name);
+    }
+    for (int i = 0; i < this.courseNames.size(); i += 1) {
+      builder.addCourse(this.courseNames.get(i), this.courseProfs[i]);
+    }
+    for (int i = 0; i < this.studentNames.size(); i += 1) {
+      builder.addStudent(this.studentNames.get(i), this.studentIds[i]);
+    }
+    for (int i = 0; i < this.students(); i += 1) {
+      int length = this.courses.sort(i);
+      for (int j = 0; j < length; j += 1) {
+        builder.enroll(i, this.courses.rows[i][j]);
+      }
+    }
+    return builder.build();
+  }
+
+  // returns the row of the CSR rows with the given starts, which is empty if the
+  // rows end before it, merged with the row of the delta rows, which holds none of
+  // the same ids
+  static int[] row(int[] start, int[] rows, int id, DeltaRows delta, int deltaId) {
+    int from = id + 1 < start.length ? start[id] : 0;
+    int to = id + 1 < start.length ? start[id + 1] : 0;
+    int length = delta.sort(deltaId);
+    if (length == 0) {
+      return Arrays.copyOfRange(rows, from, to);
+    }
+    int[] added = delta.rows[deltaId];
+    int[] row = new int[to - from + length];
+    int i = from;
+    int j = 0;
+    for (int k = 0; k < row.length; k += 1) {
+      if (j == length || (i < to && rows[i] < added[j])) {
+        row[k] = rows[i];
+        i += 1;
+      } else {
+        row[k] = added[j];
+        j += 1;
+      }
+    }
+    return row;
+  }
+}
+
+// rows of ids added to a RegistrarDelta, one per student, course or instructor,
+// each kept in the order the ids were added and only sorted, with repeats closed
+// up, when it is next read, so adding to a long row costs no more than a short one
+class DeltaRows {
+  int[][] rows = new int[16][];
+  // how many ids each row holds, and how many of them were sorted when it was read
+  int[] lengths = new int[16];
+  int[] sorted = new int[16];
+
+  // adds the id to the row
+  void add(int row, int id) {
+    if (row >= this.rows.length) {
+      int length = Math.max(row + 1, this.rows.length * 2);
+      this.rows = Arrays.copyOf(this.rows, length);
+      this.lengths = Arrays.copyOf(this.lengths, length);
+      this.sorted = Arrays.copyOf(this.sorted, length);
+    }
+    if (this.rows[row] == null) {
+      this.rows[row] = new int[4];
+    }
+    this.rows[row] = RegistrarStoreBuilder.grow(this.rows[row], this.lengths[row]);
+    this.rows[row][this.lengths[row]] = id;
+    this.lengths[row] += 1;
+  }
+
+  // is nothing added to the row
+  boolean isEmpty(int row) {
+    return row >= this.rows.length || this.lengths[row] == 0;
+  }
+
+  // sorts the row and closes up its repeats, returning how many ids it then holds
+  int sort(int row) {
+    if (this.isEmpty(row)) {
+      return 0;
+    }
+    if (this.sorted[row] < this.lengths[row]) {
+      int[] ids = this.rows[row];
+      Arrays.sort(ids, 0, this.lengths[row]);
+      int end = 1;
+      for (int i = 1; i < this.lengths[row]; i += 1) {
+        if (ids[i] != ids[end - 1]) {
+          ids[end] = ids[i];
+          end += 1;
+        }
+      }
+      this.lengths[row] = end;
+      this.sorted[row] = end;
+    }
+    return this.lengths[row];
+  }
+}
+
+class ExamplesRegistrarLog {
+  // deletes the files of the directory and then the directory
+  void delete(Path dir) throws IOException {
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+      for (Path file : files) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(dir);
+  }
+
+  // are the two stores the same
+  boolean same(RegistrarStore a, RegistrarStore b) {
+    return Arrays.equals(a.instructorNames, b.instructorNames)
+        && Arrays.equals(a.courseNames, b.courseNames)
+        && Arrays.equals(a.courseProfs, b.courseProfs)
+        && Arrays.equals(a.studentNames, b.studentNames)
+        && Arrays.equals(a.studentIds, b.studentIds)
+        && Arrays.equals(a.courseStart, b.courseStart)
+        && Arrays.equals(a.courses, b.courses)
+        && Arrays.equals(a.rosterStart, b.rosterStart)
+        && Arrays.equals(a.rosters, b.rosters)
+        && Arrays.equals(a.taughtStart, b.taughtStart)
+        && Arrays.equals(a.taught, b.taught);
+  }
+
+  // adds a small registrar to the log, returning the size of the log after each event
+  ArrayList<Long> fill(RegistrarLog registrar) throws IOException {
+    ArrayList<Long> ends = new ArrayList<Long>();
+    registrar.addInstructor("Razzaq");
+    ends.add(this.size(registrar));
+    registrar.addInstructor("Smith");
+    ends.add(this.size(registrar));
+    registrar.addCourse("Fundies 2", 0);
+    ends.add(this.size(registrar));
+    registrar.addCourse("Calculus", 0);
+    ends.add(this.size(registrar));
+    registrar.addCourse("English", 1);
+    ends.add(this.size(registrar));
+    registrar.addStudent("Micah", 27390);
+    ends.add(this.size(registrar));
+    registrar.addStudent("Daniël", 27978);
+    ends.add(this.size(registrar));
+    registrar.enroll(0, 0);
+    ends.add(this.size(registrar));
+    registrar.enroll(0, 1);
+    ends.add(this.size(registrar));
+    registrar.enroll(1, 2);
+    ends.add(this.size(registrar));
+    return ends;
+  }
+
+  // returns the size of the log once everything buffered is written
+  long size(RegistrarLog registrar) throws IOException {
+    registrar.flush();
+    return registrar.channel.size();
+  }
+
+  boolean testStoreFile(Tester t) throws IOException {
+    boolean res = true;
+    RegistrarGen gen = new RegistrarGen(300, 40, 10, 4, 1.0, 13);
+    RegistrarStore store = RegistrarStoreBuilder.of(gen.students, gen.courses,
+        gen.instructors);
+    Path dir = Files.createTempDirectory("registrar");
+    try {
+      Path path = dir.resolve("store");
+      StoreFile.write(path, store, 1234);
+      StoreFile file = StoreFile.read(path);
+      res &= t.checkExpect(file.events, 1234L);
+      res &= t.checkExpect(same(file.store, store), true);
+      res &= t.checkExpect(file.store.dejavu(3), store.dejavu(3));
+      res &= t.checkExpect(Files.exists(dir.resolve("store.tmp")), false);
+
+      // a store of nothing
+      StoreFile.write(path, new RegistrarStoreBuilder().build(), 0);
+      res &= t.checkExpect(StoreFile.read(path).store.students(), 0);
+
+      // a changed byte fails the CRC
+      StoreFile.write(path, store, 1234);
+      byte[] bytes = Files.readAllBytes(path);
+      bytes[bytes.length / 2] ^= 1;
+      Files.write(path, bytes);
+      String error = "";
+      try {
+        StoreFile.read(path);
+      } catch (IOException e) {
+        error = e.getMessage();
+      }
+      res &= t.checkExpect(error, "store is corrupt");
+
+      Files.write(path, new byte[100]);
+      error = "";
+      try {
+        StoreFile.read(path);
+      } catch (IOException e) {
+        error = e.getMessage();
+      }
+      res &= t.checkExpect(error, "store is not a registrar store");
+    } finally {
+      delete(dir);
+    }
+
+    return res;
+  }
+
+  boolean testReopen(Tester t) throws IOException {
+    boolean res = true;
+    Path dir = Files.createTempDirectory("registrar");
+    try {
+      RegistrarLog registrar = RegistrarLog.open(dir);
+      fill(registrar);
+      RegistrarStore store = registrar.store();
+      res &= t.checkExpect(registrar.events, 10L);
+      res &= t.checkExpect(store.studentNames, new String[] {"Micah", "Daniël"});
+      res &= t.checkExpect(store.coursesOf(0), new int[] {0, 1});
+      res &= t.checkExpect(store.dejavu(0), true);
+      registrar.close();
+
+      RegistrarLog again = RegistrarLog.open(dir);
+      res &= t.checkExpect(again.events, 10L);
+      res &= t.checkExpect(again.dropped, 0L);
+      res &= t.checkExpect(same(again.store(), store), true);
+
+      // ids must exist before they are logged
+      String error = "";
+      try {
+        again.enroll(2, 0);
+      } catch (IllegalArgumentException e) {
+        error = e.getMessage();
+      }
+      res &= t.checkExpect(error, "no student with id 2");
+      res &= t.checkExpect(again.events, 10L);
+      again.close();
+      RegistrarLog third = RegistrarLog.open(dir);
+      res &= t.checkExpect(third.events, 10L);
+      third.close();
+    } finally {
+      delete(dir);
+    }
+
+    return res;
+  }
+
+  // a log cut off at any byte, as by a crash, opens as every whole record before the
+  // cut, and the log can be written to and opened again after
+  boolean testTruncatedLog(Tester t) throws IOException {
+    boolean res = true;
+    Path dir = Files.createTempDirectory("registrar");
+    try {
+      RegistrarLog registrar = RegistrarLog.open(dir);
+      ArrayList<Long> ends = fill(registrar);
+      registrar.close();
+      byte[] whole = Files.readAllBytes(registrar.log);
+
+      // a window of 16 bytes is shorter than most records, which must be mapped again
+      boolean recovered = true;
+      for (int window : new int[] {RegistrarLog.WINDOW, 16}) {
+        for (int cut = RegistrarLog.LOG_HEADER_SIZE; cut <= whole.length; cut += 1) {
+          Files.write(registrar.log, Arrays.copyOf(whole, cut));
+          long records = 0;
+          long end = RegistrarLog.LOG_HEADER_SIZE;
+          while (records < ends.size() && ends.get((int) records) <= cut) {
+            end = ends.get((int) records);
+            records += 1;
+          }
+          RegistrarLog torn = RegistrarLog.open(dir, window);
+          recovered &= torn.events == records;
+          recovered &= torn.dropped == cut - end;
+          recovered &= Files.size(registrar.log) == end;
+          torn.addInstructor("Doe");
+          torn.close();
+          RegistrarLog reopened = RegistrarLog.open(dir, window);
+          recovered &= reopened.events == records + 1;
+          recovered &= reopened.dropped == 0;
+          reopened.close();
+        }
+      }
+      res &= t.checkExpect(recovered, true);
+
+      // a log too short for its header is not a log
+      Files.write(registrar.log, Arrays.copyOf(whole, 10));
+      String error = "";
+      try {
+        RegistrarLog.open(dir);
+      } catch (IOException e) {
+        error = e.getMessage();
+      }
+      res &= t.checkExpect(error, "registrar.log is not a registrar log");
+    } finally {
+      delete(dir);
+    }
+
+    return res;
+  }
+
+  // a record changed by a crash fails its CRC, and it and everything after are dropped
+  boolean testCorruptRecord(Tester t) throws IOException {
+    boolean res = true;
+    Path dir = Files.createTempDirectory("registrar");
+    try {
+      RegistrarLog registrar = RegistrarLog.open(dir);
+      ArrayList<Long> ends = fill(registrar);
+      registrar.close();
+      byte[] bytes = Files.readAllBytes(registrar.log);
+      // the name of the second student
+      bytes[(int) (ends.get(5) + 10)] ^= 0x20;
+      Files.write(registrar.log, bytes);
+
+      RegistrarLog torn = RegistrarLog.open(dir);
+      res &= t.checkExpect(torn.events, 6L);
+      res &= t.checkExpect(torn.dropped, bytes.length - ends.get(5));
+      res &= t.checkExpect(torn.store().studentNames, new String[] {"Micah"});
+      torn.close();
+    } finally {
+      delete(dir);
+    }
+
+    return res;
+  }
+
+  // does the delta answer every query as the store does
+  boolean agrees(RegistrarDelta delta, RegistrarStore store) {
+    boolean same = delta.students() == store.students() && delta.courses() == store.courses()
+        && delta.instructors() == store.instructors();
+    for (int i = 0; i < store.students(); i += 1) {
+      same &= Arrays.equals(delta.coursesOf(i), store.coursesOf(i));
+      same &= delta.dejavu(i) == store.dejavu(i);
+      for (int j = 0; j < store.students(); j += 7) {
+        same &= delta.classmates(i, j) == store.classmates(i, j);
+      }
+    }
+    for (int i = 0; i < store.courses(); i += 1) {
+      same &= Arrays.equals(delta.studentsOf(i), store.studentsOf(i));
+      same &= delta.sameProf(i, i / 2) == store.sameProf(i, i / 2);
+    }
+    for (int i = 0; i < store.instructors(); i += 1) {
+      same &= Arrays.equals(delta.taughtBy(i), store.taughtBy(i));
+    }
+    return same;
+  }
+
+  // events after a snapshot are replayed beside its store, not into a copy of it,
+  // and queries see both
+  boolean testDelta(Tester t) throws IOException {
+    boolean res = true;
+    Path dir = Files.createTempDirectory("registrar");
+    try {
+      RegistrarLog registrar = RegistrarLog.open(dir);
+      LogBench.fill(registrar, 300, 40, 10, 3, 1.0, 17);
+      registrar.compact();
+      RegistrarStore snapshot = registrar.store();
+      RegistrarStoreBuilder all = RegistrarStoreBuilder.of(snapshot);
+
+      // new instructors, courses and students, and enrollments of old and new,
+      // some of which the snapshot already holds
+      Random random = new Random(5);
+      for (int i = 0; i < 3; i += 1) {
+        all.addInstructor("New instructor " + i);
+        registrar.addInstructor("New instructor " + i);
+      }
+      for (int i = 0; i < 10; i += 1) {
+        int prof = random.nextInt(13);
+        all.addCourse("New course " + i, prof);
+        registrar.addCourse("New course " + i, prof);
+      }
+      for (int i = 0; i < 30; i += 1) {
+        all.addStudent("New student " + i, 90000 + i);
+        registrar.addStudent("New student " + i, 90000 + i);
+      }
+      for (int i = 0; i < 400; i += 1) {
+        int student = random.nextInt(330);
+        int course = random.nextInt(50);
+        int[] held = snapshot.coursesOf(student % 300);
+        if (i % 4 == 0 && held.length > 0) {
+          student = student % 300;
+          course = held[0];
+        }
+        all.enroll(student, course);
+        registrar.enroll(student, course);
+      }
+      RegistrarStore store = all.build();
+      res &= t.checkExpect(registrar.delta.store == snapshot, true);
+      res &= t.checkExpect(agrees(registrar.delta, store), true);
+      res &= t.checkExpect(same(registrar.store(), store), true);
+      registrar.close();
+
+      // the tail is replayed beside the snapshot when the registrar opens again
+      RegistrarLog again = RegistrarLog.open(dir, 64);
+      res &= t.checkExpect(again.events, registrar.events);
+      res &= t.checkExpect(again.delta.store.students(), 300);
+      res &= t.checkExpect(agrees(again.delta, store), true);
+      res &= t.checkExpect(same(again.store(), store), true);
+      again.compact();
+      res &= t.checkExpect(again.delta.store.students(), 330);
+      res &= t.checkExpect(again.delta.changes, 0);
+      res &= t.checkExpect(agrees(again.delta, store), true);
+      again.close();
+    } finally {
+      delete(dir);
+    }
+
+    return res;
+  }
+
+  boolean testCompact(Tester t) throws IOException {
+    boolean res = true;
+    Path dir = Files.createTempDirectory("registrar");
+    try {
+      RegistrarLog registrar = RegistrarLog.open(dir);
+      fill(registrar);
+      byte[] before = Files.readAllBytes(registrar.log);
+      registrar.compact();
+      res &= t.checkExpect(Files.size(registrar.log), (long) RegistrarLog.LOG_HEADER_SIZE);
+      registrar.addStudent("Aidan", 27600);
+      registrar.enroll(2, 2);
+      RegistrarStore store = registrar.store();
+      registrar.close();
+
+      // opening loads the snapshot and replays only what came after
+      RegistrarLog again = RegistrarLog.open(dir);
+      res &= t.checkExpect(again.events, 12L);
+      res &= t.checkExpect(same(again.store(), store), true);
+      res &= t.checkExpect(again.store().studentsOf(2), new int[] {1, 2});
+      again.compact();
+      again.close();
+      RegistrarLog compacted = RegistrarLog.open(dir);
+      res &= t.checkExpect(same(compacted.store(), store), true);
+      compacted.close();
+
+      // a crash after the snapshot is written but before the log is replaced leaves
+      // the old log, whose records the snapshot already holds
+      Files.write(registrar.log, before);
+      RegistrarLog crashed = RegistrarLog.open(dir);
+      res &= t.checkExpect(crashed.events, 12L);
+      res &= t.checkExpect(same(crashed.store(), store), true);
+      crashed.close();
+
+      // without the snapshot the old log is all there is
+      Files.delete(registrar.snapshot);
+      RegistrarLog replayed = RegistrarLog.open(dir);
+      res &= t.checkExpect(replayed.events, 10L);
+      replayed.close();
+
+      // but a log which starts after the snapshot has lost events
+      ByteBuffer header = ByteBuffer.wrap(Arrays.copyOf(before, RegistrarLog.LOG_HEADER_SIZE));
+      header.putLong(8, 5);
+      Files.write(registrar.log, header.array());
+      String error = "";
+      try {
+        RegistrarLog.open(dir);
+      } catch (IOException e) {
+        error = e.getMessage();
+      }
+      res &= t.checkExpect(error, "registrar.log starts after the snapshot ends");
+    } finally {
+      delete(dir);
+    }
+
+    return res;
+  }
+}
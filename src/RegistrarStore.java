@@ -0,0 +1,541 @@
+import java.util.*;
+import tester.Tester;
+
+// a registrar kept in columns rather than objects: students, courses and
+// instructors are dense int ids, their names are tables indexed by those ids,
+// and who takes and teaches what is kept CSR-style, as one int array of every
+// row laid end to end and an array of where each row starts. Rows are sorted
+// and without repeats. Built with a RegistrarStoreBuilder, and never changed, so
+// any number of threads may query one store at once.
+class RegistrarStore {
+  // the longest row of courses dejavu compares pair by pair rather than sorting
+  static final int DEJAVU_PAIRS = 16;
+
+  String[] studentNames;
+  // the id numbers of the students, as given to Student
+  int[] studentIds;
+  String[] courseNames;
+  // the instructor of each course
+  int[] courseProfs;
+  String[] instructorNames;
+
+  // the courses of student s are courses[courseStart[s]] up to courses[courseStart[s + 1]]
+  int[] courseStart;
+  int[] courses;
+  // likewise the students of each course, and the courses of each instructor
+  int[] rosterStart;
+  int[] rosters;
+  int[] taughtStart;
+  int[] taught;
+
+  RegistrarStore(String[] studentNames, int[] studentIds, String[] courseNames,
+      int[] courseProfs, String[] instructorNames, int[][] courses, int[][] rosters,
+      int[][] taught) {
+    this.studentNames = studentNames;
+    this.studentIds = studentIds;
+    this.courseNames = courseNames;
+    this.courseProfs = courseProfs;
+    this.instructorNames = instructorNames;
+    this.courseStart = courses[0];
+    this.courses = courses[1];
+    this.rosterStart = rosters[0];
+    this.rosters = rosters[1];
+    this.taughtStart = taught[0];
+    this.taught = taught[1];
+  }
+
+  int students() {
+    return this.studentNames.length;
+  }
+
+  int courses() {
+    return this.courseNames.length;
+  }
+
+  int instructors() {
+    return this.instructorNames.length;
+  }
+
+  // returns the courses of the student, sorted
+  int[] coursesOf(int student) {
+    return Arrays.copyOfRange(this.courses, this.courseStart[student],
+        this.courseStart[student + 1]);
+  }
+
+  // returns the students of the course, sorted
+  int[] studentsOf(int course) {
+    return Arrays.copyOfRange(this.rosters, this.rosterStart[course],
+        this.rosterStart[course + 1]);
+  }
+
+  // returns the courses the instructor teaches, sorted
+  int[] taughtBy(int instructor) {
+    return Arrays.copyOfRange(this.taught, this.taughtStart[instructor],
+        this.taughtStart[instructor + 1]);
+  }
+
+  // are the two students in any of the same courses, walking both sorted rows
+  // until they meet, as Student.classmates does
+  boolean classmates(int student1, int student2) {
+    int i = this.courseStart[student1];
+    int iEnd = this.courseStart[student1 + 1];
+    int j = this.courseStart[student2];
+    int jEnd = this.courseStart[student2 + 1];
+    while (i < iEnd && j < jEnd) {
+      if (this.courses[i] == this.courses[j]) {
+        return true;
+      } else if (this.courses[i] < this.courses[j]) {
+        i += 1;
+      } else {
+        j += 1;
+      }
+    }
+    return false;
+  }
+
+  // is the student in two courses with the same instructor, as Student.dejavu
+  // answers. Only the student's own row is touched: a short one is compared pair
+  // by pair, and a long one has its instructors sorted into an array of its own
+  // so repeats sit side by side, so queries share nothing and need no locking.
+  boolean dejavu(int student) {
+    int start = this.courseStart[student];
+    int end = this.courseStart[student + 1];
+    if (end - start <= DEJAVU_PAIRS) {
+      for (int i = start; i < end; i += 1) {
+        int prof = this.courseProfs[this.courses[i]];
+        for (int j = start; j < i; j += 1) {
+          if (this.courseProfs[this.courses[j]] == prof) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+    int[] profs = new int[end - start];
+    for (int i = start; i < end; i += 1) {
+      profs[i - start] = this.courseProfs[this.courses[i]];
+    }
+    Arrays.sort(profs);
+    for (int i = 1; i < profs.length; i += 1) {
+      if (profs[i] == profs[i - 1]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // are the two courses taught by the same instructor
+  boolean sameProf(int course1, int course2) {
+    return this.courseProfs[course1] == this.courseProfs[course2];
+  }
+}
+
+// collects the students, courses, instructors and enrollments of a RegistrarStore,
+// handing out the ids of each in the order they are added
+class RegistrarStoreBuilder {
+  ArrayList<String> studentNames = new ArrayList<String>();
+  ArrayList<String> courseNames = new ArrayList<String>();
+  ArrayList<String> instructorNames = new ArrayList<String>();
+  int[] studentIds = new int[16];
+  int[] courseProfs = new int[16];
+  // the student and course of each enrollment
+  int[] enrolledStudents = new int[16];
+  int[] enrolledCourses = new int[16];
+  int enrollments = 0;
+
+  // returns a store of the registrar built from the given objects, whose ids are
+  // their indices in the arrays. Every course must be taught by one of the
+  // instructors and every course a student takes must be one of the courses.
+  static RegistrarStore of(Student[] students, Course[] courses, Instructor[] instructors) {
+    RegistrarStoreBuilder builder = new RegistrarStoreBuilder();
+    IdentityHashMap<Instructor, Integer> profIds = new IdentityHashMap<Instructor, Integer>();
+    for (Instructor i : instructors) {
+      profIds.put(i, builder.addInstructor(i.name));
+    }
+    IdentityHashMap<Course, Integer> courseIds = new IdentityHashMap<Course, Integer>();
+    for (Course c : courses) {
+      Integer prof = profIds.get(c.prof);
+      if (prof == null) {
+        throw new IllegalArgumentException("course " + c.name + " has an unknown instructor");
+      }
+      courseIds.put(c, builder.addCourse(c.name, prof));
+    }
+    for (Student s : students) {
+      int student = builder.addStudent(s.name, s.id);
+      s.courses.fold((res, c) -> {
+        Integer course = courseIds.get(c);
+        if (course == null) {
+          throw new IllegalArgumentException(
+              "student " + s.name + " takes unknown course " + c.name);
+        }
+        builder.enroll(student, course);
+        return res;
+      }, null);
+    }
+    return builder.build();
+  }
+
+  // returns a builder of everything in the store, with the same ids
+  static RegistrarStoreBuilder of(RegistrarStore store) {
+    RegistrarStoreBuilder builder = new RegistrarStoreBuilder();
+    builder.instructorNames.addAll(Arrays.asList(store.instructorNames));
+    for (int i = 0; i < store.courses(); i += 1) {
+      builder.addCourse(store.courseNames[i], store.courseProfs[i]);
+    }
+    for (int i = 0; i < store.students(); i += 1) {
+      builder.addStudent(store.studentNames[i], store.studentIds[i]);
+    }
+    builder.enrolledStudents = new int[Math.max(16, store.courses.length)];
+    builder.enrolledCourses = new int[Math.max(16, store.courses.length)];
+    for (int i = 0; i < store.students(); i += 1) {
+      for (int j = store.courseStart[i]; j < store.courseStart[i + 1]; j += 1) {
+        builder.enrolledStudents[builder.enrollments] = i;
+        builder.enrolledCourses[builder.enrollments] = store.courses[j];
+        builder.enrollments += 1;
+      }
+    }
+    return builder;
+  }
+
+  // adds an instructor, returning its id
+  int addInstructor(String name) {
+    this.instructorNames.add(name);
+    return this.instructorNames.size() - 1;
+  }
+
+  // adds a course taught by the instructor, returning its id
+  int addCourse(String name, int prof) {
+    RegistrarStoreBuilder.check("instructor", prof, this.instructorNames.size());
+    int course = this.courseNames.size();
+    this.courseNames.add(name);
+    this.courseProfs = RegistrarStoreBuilder.grow(this.courseProfs, course);
+    this.courseProfs[course] = prof;
+    return course;
+  }
+
+  // adds a student with the given id number, returning its id
+  int addStudent(String name, int id) {
+    int student = this.studentNames.size();
+    this.studentNames.add(name);
+    this.studentIds = RegistrarStoreBuilder.grow(this.studentIds, student);
+    this.studentIds[student] = id;
+    return student;
+  }
+
+  // enrolls the student in the course; enrolling twice is the same as once
+  void enroll(int student, int course) {
+    RegistrarStoreBuilder.check("student", student, this.studentNames.size());
+    RegistrarStoreBuilder.check("course", course, this.courseNames.size());
+    this.enrolledStudents = RegistrarStoreBuilder.grow(this.enrolledStudents, this.enrollments);
+    this.enrolledCourses = RegistrarStoreBuilder.grow(this.enrolledCourses, this.enrollments);
+    this.enrolledStudents[this.enrollments] = student;
+    this.enrolledCourses[this.enrollments] = course;
+    this.enrollments += 1;
+  }
+
+  // returns the store of everything added so far
+  RegistrarStore build() {
+    int students = this.studentNames.size();
+    int courses = this.courseNames.size();
+    int instructors = this.instructorNames.size();
+    int[] courseIds = new int[courses];
+    for (int i = 0; i < courses; i += 1) {
+      courseIds[i] = i;
+    }
+    return new RegistrarStore(this.studentNames.toArray(new String[students]),
+        Arrays.copyOf(this.studentIds, students),
+        this.courseNames.toArray(new String[courses]),
+        Arrays.copyOf(this.courseProfs, courses),
+        this.instructorNames.toArray(new String[instructors]),
+        RegistrarStoreBuilder.rows(this.enrolledStudents, this.enrolledCourses,
+            this.enrollments, students),
+        RegistrarStoreBuilder.rows(this.enrolledCourses, this.enrolledStudents,
+            this.enrollments, courses),
+        RegistrarStoreBuilder.rows(this.courseProfs, courseIds, courses, instructors));
+  }
+
+  // returns the CSR rows of the first count pairs of from and to, as the starts of
+  // the n rows followed by where the last ends, and the rows themselves, each
+  // sorted and without repeats
+  static int[][] rows(int[] from, int[] to, int count, int n) {
+    int[] start = new int[n + 1];
+    for (int i = 0; i < count; i += 1) {
+      start[from[i] + 1] += 1;
+    }
+    for (int i = 0; i < n; i += 1) {
+      start[i + 1] += start[i];
+    }
+    int[] rows = new int[count];
+    int[] next = Arrays.copyOf(start, n);
+    for (int i = 0; i < count; i += 1) {
+      rows[next[from[i]]] = to[i];
+      next[from[i]] += 1;
+    }
+    // sort each row and close up the repeats, moving every row down to the end
+    // of the row before it
+    int end = 0;
+    for (int i = 0; i < n; i += 1) {
+      Arrays.sort(rows, start[i], start[i + 1]);
+      int rowStart = end;
+      for (int j = start[i]; j < start[i + 1]; j += 1) {
+        if (end == rowStart || rows[end - 1] != rows[j]) {
+          rows[end] = rows[j];
+          end += 1;
+        }
+      }
+      start[i] = rowStart;
+    }
+    start[n] = end;
+    return new int[][] {start, end == count ? rows : Arrays.copyOf(rows, end)};
+  }
+
+  // returns the array, or a copy twice as long if it has no room at the index
+  static int[] grow(int[] array, int index) {
+    if (index < array.length) {
+      return array;
+    }
+    return Arrays.copyOf(array, Math.max(16, array.length * 2));
+  }
+
+  // throws if the id is not one of the count ids of its kind
+  static void check(String kind, int id, int count) {
+    if (id < 0 || id >= count) {
+      throw new IllegalArgumentException("no " + kind + " with id " + id);
+    }
+  }
+}
+
+class ExamplesRegistrarStore {
+  Student micah;
+  Student jackson;
+  Student aidan;
+  Student daniel;
+  Student jacob;
+
+  Instructor razzaq;
+  Instructor smith;
+  Instructor doe;
+
+  Course fundies;
+  Course calc;
+  Course eng;
+  Course his;
+
+  Student[] students;
+  Course[] courses;
+  Instructor[] instructors;
+
+  // gives all objects data, as ExamplesRegistrar does
+  void create() {
+    micah = new Student("Micah", 27390);
+    jackson = new Student("Jackson", 27140);
+    aidan = new Student("Aidan", 27600);
+    jacob = new Student("Jacob", 27740);
+    daniel = new Student("Daniel", 27978);
+
+    razzaq = new Instructor("Razzaq");
+    smith = new Instructor("Smith");
+    doe = new Instructor("Doe");
+
+    fundies = new Course("Fundies 2", razzaq);
+    calc = new Course("Calculus", razzaq);
+    eng = new Course("English", smith);
+    his = new Course("History", smith);
+
+    micah.enroll(fundies);
+    micah.enroll(calc);
+
+    jackson.enroll(fundies);
+    jackson.enroll(his);
+
+    aidan.enroll(calc);
+    aidan.enroll(eng);
+
+    daniel.enroll(eng);
+    daniel.enroll(his);
+
+    students = new Student[] {micah, jackson, aidan, daniel, jacob};
+    courses = new Course[] {fundies, calc, eng, his};
+    instructors = new Instructor[] {razzaq, smith, doe};
+  }
+
+  // does the store answer every query the same as the objects it was built from
+  boolean agrees(RegistrarStore store, Student[] students, Course[] courses) {
+    boolean same = true;
+    for (int i = 0; i < students.length; i += 1) {
+      same &= store.dejavu(i) == students[i].dejavu(null);
+      for (int j = 0; j < students.length; j += 1) {
+        same &= store.classmates(i, j) == students[i].classmates(students[j]);
+      }
+    }
+    for (int i = 0; i < courses.length; i += 1) {
+      for (int j = 0; j < courses.length; j += 1) {
+        same &= store.sameProf(i, j) == courses[i].sameProf(courses[j]);
+      }
+    }
+    return same;
+  }
+
+  boolean testOf(Tester t) {
+    create();
+    boolean res = true;
+    RegistrarStore store = RegistrarStoreBuilder.of(students, courses, instructors);
+
+    res &= t.checkExpect(store.students(), 5);
+    res &= t.checkExpect(store.courses(), 4);
+    res &= t.checkExpect(store.instructors(), 3);
+    res &= t.checkExpect(store.studentNames[2], "Aidan");
+    res &= t.checkExpect(store.studentIds[2], 27600);
+    res &= t.checkExpect(store.courseNames[3], "History");
+    res &= t.checkExpect(store.instructorNames[store.courseProfs[3]], "Smith");
+
+    // rows are sorted
+    res &= t.checkExpect(store.coursesOf(1), new int[] {0, 3});
+    res &= t.checkExpect(store.coursesOf(4), new int[0]);
+    res &= t.checkExpect(store.studentsOf(2), new int[] {2, 3});
+    res &= t.checkExpect(store.taughtBy(0), new int[] {0, 1});
+    res &= t.checkExpect(store.taughtBy(2), new int[0]);
+
+    // queries
+    res &= t.checkExpect(store.classmates(0, 1), true);
+    res &= t.checkExpect(store.classmates(0, 3), false);
+    res &= t.checkExpect(store.classmates(4, 0), false);
+    res &= t.checkExpect(store.dejavu(0), true);
+    res &= t.checkExpect(store.dejavu(1), false);
+    res &= t.checkExpect(store.dejavu(3), true);
+    res &= t.checkExpect(store.dejavu(4), false);
+    res &= t.checkExpect(store.sameProf(0, 1), true);
+    res &= t.checkExpect(store.sameProf(1, 2), false);
+    res &= t.checkExpect(agrees(store, students, courses), true);
+
+    // every course of a student must be in the store
+    String error = "";
+    try {
+      RegistrarStoreBuilder.of(students, new Course[] {fundies, calc, eng}, instructors);
+    } catch (IllegalArgumentException e) {
+      error = e.getMessage();
+    }
+    res &= t.checkExpect(error, "student Jackson takes unknown course History");
+    error = "";
+    try {
+      RegistrarStoreBuilder.of(students, courses, new Instructor[] {razzaq});
+    } catch (IllegalArgumentException e) {
+      error = e.getMessage();
+    }
+    res &= t.checkExpect(error, "course English has an unknown instructor");
+
+    return res;
+  }
+
+  boolean testBuilder(Tester t) {
+    boolean res = true;
+    RegistrarStoreBuilder builder = new RegistrarStoreBuilder();
+    int prof = builder.addInstructor("Prof");
+    int other = builder.addInstructor("Other");
+    for (int i = 0; i < 40; i += 1) {
+      builder.addCourse("Course " + i, i % 2 == 0 ? prof : other);
+    }
+    int a = builder.addStudent("A", 1);
+    int b = builder.addStudent("B", 2);
+    int c = builder.addStudent("C", 3);
+    for (int i = 39; i >= 0; i -= 2) {
+      builder.enroll(a, i);
+      builder.enroll(a, i);
+    }
+    builder.enroll(b, 0);
+    builder.enroll(c, 38);
+    builder.enroll(c, 2);
+    RegistrarStore store = builder.build();
+
+    // enrolling twice is the same as once
+    res &= t.checkExpect(store.coursesOf(a).length, 20);
+    res &= t.checkExpect(store.coursesOf(a)[0], 1);
+    res &= t.checkExpect(store.coursesOf(a)[19], 39);
+    res &= t.checkExpect(store.studentsOf(39), new int[] {a});
+    res &= t.checkExpect(store.coursesOf(c), new int[] {2, 38});
+    res &= t.checkExpect(store.taughtBy(prof).length, 20);
+
+    res &= t.checkExpect(store.classmates(a, b), false);
+    res &= t.checkExpect(store.classmates(b, c), false);
+    res &= t.checkExpect(store.dejavu(a), true);
+    res &= t.checkExpect(store.dejavu(b), false);
+    res &= t.checkExpect(store.dejavu(c), true);
+
+    // ids must exist
+    String error = "";
+    try {
+      builder.enroll(a, 40);
+    } catch (IllegalArgumentException e) {
+      error = e.getMessage();
+    }
+    res &= t.checkExpect(error, "no course with id 40");
+    error = "";
+    try {
+      builder.addCourse("Nobody's", 2);
+    } catch (IllegalArgumentException e) {
+      error = e.getMessage();
+    }
+    res &= t.checkExpect(error, "no instructor with id 2");
+
+    return res;
+  }
+
+  boolean testAgreesWithGen(Tester t) {
+    boolean res = true;
+    RegistrarGen gen = new RegistrarGen(300, 40, 10, 4, 1.0, 3);
+    RegistrarStore store = RegistrarStoreBuilder.of(gen.students, gen.courses,
+        gen.instructors);
+
+    res &= t.checkExpect(store.courses.length, gen.enrollments);
+    res &= t.checkExpect(store.rosters.length, gen.enrollments);
+    res &= t.checkExpect(agrees(store, gen.students, gen.courses), true);
+
+    // rows long enough to be sorted answer the same
+    RegistrarGen many = new RegistrarGen(200, 60, 30, 40, 1.0, 4);
+    RegistrarStore manyStore = RegistrarStoreBuilder.of(many.students, many.courses,
+        many.instructors);
+    res &= t.checkExpect(agrees(manyStore, many.students, many.courses), true);
+
+    return res;
+  }
+
+  boolean testConcurrentQueries(Tester t) throws InterruptedException {
+    boolean res = true;
+    RegistrarGen gen = new RegistrarGen(2000, 60, 40, 12, 0.0, 5);
+    RegistrarStore store = RegistrarStoreBuilder.of(gen.students, gen.courses,
+        gen.instructors);
+    boolean[] expected = new boolean[gen.students.length];
+    int seen = 0;
+    for (int i = 0; i < expected.length; i += 1) {
+      expected[i] = gen.students[i].dejavu(null);
+      seen += expected[i] ? 1 : 0;
+    }
+    // some students have met an instructor twice, and some have not
+    res &= t.checkExpect(seen > 0 && seen < expected.length, true);
+
+    // many threads asking at once each get the answers one thread would
+    int threads = 8;
+    boolean[] agreed = new boolean[threads];
+    Thread[] running = new Thread[threads];
+    for (int k = 0; k < threads; k += 1) {
+      int thread = k;
+      running[k] = new Thread(() -> {
+        boolean same = true;
+        for (int round = 0; round < 50; round += 1) {
+          for (int i = 0; i < expected.length; i += 1) {
+            same &= store.dejavu((i + thread * 251) % expected.length)
+                == expected[(i + thread * 251) % expected.length];
+          }
+        }
+        agreed[thread] = same;
+      });
+      running[k].start();
+    }
+    for (int k = 0; k < threads; k += 1) {
+      running[k].join();
+      res &= t.checkExpect(agreed[k], true);
+    }
+
+    return res;
+  }
+}
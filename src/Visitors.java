@@ -1,3 +1,5 @@
+import java.util.*;
+import java.util.concurrent.atomic.*;
 import java.util.function.*;
 import tester.Tester;
 
@@ -22,15 +24,29 @@ interface IArith {
   // --- solution:
   // ---- mirror(new Multiplication(1, 2)) -> new Multiplication(2, 1).base()
   IArith base();
+  
+  // evaluates the tree of arithmetic on primitive doubles, without boxing
+  // wherever the formulas provide a primitive operator
+  double evalDouble();
 }
 
 class Const implements IArith {
+  // how many times setNum has changed any const, so caches of
+  // evaluated results can tell when they are stale, on any thread
+  static final AtomicLong CHANGES = new AtomicLong();
+  
   double num;
 
   public Const(double num) {
     this.num = num;
   }
   
+  // changes the num of this const, letting caches of evaluated results know
+  void setNum(double num) {
+    this.num = num;
+    Const.CHANGES.incrementAndGet();
+  }
+  
   // accepts an IArithVisitor and passes this to its apply override
   // which accepts a Const
   public <R> R accept(IArithVisitor<R> visitor) {
@@ -41,16 +57,48 @@ class Const implements IArith {
   public IArith base() {
     return new Const(this.num);
   }
+  
+  // returns the value of this const
+  public double evalDouble() {
+    return this.num;
+  }
+}
+
+// a const which stands for one column of the inputs of a BatchEvalVisitor;
+// every other visitor treats it as a const with its default num
+final class Param extends Const {
+  int column;
+  
+  Param(int column, double num) {
+    super(num);
+    this.column = column;
+  }
+  
+  Param(int column) {
+    this(column, 0);
+  }
+  
+  // returns a copy of this param with IArith access level
+  public IArith base() {
+    return new Param(this.column, this.num);
+  }
 }
 
 class UnaryFormula implements IArith {
-  Function<Double, Double> func;
-  String name;
+  UnaryArithOp operator;
   IArith child;
 
   public UnaryFormula(Function<Double, Double> func, String name, IArith child) {
-    this.func = func;
-    this.name = name;
+    this(func, null, name, child);
+  }
+  
+  public UnaryFormula(Function<Double, Double> func, DoubleUnaryOperator op, String name,
+      IArith child) {
+    this(UnaryArithOp.of(func, op, name), child);
+  }
+  
+  public UnaryFormula(UnaryArithOp operator, IArith child) {
+    this.operator = operator;
     this.child = child;
   }
 
@@ -60,9 +108,14 @@ class UnaryFormula implements IArith {
     return visitor.apply(this);
   }
   
-  // passes a to this.func
+  // passes a to the func of this.operator
   public Double apply(Double a) {
-    return this.func.apply(a);
+    return this.operator.func.apply(a);
+  }
+  
+  // passes a to this.operator on primitive doubles
+  public double applyDouble(double a) {
+    return this.operator.applyDouble(a);
   }
   
   // has this.child accept the given IArithVisitor
@@ -73,15 +126,19 @@ class UnaryFormula implements IArith {
   // returns a copy of this UnaryFormula with IArith access level
   // and stripped of any extensions of UnaryFormula
   public IArith base() {
-    return new UnaryFormula(this.func, this.name, child.base());
+    return new UnaryFormula(this.operator, child.base());
+  }
+  
+  // applies this formula to the primitive value of the child,
+  // falling back to the boxed func when there is no primitive op
+  public double evalDouble() {
+    return this.operator.applyDouble(this.child.evalDouble());
   }
 }
 
-class Negation extends UnaryFormula {
+final class Negation extends UnaryFormula {
   Negation(IArith child) {
-    super((a) -> {
-      return -a;
-    }, "neg", child);
+    super(ArithOp.NEG, child);
   }
   
   Negation(double child) {
@@ -89,11 +146,9 @@ class Negation extends UnaryFormula {
   }
 }
 
-class Square extends UnaryFormula {
+final class Square extends UnaryFormula {
   Square(IArith child) {
-    super((a) -> {
-      return a * a;
-    }, "sqr", child);
+    super(ArithOp.SQR, child);
   }
   
   Square(double child) {
@@ -103,15 +158,22 @@ class Square extends UnaryFormula {
 
 
 class BinaryFormula implements IArith {
-  BiFunction<Double, Double, Double> func;
-  String name;
+  BinaryArithOp operator;
   IArith left;
   IArith right;
 
   public BinaryFormula(BiFunction<Double, Double, Double> func, String name, IArith left,
       IArith right) {
-    this.func = func;
-    this.name = name;
+    this(func, null, name, left, right);
+  }
+  
+  public BinaryFormula(BiFunction<Double, Double, Double> func, DoubleBinaryOperator op,
+      String name, IArith left, IArith right) {
+    this(BinaryArithOp.of(func, op, name), left, right);
+  }
+  
+  public BinaryFormula(BinaryArithOp operator, IArith left, IArith right) {
+    this.operator = operator;
     this.left = left;
     this.right = right;
   }
@@ -122,9 +184,14 @@ class BinaryFormula implements IArith {
     return visitor.apply(this);
   }
   
-  // passes a and b to this.func
+  // passes a and b to the func of this.operator
   public Double apply(Double a, Double b) {
-    return this.func.apply(a, b);
+    return this.operator.func.apply(a, b);
+  }
+  
+  // passes a and b to this.operator on primitive doubles
+  public double applyDouble(double a, double b) {
+    return this.operator.applyDouble(a, b);
   }
   
   // has this.left accept the given IArithVisitor
@@ -140,16 +207,20 @@ class BinaryFormula implements IArith {
   // returns a copy of this BinaryFormula with IArith access level
   // and stripped of any extensions of BinaryFormula
   public IArith base() {
-    return new BinaryFormula(this.func, this.name, left.base(), right.base());
+    return new BinaryFormula(this.operator, left.base(), right.base());
+  }
+  
+  // applies this formula to the primitive values of the left and right,
+  // falling back to the boxed func when there is no primitive op
+  public double evalDouble() {
+    return this.operator.applyDouble(this.left.evalDouble(), this.right.evalDouble());
   }
 }
 
 
-class Addition extends BinaryFormula {
+final class Addition extends BinaryFormula {
   Addition(IArith left, IArith right) {
-    super((a, b) -> {
-      return a + b;
-    }, "plus", left, right);
+    super(ArithOp.PLUS, left, right);
   }
   
   Addition(double left, double right) {
@@ -165,11 +236,9 @@ class Addition extends BinaryFormula {
   }
 }
 
-class Subtraction extends BinaryFormula {
+final class Subtraction extends BinaryFormula {
   Subtraction(IArith left, IArith right) {
-    super((a, b) -> {
-      return a - b;
-    }, "minus", left, right);
+    super(ArithOp.MINUS, left, right);
   }
   
   Subtraction(double left, double right) {
@@ -185,11 +254,9 @@ class Subtraction extends BinaryFormula {
   }
 }
 
-class Multiplication extends BinaryFormula {
+final class Multiplication extends BinaryFormula {
   Multiplication(IArith left, IArith right) {
-    super((a, b) -> {
-      return a * b;
-    }, "mul", left, right);
+    super(ArithOp.MUL, left, right);
   }
   
   Multiplication(double left, double right) {
@@ -205,11 +272,9 @@ class Multiplication extends BinaryFormula {
   }
 }
 
-class Division extends BinaryFormula {
+final class Division extends BinaryFormula {
   Division(IArith left, IArith right) {
-    super((a, b) -> {
-      return a / b;
-    }, "div", left, right);
+    super(ArithOp.DIV, left, right);
   }
   
   Division(double left, double right) {
@@ -239,7 +304,17 @@ interface IArithVisitor<R> {
   R apply(BinaryFormula arith);
 }
 
-class EvalVisitor implements IArithVisitor<Double> {
+// a visitor which can also be handed the results of the children of a formula
+// instead of visiting them itself, so IterativeVisitor can run it without recursing
+interface IArithFolder<R> extends IArithVisitor<R> {
+  // returns some value of type R given a UnaryFormula and the result of its child
+  R apply(UnaryFormula arith, R child);
+
+  // returns some value of type R given a BinaryFormula and the results of its left and right
+  R apply(BinaryFormula arith, R left, R right);
+}
+
+class EvalVisitor implements IArithFolder<Double> {
   
   // asks arith to pass itself to the apply function of this 
   // visitor which accepts its IArith implementation
@@ -255,18 +330,28 @@ class EvalVisitor implements IArithVisitor<Double> {
   
   // returns the application of the UnaryFormula on the evaluated child input
   public Double apply(UnaryFormula arith) {
-    return arith.apply(arith.childAccept(this));
+    return this.apply(arith, arith.childAccept(this));
   }
 
   // return the application of the BinaryFormula on the evaluated left and right input
   public Double apply(BinaryFormula arith) {
-    return arith.func.apply(
+    return this.apply(arith,
         arith.leftAccept(this),
         arith.rightAccept(this));
   }
+  
+  // returns the application of the UnaryFormula on the already evaluated child
+  public Double apply(UnaryFormula arith, Double child) {
+    return arith.apply(child);
+  }
+  
+  // returns the application of the BinaryFormula on the already evaluated left and right
+  public Double apply(BinaryFormula arith, Double left, Double right) {
+    return arith.apply(left, right);
+  }
 }
 
-class PrintVisitor implements IArithVisitor<String> {
+class PrintVisitor implements IArithFolder<String> {
   
   // asks arith to pass itself to the apply function of this
   // visitor which accepts its IArith implementation
@@ -281,24 +366,34 @@ class PrintVisitor implements IArithVisitor<String> {
   }
   
   // returns a string in the form:
-  // "(arith.name arith.child.accept(this))"
+  // "(arith.operator.name arith.child.accept(this))"
   public String apply(UnaryFormula arith) {
-    return 
-        "(" + arith.name + " "
-        + arith.childAccept(this) + ")";
+    return this.apply(arith, arith.childAccept(this));
   }
 
   // returns a string in the form:
-  // "(arith.name arith.left.accept(this) arith.right.accept(this))"
+  // "(arith.operator.name arith.left.accept(this) arith.right.accept(this))"
   public String apply(BinaryFormula arith) {
+    return this.apply(arith, arith.leftAccept(this), arith.rightAccept(this));
+  }
+  
+  // returns a string in the form "(arith.operator.name child)"
+  public String apply(UnaryFormula arith, String child) {
+    return 
+        "(" + arith.operator.name + " "
+        + child + ")";
+  }
+  
+  // returns a string in the form "(arith.operator.name left right)"
+  public String apply(BinaryFormula arith, String left, String right) {
     return 
-        "(" + arith.name + " "
-        + arith.leftAccept(this) + " "
-        + arith.rightAccept(this) + ")";
+        "(" + arith.operator.name + " "
+        + left + " "
+        + right + ")";
   }
 }
 
-class AllEvenVisitor implements IArithVisitor<Boolean> {
+class AllEvenVisitor implements IArithFolder<Boolean> {
   
   // asks arith to pass itself to the apply function of this
   // visitor which accepts its IArith implementation
@@ -322,9 +417,19 @@ class AllEvenVisitor implements IArithVisitor<Boolean> {
   public Boolean apply(BinaryFormula arith) {
     return arith.leftAccept(this) && arith.rightAccept(this);
   }
+  
+  // returns whether or not every const in the already visited child is even
+  public Boolean apply(UnaryFormula arith, Boolean child) {
+    return child;
+  }
+  
+  // returns whether or not every const in the already visited left and right is even
+  public Boolean apply(BinaryFormula arith, Boolean left, Boolean right) {
+    return left && right;
+  }
 }
 
-class MirrorVisitor implements IArithVisitor<IArith> {
+class MirrorVisitor implements IArithFolder<IArith> {
   
   // asks arith to pass itself to the apply function of this
   // visitor which accepts its IArith implementation
@@ -335,25 +440,280 @@ class MirrorVisitor implements IArithVisitor<IArith> {
   
   // returns a copy of arith
   public IArith apply(Const arith) {
-    return new Const(arith.num);
+    return arith.base();
   }
   
   // returns a copy of arith, where every BinaryFormula in the child arithmetic tree is flipped
   public IArith apply(UnaryFormula arith) {
-    return new UnaryFormula(
-        arith.func,
-        arith.name,
-        arith.childAccept(this));
+    return this.apply(arith, arith.childAccept(this));
   }
 
   // returns a flipped copy of this BinaryFormula arith, where every BinaryFormula
   // in the left and right arithmetic trees are also flipped
   public IArith apply(BinaryFormula arith) {
+    return this.apply(arith, arith.leftAccept(this), arith.rightAccept(this));
+  }
+  
+  // returns a copy of arith over the already mirrored child
+  public IArith apply(UnaryFormula arith, IArith child) {
+    return new UnaryFormula(
+        arith.operator,
+        child);
+  }
+  
+  // returns a flipped copy of arith over the already mirrored left and right
+  public IArith apply(BinaryFormula arith, IArith left, IArith right) {
     return new BinaryFormula(
-        arith.func,
-        arith.name,
-        arith.rightAccept(this),
-        arith.leftAccept(this));
+        arith.operator,
+        right,
+        left);
+  }
+}
+
+// evaluates a tree of arithmetic like EvalVisitor, but computes every formula
+// only once per evaluation even when it is shared by several parents, however
+// the evaluation starts: with apply, or with the tree accepting this visitor.
+// A persistent visitor keeps its results between evaluations until a const is
+// changed with setNum, or until it holds more than its capacity of results;
+// changing num directly, or the shape of a tree, is not noticed.
+class MemoEvalVisitor implements IArithVisitor<Double> {
+  // the results kept by a persistent visitor unless it is given another capacity
+  static final int CAPACITY = 1 << 20;
+
+  MemoEvaluator evaluator = new MemoEvaluator();
+  boolean persistent;
+  int capacity;
+  // the value of Const.CHANGES when the cache was last valid
+  long changes = Const.CHANGES.get();
+  
+  MemoEvalVisitor() {
+    this(false);
+  }
+  
+  MemoEvalVisitor(boolean persistent) {
+    this(persistent, CAPACITY);
+  }
+  
+  MemoEvalVisitor(boolean persistent, int capacity) {
+    this.persistent = persistent;
+    this.capacity = capacity;
+  }
+  
+  // evaluates the tree of arithmetic, reusing results of shared formulas
+  public Double apply(IArith arith) {
+    return this.evaluate(arith);
+  }
+  
+  // returns the value of the const
+  public Double apply(Const arith) {
+    return this.evaluate(arith);
+  }
+  
+  // evaluates arith, reusing results of shared formulas
+  public Double apply(UnaryFormula arith) {
+    return this.evaluate(arith);
+  }
+  
+  // evaluates arith, reusing results of shared formulas
+  public Double apply(BinaryFormula arith) {
+    return this.evaluate(arith);
+  }
+  
+  // forgets every kept result
+  void clear() {
+    this.evaluator.cache.clear();
+  }
+  
+  // evaluates arith with the cache, first dropping it if a const has changed since
+  // it was filled, and afterwards unless it is persistent and within its capacity
+  Double evaluate(IArith arith) {
+    // read before evaluating, so a const changed during this evaluation clears
+    // its results before the next one
+    long changes = Const.CHANGES.get();
+    if (this.changes != changes) {
+      this.clear();
+      this.changes = changes;
+    }
+    Double res = arith.accept(this.evaluator);
+    if (!this.persistent || this.evaluator.cache.size() > this.capacity) {
+      this.clear();
+    }
+    return res;
+  }
+}
+
+// evaluates the nodes of a tree of arithmetic for a MemoEvalVisitor, computing
+// each formula only once for as long as its result is in the cache
+class MemoEvaluator implements IArithVisitor<Double> {
+  IdentityHashMap<IArith, Double> cache = new IdentityHashMap<IArith, Double>();
+  
+  // asks arith to pass itself to the apply function of this 
+  // visitor which accepts its IArith implementation
+  public Double apply(IArith arith) {
+    return arith.accept(this);
+  }
+  
+  // returns the value of the const
+  public Double apply(Const arith) {
+    return arith.num;
+  }
+  
+  // returns the cached result of arith, computing it if there is none
+  public Double apply(UnaryFormula arith) {
+    Double res = this.cache.get(arith);
+    if (res == null) {
+      res = arith.apply(arith.childAccept(this));
+      this.cache.put(arith, res);
+    }
+    return res;
+  }
+  
+  // returns the cached result of arith, computing it if there is none
+  public Double apply(BinaryFormula arith) {
+    Double res = this.cache.get(arith);
+    if (res == null) {
+      res = arith.apply(arith.leftAccept(this), arith.rightAccept(this));
+      this.cache.put(arith, res);
+    }
+    return res;
+  }
+}
+
+// simplifies a tree of arithmetic into an equal, smaller one, by folding formulas
+// over consts and dropping the exact identities of the known formulas, counting
+// how many nodes it has removed. Identities which could change a -0.0 or NaN
+// result, like plus x 0.0 when x is -0.0, are left alone.
+class SimplifyVisitor implements IArithVisitor<IArith> {
+  int removed = 0;
+  
+  // asks arith to pass itself to the apply function of this
+  // visitor which accepts its IArith implementation
+  // Then, simplifies the tree of arithmetic
+  public IArith apply(IArith arith) {
+    return arith.accept(this);
+  }
+  
+  // returns a copy of arith
+  public IArith apply(Const arith) {
+    return arith.base();
+  }
+  
+  // returns the simplest formula equal to arith over its simplified child
+  public IArith apply(UnaryFormula arith) {
+    IArith child = arith.childAccept(this);
+    if (this.isFixed(child)) {
+      this.removed += 1;
+      return new Const(arith.apply(((Const) child).num));
+    }
+    if (arith.operator.id == ArithOp.NEG_ID && child instanceof UnaryFormula
+        && ((UnaryFormula) child).operator.id == ArithOp.NEG_ID) {
+      this.removed += 2;
+      return ((UnaryFormula) child).child;
+    }
+    return new UnaryFormula(arith.operator, child);
+  }
+  
+  // returns the simplest formula equal to arith over its simplified left and right
+  public IArith apply(BinaryFormula arith) {
+    IArith left = arith.leftAccept(this);
+    IArith right = arith.rightAccept(this);
+    if (this.isFixed(left) && this.isFixed(right)) {
+      this.removed += 2;
+      return new Const(arith.apply(((Const) left).num, ((Const) right).num));
+    }
+    int id = arith.operator.id;
+    if ((id == ArithOp.PLUS_ID && this.isExactly(left, -0.0))
+        || (id == ArithOp.MUL_ID && this.isExactly(left, 1.0))) {
+      this.removed += 2;
+      return right;
+    }
+    if ((id == ArithOp.PLUS_ID && this.isExactly(right, -0.0))
+        || (id == ArithOp.MINUS_ID && this.isExactly(right, 0.0))
+        || (id == ArithOp.MUL_ID && this.isExactly(right, 1.0))
+        || (id == ArithOp.DIV_ID && this.isExactly(right, 1.0))) {
+      this.removed += 2;
+      return left;
+    }
+    return new BinaryFormula(arith.operator, left, right);
+  }
+  
+  // is arith a const, and not a param which may take other values?
+  boolean isFixed(IArith arith) {
+    return arith instanceof Const && !(arith instanceof Param);
+  }
+  
+  // is arith a const with exactly the given num, telling 0.0 and -0.0 apart?
+  boolean isExactly(IArith arith, double num) {
+    return this.isFixed(arith)
+        && Double.doubleToRawLongBits(((Const) arith).num) == Double.doubleToRawLongBits(num);
+  }
+}
+
+// runs an IArithFolder over a tree of arithmetic on explicit stacks instead of
+// the Java call stack, so trees of any depth can be visited
+class IterativeVisitor<R> implements IArithVisitor<R> {
+  IArithFolder<R> visitor;
+  
+  IterativeVisitor(IArithFolder<R> visitor) {
+    this.visitor = visitor;
+  }
+  
+  // walks arith in post-order, handing every formula itself to the visitor along
+  // with the results already computed for its children
+  public R apply(IArith arith) {
+    ArrayDeque<IArith> todo = new ArrayDeque<IArith>();
+    ArrayDeque<Boolean> expanded = new ArrayDeque<Boolean>();
+    ArrayList<R> results = new ArrayList<R>();
+    todo.push(arith);
+    expanded.push(false);
+    while (!todo.isEmpty()) {
+      IArith node = todo.pop();
+      boolean done = expanded.pop();
+      if (node instanceof UnaryFormula) {
+        UnaryFormula unary = (UnaryFormula) node;
+        if (done) {
+          R child = results.remove(results.size() - 1);
+          results.add(this.visitor.apply(unary, child));
+        } else {
+          todo.push(unary);
+          expanded.push(true);
+          todo.push(unary.child);
+          expanded.push(false);
+        }
+      } else if (node instanceof BinaryFormula) {
+        BinaryFormula binary = (BinaryFormula) node;
+        if (done) {
+          R right = results.remove(results.size() - 1);
+          R left = results.remove(results.size() - 1);
+          results.add(this.visitor.apply(binary, left, right));
+        } else {
+          todo.push(binary);
+          expanded.push(true);
+          todo.push(binary.right);
+          expanded.push(false);
+          todo.push(binary.left);
+          expanded.push(false);
+        }
+      } else {
+        results.add(node.accept(this.visitor));
+      }
+    }
+    return results.get(0);
+  }
+  
+  // passes arith to the wrapped visitor
+  public R apply(Const arith) {
+    return this.visitor.apply(arith);
+  }
+  
+  // visits arith without recursing
+  public R apply(UnaryFormula arith) {
+    return this.apply((IArith) arith);
+  }
+  
+  // visits arith without recursing
+  public R apply(BinaryFormula arith) {
+    return this.apply((IArith) arith);
   }
 }
 
@@ -500,6 +860,337 @@ class ExamplesVisitors {
     return res;
   }
   
+  // primitive evaluation tests
+  
+  boolean testEvalDouble(Tester t) {
+    boolean res = true;
+    
+    // simple tests
+    
+    // - const
+    
+    res &= t.checkInexact(new Const(2).evalDouble(), 2.0, .001);
+    
+    // - unary
+    res &= t.checkInexact(new Negation(2).evalDouble(), -2.0, .001);
+    res &= t.checkInexact(new Square(2).evalDouble(), 4.0, .001);
+    
+    // - binary
+    res &= t.checkInexact(new Addition(1, 2).evalDouble(), 3.0, .001);
+    res &= t.checkInexact(new Subtraction(1, 2).evalDouble(), -1.0, .001);
+    res &= t.checkInexact(new Multiplication(1, 2).evalDouble(), 2.0, .001);
+    res &= t.checkInexact(new Division(1, 2).evalDouble(), 1d / 2, .001);
+    
+    // - formulas with only a boxed func
+    res &= t.checkInexact(
+        new UnaryFormula((a) -> a + 1, "inc", new Const(2)).evalDouble(), 3.0, .001);
+    res &= t.checkInexact(
+        new BinaryFormula(Math::max, "max", new Const(2), new Const(5)).evalDouble(), 5.0, .001);
+    
+    // complicated tests
+    res &= t.checkInexact(allAdds.evalDouble(), 8.0, .001);
+    res &= t.checkInexact(pointless.evalDouble(), 0.0, .001);
+    res &= t.checkInexact(large.evalDouble(), 157529610000.0, .001);
+    
+    // - the known formulas agree with their base() copies
+    res &= t.checkInexact(pointless.base().evalDouble(), pointless.evalDouble(), .001);
+    res &= t.checkInexact(large.base().evalDouble(), large.evalDouble(), .001);
+    
+    // - stripped and mirrored trees keep the primitive ops
+    res &= t.checkInexact(pointless.base().evalDouble(), 0.0, .001);
+    res &= t.checkInexact(pointless.accept(mirror).evalDouble(), 0.0, .001);
+    res &= t.checkInexact(new Division(1, 2).accept(mirror).evalDouble(), 2.0, .001);
+    
+    return res;
+  }
+  
+  // iterative visitor tests
+  
+  // returns a left leaning chain of n additions of 2 onto 0
+  IArith chain(int n) {
+    IArith res = new Const(0);
+    for (int i = 0; i < n; i += 1) {
+      res = new Addition(res, 2);
+    }
+    return res;
+  }
+  
+  boolean testIterativeVisitor(Tester t) {
+    boolean res = true;
+    
+    // simple tests
+    
+    // - const
+    
+    res &= t.checkInexact(new IterativeVisitor<Double>(eval).apply(new Const(2)), 2.0, .001);
+    res &= t.checkExpect(new IterativeVisitor<String>(print).apply(new Const(2)), "2.0");
+    
+    // - unary
+    res &= t.checkInexact(new IterativeVisitor<Double>(eval).apply(new Negation(2)), -2.0, .001);
+    res &= t.checkExpect(new IterativeVisitor<String>(print).apply(new Square(2)), "(sqr 2.0)");
+    
+    // - binary
+    res &= t.checkInexact(
+        new IterativeVisitor<Double>(eval).apply(new Division(1, 2)), 1d / 2, .001);
+    res &= t.checkExpect(
+        new IterativeVisitor<String>(print).apply(new Subtraction(1, 2)), "(minus 1.0 2.0)");
+    
+    // complicated tests
+    res &= t.checkInexact(new IterativeVisitor<Double>(eval).apply(pointless), 0.0, .001);
+    res &= t.checkInexact(
+        new IterativeVisitor<Double>(eval).apply(large), 157529610000.0, .001);
+    res &= t.checkExpect(new IterativeVisitor<String>(print).apply(pointless),
+        "(mul (mul 2.0 (minus 2.0 5.0)) (plus (neg 1.0) (div (plus 2.0 3.0) 5.0)))");
+    res &= t.checkExpect(new IterativeVisitor<Boolean>(allEven).apply(allAdds), true);
+    res &= t.checkExpect(new IterativeVisitor<Boolean>(allEven).apply(pointless), false);
+    res &= t.checkExpect(new IterativeVisitor<IArith>(mirror).apply(pointless),
+        pointless.accept(mirror));
+    res &= t.checkExpect(new IterativeVisitor<IArith>(mirror).apply(large),
+        large.accept(mirror));
+    
+    // the visitor is handed the formulas themselves, not copies of them
+    IArithFolder<String> names = new IArithFolder<String>() {
+      public String apply(IArith arith) {
+        return arith.accept(this);
+      }
+      
+      public String apply(Const arith) {
+        return arith.getClass().getName();
+      }
+      
+      public String apply(UnaryFormula arith) {
+        return this.apply(arith, arith.childAccept(this));
+      }
+      
+      public String apply(BinaryFormula arith) {
+        return this.apply(arith, arith.leftAccept(this), arith.rightAccept(this));
+      }
+      
+      public String apply(UnaryFormula arith, String child) {
+        return arith.getClass().getName() + "(" + child + ")";
+      }
+      
+      public String apply(BinaryFormula arith, String left, String right) {
+        return arith.getClass().getName() + "(" + left + " " + right + ")";
+      }
+    };
+    IArith mixed = new Addition(new Negation(new Param(0)), new Square(2));
+    res &= t.checkExpect(new IterativeVisitor<String>(names).apply(mixed),
+        "Addition(Negation(Param) Square(Const))");
+    res &= t.checkExpect(new IterativeVisitor<String>(names).apply(mixed), mixed.accept(names));
+    
+    return res;
+  }
+  
+  boolean testIterativeVisitorDeep(Tester t) {
+    boolean res = true;
+    
+    // far deeper than the recursive visitors can go
+    IArith deep = chain(1000000);
+    
+    res &= t.checkInexact(new IterativeVisitor<Double>(eval).apply(deep), 2000000.0, .001);
+    res &= t.checkExpect(new IterativeVisitor<Boolean>(allEven).apply(deep), true);
+    res &= t.checkExpect(new IterativeVisitor<Boolean>(allEven).apply(
+        new Addition(deep, 1)), false);
+    
+    IArith mirrored = new IterativeVisitor<IArith>(mirror).apply(deep);
+    res &= t.checkInexact(new IterativeVisitor<Double>(eval).apply(mirrored), 2000000.0, .001);
+    res &= t.checkExpect(((BinaryFormula) mirrored).left, new Const(2).base());
+    
+    String printed = new IterativeVisitor<String>(print).apply(chain(2000));
+    res &= t.checkExpect(printed, "(plus ".repeat(2000) + "0.0" + " 2.0)".repeat(2000));
+    
+    return res;
+  }
+  
+  // memoizing visitor tests
+  
+  boolean testMemoEvalVisitor(Tester t) {
+    boolean res = true;
+    MemoEvalVisitor memo = new MemoEvalVisitor();
+    
+    // simple tests
+    res &= t.checkInexact(new Const(2).accept(memo), 2.0, .001);
+    res &= t.checkInexact(memo.apply(new Negation(2)), -2.0, .001);
+    res &= t.checkInexact(memo.apply(new Square(2)), 4.0, .001);
+    res &= t.checkInexact(memo.apply(new Division(1, 2)), 1d / 2, .001);
+    
+    // complicated tests
+    res &= t.checkInexact(memo.apply(allAdds), 8.0, .001);
+    res &= t.checkInexact(memo.apply(pointless), 0.0, .001);
+    res &= t.checkInexact(memo.apply(large), 157529610000.0, .001);
+    
+    // - a DAG with 2^60 paths from the root to its const
+    int[] calls = new int[1];
+    IArith dag = new Const(1);
+    for (int i = 0; i < 60; i += 1) {
+      dag = new BinaryFormula((a, b) -> {
+        calls[0] += 1;
+        return a + b;
+      }, "plus", dag, dag);
+    }
+    res &= t.checkInexact(memo.apply(dag), Math.pow(2, 60), .001);
+    res &= t.checkExpect(calls[0], 60);
+    
+    // - without persistence every evaluation starts over
+    res &= t.checkInexact(memo.apply(dag), Math.pow(2, 60), .001);
+    res &= t.checkExpect(calls[0], 120);
+    
+    // - however it starts
+    res &= t.checkInexact(dag.accept(memo), Math.pow(2, 60), .001);
+    res &= t.checkExpect(calls[0], 180);
+    res &= t.checkInexact(dag.accept(memo), Math.pow(2, 60), .001);
+    res &= t.checkExpect(calls[0], 240);
+    res &= t.checkExpect(memo.evaluator.cache.size(), 0);
+    res &= t.checkInexact(new Const(3).accept(memo), 3.0, .001);
+    
+    return res;
+  }
+  
+  boolean testPersistentMemoEvalVisitor(Tester t) {
+    boolean res = true;
+    MemoEvalVisitor memo = new MemoEvalVisitor(true);
+    
+    int[] calls = new int[1];
+    Const leaf = new Const(1);
+    IArith dag = leaf;
+    for (int i = 0; i < 10; i += 1) {
+      dag = new BinaryFormula((a, b) -> {
+        calls[0] += 1;
+        return a + b;
+      }, "plus", dag, dag);
+    }
+    res &= t.checkInexact(memo.apply(dag), 1024.0, .001);
+    res &= t.checkExpect(calls[0], 10);
+    
+    // results are kept between evaluations
+    res &= t.checkInexact(memo.apply(dag), 1024.0, .001);
+    res &= t.checkExpect(calls[0], 10);
+    
+    // until a const changes
+    leaf.setNum(2);
+    res &= t.checkInexact(memo.apply(dag), 2048.0, .001);
+    res &= t.checkExpect(calls[0], 20);
+    
+    // however the evaluation starts
+    res &= t.checkInexact(dag.accept(memo), 2048.0, .001);
+    res &= t.checkExpect(calls[0], 20);
+    leaf.setNum(1);
+    res &= t.checkInexact(dag.accept(memo), 1024.0, .001);
+    res &= t.checkExpect(calls[0], 30);
+    
+    // even when the const is changed on another thread
+    Thread thread = new Thread(() -> leaf.setNum(3));
+    thread.start();
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      throw new IllegalStateException(e);
+    }
+    res &= t.checkInexact(memo.apply(dag), 3072.0, .001);
+    res &= t.checkExpect(calls[0], 40);
+    
+    // results past the capacity are dropped rather than kept forever
+    MemoEvalVisitor small = new MemoEvalVisitor(true, 5);
+    res &= t.checkInexact(small.apply(dag), 3072.0, .001);
+    res &= t.checkExpect(calls[0], 50);
+    res &= t.checkExpect(small.evaluator.cache.size(), 0);
+    IArith shallow = new Addition(new Negation(1), new Square(2));
+    res &= t.checkInexact(small.apply(shallow), 3.0, .001);
+    res &= t.checkExpect(small.evaluator.cache.size(), 3);
+    res &= t.checkExpect(memo.evaluator.cache.size(), 10);
+    
+    return res;
+  }
+  
+  // simplify visitor tests
+  
+  boolean testSimplifyVisitor(Tester t) {
+    boolean res = true;
+    SimplifyVisitor simplify = new SimplifyVisitor();
+    
+    // simple tests
+    
+    // - const
+    
+    res &= t.checkExpect(new Const(2).accept(simplify), new Const(2));
+    res &= t.checkExpect(simplify.removed, 0);
+    
+    // - unary
+    res &= t.checkExpect(new Negation(2).accept(simplify), new Const(-2));
+    res &= t.checkExpect(new Square(2).accept(simplify), new Const(4));
+    res &= t.checkExpect(simplify.removed, 2);
+    
+    // - binary
+    res &= t.checkExpect(new Addition(1, 2).accept(simplify), new Const(3));
+    res &= t.checkExpect(new Division(1, 2).accept(simplify), new Const(0.5));
+    res &= t.checkExpect(simplify.removed, 6);
+    
+    // complicated tests
+    
+    SimplifyVisitor counted = new SimplifyVisitor();
+    res &= t.checkExpect(allAdds.accept(counted), new Const(8));
+    res &= t.checkExpect(counted.removed, 6);
+    res &= t.checkExpect(large.accept(counted), new Const(157529610000.0));
+    res &= t.checkExpect(counted.removed, 11);
+    
+    // - (2 * -3) * 0.0 is -0.0, which must not become 0.0
+    res &= t.checkExpect(pointless.accept(simplify), new Const(-0.0));
+    res &= t.checkExpect(new Addition(new Const(-0.0), new Const(0.0)).accept(simplify),
+        new Const(0.0));
+    res &= t.checkExpect(new Addition(new Const(-0.0), new Const(-0.0)).accept(simplify),
+        new Const(-0.0));
+    
+    // - NaN stays NaN
+    res &= t.checkExpect(new Multiplication(new Const(Double.NaN), new Const(1)).accept(simplify),
+        new Const(Double.NaN));
+    res &= t.checkExpect(new Subtraction(new Division(0, 0), new Const(0)).accept(simplify),
+        new Const(Double.NaN));
+    
+    // - formulas with custom funcs are folded with their own func
+    res &= t.checkExpect(new UnaryFormula((a) -> a + 1, "inc", new Const(2)).accept(simplify),
+        new Const(3));
+    
+    return res;
+  }
+  
+  boolean testSimplifyIdentities(Tester t) {
+    boolean res = true;
+    SimplifyVisitor simplify = new SimplifyVisitor();
+    Param x = new Param(0);
+    
+    // params are never folded
+    res &= t.checkExpect(x.accept(simplify), new Param(0));
+    res &= t.checkExpect(new Negation(x).accept(simplify), new Negation(x).base());
+    res &= t.checkExpect(new Addition(x, new Addition(1, 2)).accept(simplify),
+        new Addition(x, 3).base());
+    res &= t.checkExpect(simplify.removed, 2);
+    
+    // exact identities
+    res &= t.checkExpect(new Negation(new Negation(x)).accept(simplify), new Param(0));
+    res &= t.checkExpect(new Addition(x, -0.0).accept(simplify), new Param(0));
+    res &= t.checkExpect(new Addition(-0.0, x).accept(simplify), new Param(0));
+    res &= t.checkExpect(new Subtraction(x, 0.0).accept(simplify), new Param(0));
+    res &= t.checkExpect(new Multiplication(x, 1).accept(simplify), new Param(0));
+    res &= t.checkExpect(new Multiplication(1, x).accept(simplify), new Param(0));
+    res &= t.checkExpect(new Division(x, new Subtraction(3, 2)).accept(simplify),
+        new Param(0));
+    res &= t.checkExpect(simplify.removed, 2 + 14 + 2);
+    
+    // identities that would turn a -0.0 into 0.0 are kept
+    res &= t.checkExpect(new Addition(x, 0.0).accept(simplify), new Addition(x, 0.0).base());
+    res &= t.checkExpect(new Subtraction(x, -0.0).accept(simplify),
+        new Subtraction(x, -0.0).base());
+    res &= t.checkExpect(new Subtraction(0.0, x).accept(simplify),
+        new Subtraction(0.0, x).base());
+    
+    // identities of unknown formulas are not assumed
+    IArith max = new BinaryFormula(Math::max, "max", x, new Const(1));
+    res &= t.checkExpect(max.accept(simplify), max);
+    
+    return res;
+  }
+  
   // visitor apply tests
   
   // - generic ariths
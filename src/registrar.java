@@ -1,3 +1,4 @@
+import java.util.*;
 import java.util.function.*;
 import tester.Tester;
 
@@ -6,6 +7,22 @@ interface IList<T> {
   <R> R fold(BiFunction<R, T, R> func, R val);
 
   boolean anyCompareMatches(BiPredicate<T, T> compare);
+
+  // folds like fold, but stops as soon as done is true of the result so far
+  <R> R foldUntil(BiFunction<R, T, R> func, Predicate<R> done, R val);
+
+  // is pred true of any item, stopping at the first one it is true of
+  boolean anyMatch(Predicate<T> pred);
+
+  // is pred true of every item, stopping at the first one it is false of
+  boolean allMatch(Predicate<T> pred);
+
+  // returns the first item pred is true of, if there is one
+  Optional<T> findFirst(Predicate<T> pred);
+
+  // do any two items have equal keys, remembering the keys seen so far in a hash
+  // set so the list is walked once, and stopping at the first repeat
+  <K> boolean anyDuplicateBy(Function<T, K> key);
 }
 
 //represents an empty list of type T
@@ -17,9 +34,31 @@ class MtList<T> implements IList<T> {
   public boolean anyCompareMatches(BiPredicate<T, T> compare) {
     return false;
   }
+
+  public <R> R foldUntil(BiFunction<R, T, R> func, Predicate<R> done, R val) {
+    return val;
+  }
+
+  public boolean anyMatch(Predicate<T> pred) {
+    return false;
+  }
+
+  public boolean allMatch(Predicate<T> pred) {
+    return true;
+  }
+
+  public Optional<T> findFirst(Predicate<T> pred) {
+    return Optional.empty();
+  }
+
+  public <K> boolean anyDuplicateBy(Function<T, K> key) {
+    return false;
+  }
 }
 
 //represents a point of a list with data of type T
+//traversals walk the list in a loop rather than recursing on rest, so they run in
+//constant stack however long the list is, and hand whatever ends it the rest of the work
 class ConsList<T> implements IList<T> {
   T first;
   IList<T> rest;
@@ -30,28 +69,108 @@ class ConsList<T> implements IList<T> {
   }
 
   public <R> R fold(BiFunction<R, T, R> func, R val) {
-    return this.rest.fold(func, func.apply(val, first));
+    IList<T> list = this;
+    while (list instanceof ConsList) {
+      ConsList<T> cons = (ConsList<T>) list;
+      val = func.apply(val, cons.first);
+      list = cons.rest;
+    }
+    return list.fold(func, val);
   }
 
   public boolean anyCompareMatches(BiPredicate<T, T> compare) {
-    boolean firstMatch = this.rest.fold((res, element) -> {
-      return res || compare.test(this.first, element);
-    }, false);
-    if (firstMatch) {
-      return true;
+    IList<T> list = this;
+    while (list instanceof ConsList) {
+      ConsList<T> cons = (ConsList<T>) list;
+      boolean firstMatch = cons.rest.anyMatch((element) -> {
+        return compare.test(cons.first, element);
+      });
+      if (firstMatch) {
+        return true;
+      }
+      list = cons.rest;
+    }
+    return list.anyCompareMatches(compare);
+  }
+
+  public <R> R foldUntil(BiFunction<R, T, R> func, Predicate<R> done, R val) {
+    IList<T> list = this;
+    while (list instanceof ConsList) {
+      if (done.test(val)) {
+        return val;
+      }
+      ConsList<T> cons = (ConsList<T>) list;
+      val = func.apply(val, cons.first);
+      list = cons.rest;
+    }
+    return list.foldUntil(func, done, val);
+  }
+
+  public boolean anyMatch(Predicate<T> pred) {
+    IList<T> list = this;
+    while (list instanceof ConsList) {
+      ConsList<T> cons = (ConsList<T>) list;
+      if (pred.test(cons.first)) {
+        return true;
+      }
+      list = cons.rest;
+    }
+    return list.anyMatch(pred);
+  }
+
+  public boolean allMatch(Predicate<T> pred) {
+    IList<T> list = this;
+    while (list instanceof ConsList) {
+      ConsList<T> cons = (ConsList<T>) list;
+      if (!pred.test(cons.first)) {
+        return false;
+      }
+      list = cons.rest;
+    }
+    return list.allMatch(pred);
+  }
+
+  public Optional<T> findFirst(Predicate<T> pred) {
+    IList<T> list = this;
+    while (list instanceof ConsList) {
+      ConsList<T> cons = (ConsList<T>) list;
+      if (pred.test(cons.first)) {
+        return Optional.of(cons.first);
+      }
+      list = cons.rest;
     }
-    return this.rest.anyCompareMatches(compare);
+    return list.findFirst(pred);
+  }
+
+  public <K> boolean anyDuplicateBy(Function<T, K> key) {
+    HashSet<K> seen = new HashSet<K>();
+    IList<T> list = this;
+    while (list instanceof ConsList) {
+      ConsList<T> cons = (ConsList<T>) list;
+      if (!seen.add(key.apply(cons.first))) {
+        return true;
+      }
+      list = cons.rest;
+    }
+    return false;
   }
 }
 
 // represents a course with a name, proffesor, and has students
 class Course {
+  // how many courses have been made, which gives every course its own id
+  static int count = 0;
+
+  int id;
   String name;
   Instructor prof;
-  IList<Student> students;
+  // volatile so that threads reading without a lock see the latest roster, see
+  // ConcurrentRegistrar
+  volatile IList<Student> students;
 
   // constructor
   Course(String name, Instructor prof) {
+    this.id = Course.nextId();
     this.name = name;
     this.prof = prof;
     prof.newClass(this);
@@ -59,6 +178,13 @@ class Course {
 
   }
 
+  // returns the id of a new course, which may be made on any thread
+  static synchronized int nextId() {
+    int id = Course.count;
+    Course.count += 1;
+    return id;
+  }
+
   // adds a student to the list of Students
   void addStudent(Student s) {
     students = new ConsList<Student>(s, students);
@@ -79,7 +205,7 @@ class Course {
 // represents and instuctor who has a name a teahces courses
 class Instructor {
   String name;
-  IList<Course> courses;
+  volatile IList<Course> courses;
 
   // constructor
   Instructor(String name) {
@@ -87,8 +213,9 @@ class Instructor {
     courses = new MtList<Course>();
   }
 
-  // adds a course to the proffesors list of courses
-  void newClass(Course c) {
+  // adds a course to the proffesors list of courses, locking this instructor so
+  // courses made on different threads are all kept
+  synchronized void newClass(Course c) {
     courses = new ConsList<Course>(c, courses);
   }
 
@@ -108,38 +235,78 @@ class Instructor {
 class Student {
   String name;
   int id;
-  IList<Course> courses;
+  volatile IList<Course> courses;
+  // the ids of this student's courses, sorted and without repeats
+  volatile int[] courseIds;
 
   // constructor
   Student(String name, int id) {
     this.name = name;
     this.id = id;
     courses = new MtList<Course>();
+    courseIds = new int[0];
   }
 
   // puts a course in a students courses and adds them to the courses' student
-  // list
+  // list. Threads enrolling at once must go through a ConcurrentRegistrar instead.
   void enroll(Course c) {
     this.courses = new ConsList<Course>(c, this.courses);
+    this.addCourseId(c.id);
     c.addStudent(this);
   }
 
+  // adds the id to this student's sorted course ids, unless it is there already
+  void addCourseId(int id) {
+    int index = Arrays.binarySearch(this.courseIds, id);
+    if (index < 0) {
+      int insert = -index - 1;
+      int[] ids = new int[this.courseIds.length + 1];
+      System.arraycopy(this.courseIds, 0, ids, 0, insert);
+      ids[insert] = id;
+      System.arraycopy(this.courseIds, insert, ids, insert + 1, this.courseIds.length - insert);
+      this.courseIds = ids;
+    }
+  }
+
   // determines whether the this Student is in more than one of given Instructor’s
   // Courses
   boolean dejavu(Instructor i) {
-    return this.courses.anyCompareMatches((course1, course2) -> {
-      return course1.sameProf(course2);
-    });
+    return this.courses.anyDuplicateBy((course) -> course.prof);
   }
 
   // determines whether the given Student is in any of the same classes as this
-  // Student
+  // Student, by walking both sorted lists of course ids until they meet
   boolean classmates(Student c) {
+    int[] mine = this.courseIds;
+    int[] theirs = c.courseIds;
+    int i = 0;
+    int j = 0;
+    while (i < mine.length && j < theirs.length) {
+      if (mine[i] == theirs[j]) {
+        return true;
+      } else if (mine[i] < theirs[j]) {
+        i += 1;
+      } else {
+        j += 1;
+      }
+    }
+    return false;
+  }
+
+  // returns every other Student in any of this Student's classes, once each,
+  // found through the students of each course
+  IList<Student> allClassmates() {
+    Set<Student> seen = Collections.newSetFromMap(new IdentityHashMap<Student, Boolean>());
+    seen.add(this);
+    IList<Student> none = new MtList<Student>();
     return this.courses.fold((res, course) -> {
-      return res || c.courses.fold((res1, course1) -> {
-        return res1 || course.sameCourse(course1);
-      }, false);
-    }, false);
+      return course.students.fold((res1, s) -> {
+        if (seen.add(s)) {
+          return new ConsList<Student>(s, res1);
+        }
+        return res1;
+      }, res);
+    }, none);
   }
 }
 
@@ -335,6 +502,51 @@ class ExamplesRegistrar {
     res &= t.checkExpect(micah.classmates(daniel), false);
     // students that share a class
     res &= t.checkExpect(micah.classmates(jackson), true);
+    // students that share their last class
+    res &= t.checkExpect(aidan.classmates(daniel), true);
+    // a student and themselves
+    res &= t.checkExpect(micah.classmates(micah), true);
+
+    return res;
+  }
+
+  // tests the course ids kept by enroll
+  boolean testCourseIds(Tester t) {
+    create();
+    boolean res = true;
+
+    // every course has its own id, counting up
+    res &= t.checkExpect(calc.id, fundies.id + 1);
+    res &= t.checkExpect(his.id, fundies.id + 3);
+    // student with no courses
+    res &= t.checkExpect(jacob.courseIds, new int[0]);
+    // ids are sorted whatever order the courses are taken in
+    res &= t.checkExpect(daniel.courseIds, new int[] { eng.id, his.id });
+    jacob.enroll(his);
+    jacob.enroll(fundies);
+    jacob.enroll(eng);
+    res &= t.checkExpect(jacob.courseIds, new int[] { fundies.id, eng.id, his.id });
+    // enrolling twice keeps one id
+    jacob.enroll(eng);
+    res &= t.checkExpect(jacob.courseIds, new int[] { fundies.id, eng.id, his.id });
+
+    return res;
+  }
+
+  // tests the allClassmates method
+  boolean testAllClassmates(Tester t) {
+    create();
+    boolean res = true;
+
+    // student with no courses
+    res &= t.checkExpect(jacob.allClassmates(), new MtList<Student>());
+    // students sharing either course, once each and never themselves
+    res &= t.checkExpect(micah.allClassmates(),
+        new ConsList<Student>(jackson, new ConsList<Student>(aidan, new MtList<Student>())));
+    jacob.enroll(eng);
+    jacob.enroll(calc);
+    res &= t.checkExpect(jacob.allClassmates(), new ConsList<Student>(daniel,
+        new ConsList<Student>(micah, new ConsList<Student>(aidan, new MtList<Student>()))));
 
     return res;
   }
@@ -385,4 +597,136 @@ class ExamplesRegistrar {
     
     return res;
   }
+  
+  boolean testAnyDuplicateBy(Tester t) {
+    boolean res = true;
+    
+    IList<Integer> ints = new ConsList<Integer>(1,
+        new ConsList<Integer>(2,
+        new ConsList<Integer>(-3,
+        new MtList<Integer>())));
+    
+    res &= t.checkExpect(new MtList<Integer>().anyDuplicateBy((a) -> a), false);
+    res &= t.checkExpect(ints.anyDuplicateBy((a) -> a), false);
+    res &= t.checkExpect(ints.anyDuplicateBy((a) -> Integer.signum(a)), true);
+    res &= t.checkExpect(ints.anyDuplicateBy((a) -> a % 2 == 0), true);
+    
+    // agrees with comparing every pair by the same key
+    create();
+    jacob.enroll(eng);
+    jacob.enroll(calc);
+    jacob.enroll(fundies);
+    res &= t.checkExpect(jacob.courses.anyDuplicateBy((c) -> c.prof),
+        jacob.courses.anyCompareMatches((c1, c2) -> c1.sameProf(c2)));
+    res &= t.checkExpect(aidan.courses.anyDuplicateBy((c) -> c.prof),
+        aidan.courses.anyCompareMatches((c1, c2) -> c1.sameProf(c2)));
+    
+    return res;
+  }
+  
+  boolean testFoldUntil(Tester t) {
+    boolean res = true;
+    
+    IList<Integer> ints = new ConsList<Integer>(1,
+        new ConsList<Integer>(2,
+        new ConsList<Integer>(3,
+        new MtList<Integer>())));
+    
+    // sum until over 2
+    
+    res &= t.checkExpect(ints.foldUntil((a, b) -> a + b, (a) -> a > 2, 0), 3);
+    
+    // never done is the same as fold
+    
+    res &= t.checkExpect(ints.foldUntil((s, a) -> s + a, (s) -> false, ""), "123");
+    
+    // done before starting
+    
+    res &= t.checkExpect(ints.foldUntil((a, b) -> a + b, (a) -> true, 0), 0);
+    res &= t.checkExpect(new MtList<Integer>().foldUntil((a, b) -> a + b, (a) -> false, 5), 5);
+    
+    return res;
+  }
+  
+  boolean testAnyAllMatch(Tester t) {
+    boolean res = true;
+    
+    IList<Integer> ints = new ConsList<Integer>(1,
+        new ConsList<Integer>(2,
+        new ConsList<Integer>(3,
+        new MtList<Integer>())));
+    
+    // any
+    
+    res &= t.checkExpect(ints.anyMatch((a) -> a == 2), true);
+    res &= t.checkExpect(ints.anyMatch((a) -> a > 3), false);
+    res &= t.checkExpect(new MtList<Integer>().anyMatch((a) -> true), false);
+    
+    // all
+    
+    res &= t.checkExpect(ints.allMatch((a) -> a > 0), true);
+    res &= t.checkExpect(ints.allMatch((a) -> a < 3), false);
+    res &= t.checkExpect(new MtList<Integer>().allMatch((a) -> false), true);
+    
+    // searches stop at the first item which decides them
+    
+    ArrayList<Integer> seen = new ArrayList<Integer>();
+    ints.anyMatch((a) -> seen.add(a) && a == 1);
+    res &= t.checkExpect(seen.size(), 1);
+    ints.allMatch((a) -> seen.add(a) && a < 2);
+    res &= t.checkExpect(seen.size(), 3);
+    
+    return res;
+  }
+  
+  boolean testFindFirst(Tester t) {
+    boolean res = true;
+    
+    IList<Integer> ints = new ConsList<Integer>(1,
+        new ConsList<Integer>(2,
+        new ConsList<Integer>(4,
+        new MtList<Integer>())));
+    
+    res &= t.checkExpect(ints.findFirst((a) -> a % 2 == 0), Optional.of(2));
+    res &= t.checkExpect(ints.findFirst((a) -> a > 4), Optional.empty());
+    res &= t.checkExpect(new MtList<Integer>().findFirst((a) -> true), Optional.empty());
+    
+    return res;
+  }
+  
+  boolean testLongLists(Tester t) {
+    boolean res = true;
+    
+    // a list far longer than the stack is deep
+    
+    int n = 1000000;
+    IList<Integer> ints = new MtList<Integer>();
+    for (int i = n; i > 0; i -= 1) {
+      ints = new ConsList<Integer>(i, ints);
+    }
+    
+    res &= t.checkExpect(ints.fold((a, b) -> a + b, 0L), (long) n * (n + 1) / 2);
+    res &= t.checkExpect(ints.fold((a, b) -> b, 0), n);
+    res &= t.checkExpect(ints.foldUntil((a, b) -> b, (a) -> a == n - 1, 0), n - 1);
+    res &= t.checkExpect(ints.anyMatch((a) -> a == n), true);
+    res &= t.checkExpect(ints.allMatch((a) -> a > 0), true);
+    res &= t.checkExpect(ints.findFirst((a) -> a > n - 1), Optional.of(n));
+    res &= t.checkExpect(new ConsList<Integer>(n, ints).anyCompareMatches(
+        (a, b) -> a.equals(b)), true);
+    res &= t.checkExpect(ints.anyDuplicateBy((a) -> a), false);
+    res &= t.checkExpect(ints.anyDuplicateBy((a) -> a / 2), true);
+    
+    // a course with a very large roster
+    
+    create();
+    for (int i = 0; i < n; i += 1) {
+      fundies.addStudent(jacob);
+    }
+    res &= t.checkExpect(fundies.students.allMatch((s) -> s.name.length() > 0), true);
+    IList<Student> classmates = micah.allClassmates();
+    res &= t.checkExpect(classmates.fold((count, s) -> count + 1, 0), 3);
+    res &= t.checkExpect(classmates.anyMatch((s) -> s == jacob), true);
+    
+    return res;
+  }
 }